@@ -4,8 +4,11 @@ import edu.umd.cs.findbugs.annotations.CheckForNull;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkException;
@@ -14,6 +17,8 @@ import software.amazon.awssdk.services.ec2.model.AvailabilityZone;
 import software.amazon.awssdk.services.ec2.model.DescribeAvailabilityZonesResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.ec2.model.Image;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.Reservation;
@@ -21,6 +26,11 @@ import software.amazon.awssdk.services.ec2.model.Reservation;
 final class CloudHelper {
     private static final Logger LOGGER = Logger.getLogger(CloudHelper.class.getName());
 
+    /* DescribeInstances accepts at most 200 values per filter */
+    private static final int MAX_FILTER_VALUES = 200;
+
+    private static final int DESCRIBE_PAGE_SIZE = 1000;
+
     static Instance getInstanceWithRetry(String instanceId, EC2Cloud cloud) throws SdkException, InterruptedException {
         // Sometimes even after a successful RunInstances, DescribeInstances
         // returns an error for a few seconds. We do a few retries instead of
@@ -102,6 +112,54 @@ final class CloudHelper {
         return result;
     }
 
+    /**
+     * The instances found by {@link #describeInstances}, and the ones whose lookup failed.
+     */
+    static final class InstanceLookup {
+        final Map<String, Instance> instances = new HashMap<>();
+        final Set<String> failed = new HashSet<>();
+    }
+
+    /**
+     * Fetches the given instances with an {@code instance-id} filter, which unlike the {@code InstanceIds} parameter
+     * does not fail the whole call when one of the instances no longer exists. Missing instances are omitted, and the
+     * instances of a chunk that could not be described are reported as failed.
+     */
+    static InstanceLookup describeInstances(EC2Cloud cloud, List<String> instanceIds) {
+        InstanceLookup lookup = new InstanceLookup();
+        for (int i = 0; i < instanceIds.size(); i += MAX_FILTER_VALUES) {
+            List<String> chunk = instanceIds.subList(i, Math.min(i + MAX_FILTER_VALUES, instanceIds.size()));
+            Map<String, Instance> found = new HashMap<>();
+            try {
+                String nextToken = null;
+                do {
+                    DescribeInstancesRequest request = DescribeInstancesRequest.builder()
+                            .filters(Filter.builder().name("instance-id").values(chunk).build())
+                            .maxResults(DESCRIBE_PAGE_SIZE)
+                            .nextToken(nextToken)
+                            .build();
+                    DescribeInstancesResponse response = cloud.connect().describeInstances(request);
+                    for (Reservation r : response.reservations()) {
+                        for (Instance inst : r.instances()) {
+                            found.put(inst.instanceId(), inst);
+                        }
+                    }
+                    nextToken = response.nextToken();
+                } while (nextToken != null && !nextToken.isEmpty());
+            } catch (SdkException e) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "Failed to describe " + chunk.size() + " instances of cloud " + cloud.getDisplayName(),
+                        e);
+                // A page may have been described already, the whole chunk is reported as failed
+                lookup.failed.addAll(chunk);
+                continue;
+            }
+            lookup.instances.putAll(found);
+        }
+        return lookup;
+    }
+
     @CheckForNull
     static Image getAmiImage(Ec2Client ec2, String ami) {
         List<String> images = Collections.singletonList(ami);
@@ -0,0 +1,98 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A task polling EC2 for the pending work of one cloud, e.g. the agents being launched.
+ *
+ * <p>
+ * There is one poller of each kind per cloud. It runs on the {@link Timer} once started, and schedules its next round
+ * every poll interval while some work is left, so that nothing runs while there is nothing to wait for.
+ */
+@Restricted(NoExternalUse.class)
+public abstract class CloudPoller {
+    private static final Logger LOGGER = Logger.getLogger(CloudPoller.class.getName());
+
+    private static final Map<String, CloudPoller> POLLERS = new ConcurrentHashMap<>();
+
+    private final long pollIntervalMs;
+
+    private final String task;
+
+    /* The latest configuration of the cloud, the clouds are replaced as a whole when reconfigured */
+    private volatile EC2Cloud cloud;
+
+    /* Guarded by this */
+    private boolean polling;
+
+    /**
+     * @param task what a round does, for the logs, e.g. "poll the Windows passwords"
+     */
+    protected CloudPoller(@NonNull EC2Cloud cloud, long pollIntervalMs, @NonNull String task) {
+        this.cloud = cloud;
+        this.pollIntervalMs = pollIntervalMs;
+        this.task = task;
+    }
+
+    /**
+     * Returns the poller of a kind for a cloud, created on first use and following the cloud when it is reconfigured.
+     */
+    @NonNull
+    protected static <T extends CloudPoller> T of(
+            @NonNull EC2Cloud cloud, @NonNull Class<T> type, @NonNull Function<EC2Cloud, T> factory) {
+        T poller = type.cast(POLLERS.computeIfAbsent(type.getName() + ":" + cloud.name, key -> factory.apply(cloud)));
+        poller.cloud = cloud;
+        return poller;
+    }
+
+    @NonNull
+    protected final EC2Cloud getCloud() {
+        return cloud;
+    }
+
+    /**
+     * Starts polling, unless a round is running or scheduled already.
+     */
+    protected final synchronized void startPolling() {
+        if (!polling) {
+            polling = true;
+            Timer.get().execute(this::run);
+        }
+    }
+
+    /**
+     * Runs one round for the pending work.
+     */
+    protected abstract void poll(@NonNull EC2Cloud cloud);
+
+    /**
+     * Whether some work is left, checked after each round to schedule the next one.
+     */
+    protected abstract boolean hasPending();
+
+    private void run() {
+        EC2Cloud cloud = this.cloud;
+        try {
+            poll(cloud);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to " + task + " of " + cloud.name, e);
+        } finally {
+            synchronized (this) {
+                if (hasPending()) {
+                    Timer.get().schedule(this::run, pollIntervalMs, TimeUnit.MILLISECONDS);
+                } else {
+                    polling = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.AllocationState;
+import software.amazon.awssdk.services.ec2.model.AutoPlacement;
+import software.amazon.awssdk.services.ec2.model.DescribeHostsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeHostsResponse;
+import software.amazon.awssdk.services.ec2.model.Host;
+import software.amazon.awssdk.services.ec2.model.InstanceCapacity;
+
+/**
+ * The Dedicated Hosts allocated to the account of a cloud, for the templates with {@link Tenancy#Host}.
+ *
+ * <p>
+ * A Mac instance needs a host to itself, and a host is scrubbed for a while after its instance is gone before it
+ * accepts another one. Rather than letting EC2 place the instances and failing when no host happens to be free, the
+ * launches are targeted at a host known to be free, and hosts released by terminated agents are used again once
+ * scrubbed. The hosts are described again at most every {@link #REFRESH_INTERVAL_MS}, and the instance slots of a host
+ * picked for a launch are claimed for {@link #CLAIM_MS} while EC2 catches up. Only the hosts with auto-placement on are
+ * used: the others only take the instances explicitly launched on them, and are usually kept for other workloads.
+ * Hosts are never allocated nor released here: they are billed for a minimum period, which is left to the
+ * administrator to decide on.
+ */
+final class DedicatedHostPool {
+    private static final Logger LOGGER = Logger.getLogger(DedicatedHostPool.class.getName());
+
+    static final long REFRESH_INTERVAL_MS =
+            Long.getLong(DedicatedHostPool.class.getName() + ".refreshIntervalMs", TimeUnit.SECONDS.toMillis(30));
+
+    /* How long the slots of a host picked for a launch are kept for it, until its instances show up on the host */
+    static final long CLAIM_MS =
+            Long.getLong(DedicatedHostPool.class.getName() + ".claimMs", TimeUnit.MINUTES.toMillis(2));
+
+    /* Mac hosts are billed for at least a day */
+    private static final Duration MAC_MINIMUM_ALLOCATION = Duration.ofHours(24);
+
+    private static final Map<String, DedicatedHostPool> POOLS = new ConcurrentHashMap<>();
+
+    enum State {
+        /* Can take another instance */
+        AVAILABLE,
+        /* Being scrubbed after an instance was stopped or terminated, or still being allocated */
+        PENDING_SCRUB,
+        /* Full */
+        OCCUPIED
+    }
+
+    /**
+     * A host of the pool, as last described.
+     */
+    static final class Entry {
+        private final String hostId;
+        private final String zone;
+        private final String instanceType;
+        private final String instanceFamily;
+        private final State state;
+        private final int availableInstances;
+        private final Instant allocationTime;
+
+        Entry(Host host) {
+            this.hostId = host.hostId();
+            this.zone = host.availabilityZone();
+            this.instanceType = host.hostProperties() != null ? host.hostProperties().instanceType() : null;
+            this.instanceFamily = host.hostProperties() != null ? host.hostProperties().instanceFamily() : null;
+            this.availableInstances = availableInstances(host);
+            this.allocationTime = host.allocationTime();
+            if (host.state() == AllocationState.PENDING) {
+                this.state = State.PENDING_SCRUB;
+            } else if (availableInstances > 0) {
+                this.state = State.AVAILABLE;
+            } else {
+                this.state = State.OCCUPIED;
+            }
+        }
+
+        private static int availableInstances(Host host) {
+            if (host.availableCapacity() == null) {
+                return 0;
+            }
+            int available = 0;
+            for (InstanceCapacity capacity : host.availableCapacity().availableInstanceCapacity()) {
+                if (capacity.availableCapacity() != null) {
+                    available += capacity.availableCapacity();
+                }
+            }
+            return available;
+        }
+
+        String getHostId() {
+            return hostId;
+        }
+
+        String getZone() {
+            return zone;
+        }
+
+        State getState() {
+            return state;
+        }
+
+        int getAvailableInstances() {
+            return availableInstances;
+        }
+
+        /**
+         * Whether the host can run instances of a type, being configured either for that type or for its family.
+         */
+        boolean supports(String type) {
+            if (type.equals(instanceType)) {
+                return true;
+            }
+            int dot = type.indexOf('.');
+            return instanceType == null && dot > 0 && type.substring(0, dot).equals(instanceFamily);
+        }
+
+        /**
+         * How long the host is still billed for if released now, zero once its minimum allocation period is over.
+         */
+        Duration getRemainingMinimumAllocation(Instant now) {
+            String family = instanceFamily != null ? instanceFamily : instanceType;
+            if (allocationTime == null || family == null || !family.toLowerCase(Locale.ENGLISH).startsWith("mac")) {
+                return Duration.ZERO;
+            }
+            Duration remaining = Duration.between(now, allocationTime.plus(MAC_MINIMUM_ALLOCATION));
+            return remaining.isNegative() ? Duration.ZERO : remaining;
+        }
+
+        @Override
+        public String toString() {
+            return hostId + " (" + state + ", " + zone + ")";
+        }
+    }
+
+    /**
+     * Instance slots of a host claimed for a launch.
+     */
+    static final class Claim {
+        private final Entry host;
+        private final int slots;
+        private final long expiry;
+
+        Claim(Entry host, int slots, long expiry) {
+            this.host = host;
+            this.slots = slots;
+            this.expiry = expiry;
+        }
+
+        Entry getHost() {
+            return host;
+        }
+
+        /**
+         * Number of instances that can be launched on the host.
+         */
+        int getSlots() {
+            return slots;
+        }
+    }
+
+    private final String cloudName;
+
+    /* Replaced as a whole, never modified */
+    private volatile List<Entry> hosts = Collections.emptyList();
+
+    private volatile long fetchTime;
+
+    /* Expiry of each claimed slot by host, oldest first, guarded by this */
+    private final Map<String, List<Long>> claims = new HashMap<>();
+
+    DedicatedHostPool(String cloudName) {
+        this.cloudName = cloudName;
+    }
+
+    @NonNull
+    static DedicatedHostPool of(@NonNull EC2Cloud cloud) {
+        return POOLS.computeIfAbsent(cloud.name, DedicatedHostPool::new);
+    }
+
+    /**
+     * Picks a host with free slots for instances and claims up to {@code count} of them, or returns {@code null} to
+     * let EC2 place the instances, e.g. when no host is free or the hosts could not be described.
+     *
+     * <p>
+     * Among the free hosts, the ones still within their minimum allocation period are picked first, so that the
+     * others are more likely to be left unused and can be released.
+     *
+     * @param zone the availability zone of the instances, or {@code null} for any
+     */
+    @CheckForNull
+    synchronized Claim claim(@NonNull Ec2Client ec2, @NonNull String type, @CheckForNull String zone, int count) {
+        try {
+            refreshIfStale(ec2);
+        } catch (SdkException e) {
+            LOGGER.log(Level.WARNING, "Failed to describe the dedicated hosts of " + cloudName, e);
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        claims.values().forEach(slots -> slots.removeIf(expiry -> expiry < now));
+        claims.values().removeIf(List::isEmpty);
+        Instant instant = Instant.ofEpochMilli(now);
+        Entry host = hosts.stream()
+                .filter(h -> h.state == State.AVAILABLE && h.supports(type))
+                .filter(h -> zone == null || zone.equals(h.zone))
+                .filter(h -> getFreeSlots(h) > 0)
+                .max(Comparator.comparing((Entry h) -> h.getRemainingMinimumAllocation(instant)))
+                .orElse(null);
+        if (host == null) {
+            LOGGER.fine(() -> "No free dedicated host for a " + type + " instance in " + cloudName
+                    + ", hosts by state: " + getStateCounts());
+            return null;
+        }
+        int slots = Math.min(count, getFreeSlots(host));
+        long expiry = now + CLAIM_MS;
+        List<Long> claimed = claims.computeIfAbsent(host.hostId, id -> new ArrayList<>());
+        for (int i = 0; i < slots; i++) {
+            claimed.add(expiry);
+        }
+        LOGGER.fine(() -> "Launching " + slots + " " + type + " instances on dedicated host " + host);
+        return new Claim(host, slots, expiry);
+    }
+
+    /**
+     * Releases the slots claimed for a launch that failed, so that they can be picked again right away.
+     */
+    synchronized void unclaim(@NonNull Claim claim) {
+        List<Long> claimed = claims.get(claim.host.hostId);
+        if (claimed == null) {
+            return;
+        }
+        for (int i = 0; i < claim.slots; i++) {
+            claimed.remove(Long.valueOf(claim.expiry));
+        }
+        if (claimed.isEmpty()) {
+            claims.remove(claim.host.hostId);
+        }
+    }
+
+    private int getFreeSlots(Entry host) {
+        List<Long> claimed = claims.get(host.hostId);
+        return host.availableInstances - (claimed == null ? 0 : claimed.size());
+    }
+
+    private void refreshIfStale(Ec2Client ec2) {
+        if (System.currentTimeMillis() - fetchTime < REFRESH_INTERVAL_MS) {
+            return;
+        }
+        List<Entry> described = new ArrayList<>();
+        String nextToken = null;
+        do {
+            DescribeHostsResponse response = ec2.describeHosts(
+                    DescribeHostsRequest.builder().nextToken(nextToken).build());
+            for (Host host : response.hosts()) {
+                if ((host.state() == AllocationState.AVAILABLE || host.state() == AllocationState.PENDING)
+                        && host.autoPlacement() == AutoPlacement.ON) {
+                    described.add(new Entry(host));
+                }
+            }
+            nextToken = response.nextToken();
+        } while (nextToken != null && !nextToken.isEmpty());
+        Map<String, Entry> previous = new HashMap<>();
+        for (Entry host : hosts) {
+            previous.put(host.hostId, host);
+        }
+        hosts = Collections.unmodifiableList(described);
+        fetchTime = System.currentTimeMillis();
+        for (Entry host : described) {
+            List<Long> claimed = claims.get(host.hostId);
+            if (claimed == null) {
+                continue;
+            }
+            Entry before = previous.get(host.hostId);
+            if (host.state != State.AVAILABLE) {
+                // A host that shows its instances no longer needs claims
+                claims.remove(host.hostId);
+            } else if (before != null && before.availableInstances > host.availableInstances) {
+                // Instances showed up on the host, release as many of the oldest claims
+                int shown = before.availableInstances - host.availableInstances;
+                claimed.subList(0, Math.min(shown, claimed.size())).clear();
+                if (claimed.isEmpty()) {
+                    claims.remove(host.hostId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of hosts in each state, e.g. to find out why Mac agents do not start.
+     */
+    @NonNull
+    Map<State, Long> getStateCounts() {
+        return hosts.stream().collect(Collectors.groupingBy(Entry::getState, Collectors.counting()));
+    }
+}
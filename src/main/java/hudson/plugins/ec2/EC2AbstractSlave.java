@@ -23,6 +23,7 @@
  */
 package hudson.plugins.ec2;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Util;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
@@ -41,15 +42,17 @@ import java.io.Serial;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.verb.POST;
@@ -57,15 +60,10 @@ import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.AvailabilityZone;
-import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
-import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeAvailabilityZonesResponse;
 import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.ec2.model.InstanceBlockDeviceMapping;
-import software.amazon.awssdk.services.ec2.model.InstanceStateName;
 import software.amazon.awssdk.services.ec2.model.InstanceType;
 import software.amazon.awssdk.services.ec2.model.StopInstancesRequest;
-import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
 
 /**
@@ -84,6 +82,9 @@ public abstract class EC2AbstractSlave extends Slave {
 
     private static final Logger LOGGER = Logger.getLogger(EC2AbstractSlave.class.getName());
 
+    /* Tags set on the instance whose value differs from one node to another */
+    private static final Set<String> PER_NODE_TAG_NAMES = Set.of(EC2CleanupOrphanedNodes.NODE_EXPIRES_AT_TAG_NAME);
+
     protected String instanceId;
 
     /**
@@ -105,7 +106,13 @@ public abstract class EC2AbstractSlave extends Slave {
     public transient boolean useDedicatedTenancy;
 
     public boolean isConnected = false;
+
+    /* Tags shared by all agents of the template, see EC2Tag#share */
     public List<EC2Tag> tags;
+
+    /* Tags whose value is specific to this node, null when there are none */
+    private List<EC2Tag> nodeTags;
+
     public final String cloudName;
     public AMITypeData amiType;
     public int maxTotalUses;
@@ -119,13 +126,20 @@ public abstract class EC2AbstractSlave extends Slave {
 
     private Boolean enclaveEnabled;
 
+    /* Administrator password retrieved from the password data of a Windows instance, kept to reconnect without it */
+    private Secret windowsPassword;
+
     // Temporary stuff that is obtained live from EC2
     public transient String publicDNS;
     public transient String privateDNS;
 
-    /* The last instance data to be fetched for the agent */
+    // Deprecated by the compact snapshot of getLastFetchSnapshot(), no longer set
+    @Deprecated
     protected transient Instance lastFetchInstance = null;
 
+    /* The last instance data to be fetched for the agent, shared with its computer */
+    private transient volatile InstanceSnapshot lastFetchSnapshot;
+
     /* The time at which we fetched the last instance data */
     protected transient long lastFetchTime;
 
@@ -546,6 +560,8 @@ public abstract class EC2AbstractSlave extends Slave {
             o.terminateScheduled = new ResettableCountDownLatch(1, false);
         }
 
+        o.tags = EC2Tag.share(o.tags);
+
         return o;
     }
 
@@ -902,10 +918,11 @@ public abstract class EC2AbstractSlave extends Slave {
 
     protected boolean isAlive(boolean force) {
         fetchLiveInstanceData(force);
-        if (lastFetchInstance == null) {
+        InstanceSnapshot snapshot = lastFetchSnapshot;
+        if (snapshot == null) {
             return false;
         }
-        if (lastFetchInstance.state().name().equals(InstanceStateName.TERMINATED)) {
+        if (snapshot.isTerminated()) {
             return false;
         }
         return true;
@@ -944,9 +961,9 @@ public abstract class EC2AbstractSlave extends Slave {
             return;
         }
 
-        lastFetchTime = now;
-        lastFetchInstance = i;
         if (i == null) {
+            lastFetchTime = now;
+            lastFetchSnapshot = null;
             return;
         }
 
@@ -958,96 +975,103 @@ public abstract class EC2AbstractSlave extends Slave {
      * to avoid per-node EC2 API calls.
      */
     protected void updateFromFetchedInstance(Instance i) {
-        long now = System.currentTimeMillis();
-        lastFetchTime = now;
-        lastFetchInstance = i;
-        publicDNS = i.publicDnsName();
-        privateDNS = i.privateIpAddress();
-        createdTime = i.launchTime();
-        instanceType = i.instanceType().name();
+        InstanceSnapshot snapshot = InstanceSnapshot.of(i);
+        lastFetchTime = snapshot.getFetchTime();
+        lastFetchSnapshot = snapshot;
+        publicDNS = snapshot.getPublicDnsName();
+        privateDNS = snapshot.getPrivateIpAddress();
+        createdTime = snapshot.getLaunchTime();
+        instanceType = i.instanceType() == null ? null : i.instanceType().name();
 
         /*
          * Only fetch tags from live instance if tags are set. This check is required to mitigate a race condition
          * when fetchLiveInstanceData() is called before pushLiveInstancedata().
          */
-        if (!i.tags().isEmpty()) {
-            tags = new LinkedList<>();
-            for (Tag t : i.tags()) {
-                tags.add(new EC2Tag(t.key(), t.value()));
-            }
+        if (!snapshot.getTags().isEmpty()) {
+            updateTags(snapshot.getTags());
         }
     }
 
     /*
-     * Clears all existing tag data so that we can force the instance into a known state
+     * Splits the remote tags into the ones shared with the other agents of the template and the ones specific to
+     * this node. The shared list is the interned one, the per-node list is only replaced when its tags changed.
      */
-    protected void clearLiveInstancedata() throws SdkException {
-        Instance inst = null;
-        try {
-            inst = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
-        } catch (InterruptedException e) {
-            // We'll just retry next time we test for idleness.
-            LOGGER.fine("InterruptedException while get " + getInstanceId() + " Exception: " + e);
-            return;
-        }
-
-        /* Now that we have our instance, we can clear the tags on it */
-        if (!tags.isEmpty()) {
-            HashSet<Tag> instTags = new HashSet<>();
-
-            for (EC2Tag t : tags) {
-                instTags.add(Tag.builder().key(t.getName()).value(t.getValue()).build());
+    private void updateTags(List<EC2Tag> remoteTags) {
+        List<EC2Tag> shared = new ArrayList<>(remoteTags.size());
+        List<EC2Tag> perNode = new ArrayList<>(PER_NODE_TAG_NAMES.size());
+        for (EC2Tag tag : remoteTags) {
+            if (PER_NODE_TAG_NAMES.contains(tag.getName())) {
+                perNode.add(tag);
+            } else {
+                shared.add(tag);
             }
-
-            List<String> resources = getResourcesToTag(inst);
-            DeleteTagsRequest tagRequest = DeleteTagsRequest.builder()
-                    .resources(resources)
-                    .tags(instTags)
-                    .build();
-            getCloud().connect().deleteTags(tagRequest);
         }
+        // EC2 does not guarantee the order of tags, sort them so that equal sets end up as the same shared list
+        shared.sort(Comparator.comparing(EC2Tag::getName, Comparator.nullsFirst(Comparator.naturalOrder())));
+        // Even when equal, the private list a node is created with is replaced by the shared one
+        tags = EC2Tag.share(shared);
+        if (perNode.isEmpty()) {
+            nodeTags = null;
+        } else if (!sameTags(nodeTags, perNode)) {
+            nodeTags = new ArrayList<>(perNode);
+        }
+    }
+
+    private static boolean sameTags(List<EC2Tag> current, List<EC2Tag> remote) {
+        return current != null && current.size() == remote.size() && current.containsAll(remote);
     }
 
     /*
-     * Sets tags on an instance and on the volumes attached to it. This will not clear existing tag data, so call
-     * clearLiveInstancedata if needed
+     * All the tags of this node, without refreshing them.
      */
-    protected void pushLiveInstancedata() throws SdkException {
-        Instance inst = null;
-        try {
-            inst = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
-        } catch (InterruptedException e) {
-            // We'll just retry next time we test for idleness.
-            LOGGER.fine("InterruptedException while get " + getInstanceId() + " Exception: " + e);
+    private List<EC2Tag> getAllTags() {
+        if (tags == null) {
+            return Collections.emptyList();
         }
+        if (nodeTags == null || nodeTags.isEmpty()) {
+            return tags;
+        }
+        List<EC2Tag> all = new ArrayList<>(tags.size() + nodeTags.size());
+        all.addAll(tags);
+        all.addAll(nodeTags);
+        return all;
+    }
 
-        /* Now that we have our instance, we can set tags on it */
-        if (inst != null && tags != null && !tags.isEmpty()) {
-            HashSet<Tag> instTags = new HashSet<>();
-
-            for (EC2Tag t : tags) {
-                instTags.add(Tag.builder().key(t.getName()).value(t.getValue()).build());
-            }
+    /**
+     * Returns the last fetched instance data, if any, without calling EC2.
+     */
+    @CheckForNull
+    protected InstanceSnapshot getLastFetchSnapshot() {
+        return lastFetchSnapshot;
+    }
 
-            List<String> resources = getResourcesToTag(inst);
-            CreateTagsRequest tagRequest = CreateTagsRequest.builder()
-                    .resources(resources)
-                    .tags(instTags)
-                    .build();
-            getCloud().connect().createTags(tagRequest);
+    /*
+     * Clears all existing tag data so that we can force the instance into a known state. The update is queued on the
+     * batched tag writer, which resolves the attached volumes together with other pending updates.
+     */
+    protected void clearLiveInstancedata() throws SdkException {
+        String id = getInstanceId();
+        EC2Cloud cloud = getCloud();
+        List<EC2Tag> allTags = getAllTags();
+        if (id == null || id.isEmpty() || cloud == null || allTags.isEmpty()) {
+            return;
         }
+        EC2TagWriter.deleteTags(cloud, id, true, EC2TagWriter.toAmazonTags(allTags));
     }
 
     /*
-     * Get resources to tag, that is the instance itself and the volumes attached to it.
+     * Sets tags on an instance and on the volumes attached to it. This will not clear existing tag data, so call
+     * clearLiveInstancedata if needed. Tags known at provisioning time are applied through TagSpecifications, so this
+     * is only needed for tags that change afterwards.
      */
-    private List<String> getResourcesToTag(Instance inst) {
-        List<String> resources = new ArrayList<>();
-        resources.add(inst.instanceId());
-        for (InstanceBlockDeviceMapping blockDeviceMapping : inst.blockDeviceMappings()) {
-            resources.add(blockDeviceMapping.ebs().volumeId());
+    protected void pushLiveInstancedata() throws SdkException {
+        String id = getInstanceId();
+        EC2Cloud cloud = getCloud();
+        List<EC2Tag> allTags = getAllTags();
+        if (id == null || id.isEmpty() || cloud == null || allTags.isEmpty()) {
+            return;
         }
-        return resources;
+        EC2TagWriter.createTags(cloud, id, true, EC2TagWriter.toAmazonTags(allTags));
     }
 
     public String getPublicDNS() {
@@ -1067,7 +1091,7 @@ public abstract class EC2AbstractSlave extends Slave {
 
     public List<EC2Tag> getTags() {
         fetchLiveInstanceData(false);
-        return Collections.unmodifiableList(tags);
+        return Collections.unmodifiableList(getAllTags());
     }
 
     public Instant getCreatedTime() {
@@ -1112,6 +1136,29 @@ public abstract class EC2AbstractSlave extends Slave {
         return enclaveEnabled;
     }
 
+    /**
+     * The administrator password retrieved from the password data of the instance, if it was retrieved already.
+     */
+    @CheckForNull
+    @Restricted(NoExternalUse.class)
+    public Secret getWindowsPassword() {
+        return windowsPassword;
+    }
+
+    /**
+     * Keeps the administrator password retrieved from the password data of the instance, so that reconnecting to the
+     * agent does not retrieve it again, even after a restart.
+     */
+    @Restricted(NoExternalUse.class)
+    public void setWindowsPassword(@CheckForNull Secret windowsPassword) {
+        this.windowsPassword = windowsPassword;
+        try {
+            Jenkins.get().updateNode(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the administrator password of " + getNodeName(), e);
+        }
+    }
+
     public boolean isSpecifyPassword() {
         return amiType.isWinRMAgent() && ((WindowsData) amiType).isSpecifyPassword();
     }
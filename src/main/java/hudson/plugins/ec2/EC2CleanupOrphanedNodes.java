@@ -25,7 +25,6 @@ package hudson.plugins.ec2;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.model.PeriodicWork;
@@ -36,11 +35,16 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
@@ -63,6 +67,19 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
     private static final int LOST_MULTIPLIER =
             Integer.parseInt(System.getProperty(EC2CleanupOrphanedNodes.class.getName() + ".lostMultiplier", "3"));
 
+    /** Maximum number of clouds cleaned up at the same time. */
+    private static final int MAX_CONCURRENT_CLOUDS = Integer.parseInt(
+            System.getProperty(EC2CleanupOrphanedNodes.class.getName() + ".maxConcurrentClouds", "4"));
+
+    private static final int PAGE_SIZE = 500;
+
+    private static final ExecutorService CLEANUP_EXECUTOR =
+            Executors.newFixedThreadPool(Math.max(1, MAX_CONCURRENT_CLOUDS), r -> {
+                Thread t = new Thread(r, "EC2CleanupOrphanedNodes");
+                t.setDaemon(true);
+                return t;
+            });
+
     @Override
     public long getRecurrencePeriod() {
         return RECURRENCE_PERIOD;
@@ -71,7 +88,20 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
     @Override
     protected void doRun() {
         LOGGER.fine(() -> "Starting clean up activity for orphaned nodes");
-        getClouds().forEach(this::cleanCloud);
+        List<Future<?>> futures = new ArrayList<>();
+        for (EC2Cloud cloud : getClouds()) {
+            futures.add(CLEANUP_EXECUTOR.submit(() -> cleanCloud(cloud)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Failed to clean up orphaned nodes", e.getCause());
+            }
+        }
     }
 
     @VisibleForTesting
@@ -90,70 +120,75 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
             return;
         }
 
-        Set<Instance> remoteInstances = getAllRemoteInstance(connection, cloud);
-        Set<String> localConnectedEC2Instances = getConnectedAgentInstanceIds(cloud);
-        addMissingTags(connection, remoteInstances, cloud);
-        Set<String> remoteInstancesIds =
-                remoteInstances.stream().map(Instance::instanceId).collect(Collectors.toSet());
-        Set<String> updatedInstances =
-                updateLocalInstancesTag(connection, localConnectedEC2Instances, remoteInstancesIds, cloud);
-
-        remoteInstances.stream()
-                // exclude instances that just got updated
-                .filter(remote -> !updatedInstances.contains(remote.instanceId()))
-                .filter(this::isOrphaned)
-                .forEach(remote -> terminateInstance(remote.instanceId(), connection));
-    }
-
-    private List<EC2Cloud> getClouds() {
-        return Jenkins.get().clouds.getAll(EC2Cloud.class);
-    }
-
-    /**
-     * Returns a list of all EC2 instances in states (running, pending, or stopping) AND with the tags
-     * jenkins_server_url and jenkins_cloud_name
-     * These are all the instances that are created by the EC2 plugin of this controller and this cloud.
-     */
-    private Set<Instance> getAllRemoteInstance(Ec2Client connection, EC2Cloud cloud) throws SdkException {
-        Set<Instance> instanceIds = new HashSet<>();
-
-        String nextToken = null;
         JenkinsLocationConfiguration jenkinsLocation = JenkinsLocationConfiguration.get();
         if (jenkinsLocation.getUrl() == null) {
             LOGGER.warning(
-                    "Jenkins server URL is not set in JenkinsLocationConfiguration.Returning empty remote instance list for cloud: "
+                    "Jenkins server URL is not set in JenkinsLocationConfiguration. Skipping clean up for cloud: "
                             + cloud.getDisplayName());
-            return instanceIds;
+            return;
         }
 
+        Set<String> localConnectedEC2Instances = getConnectedAgentInstanceIds(cloud);
+        List<String> orphans = new ArrayList<>();
+        int remoteCount = 0;
+
+        String nextToken = null;
         do {
-            DescribeInstancesRequest.Builder requestBuilder = DescribeInstancesRequest.builder()
-                    .maxResults(500)
-                    .filters(
-                            Filter.builder()
-                                    .name("instance-state-name")
-                                    .values(
-                                            InstanceState.RUNNING.getCode(),
-                                            InstanceState.PENDING.getCode(),
-                                            InstanceState.STOPPING.getCode())
-                                    .build(),
-                            tagFilter(EC2Tag.TAG_NAME_JENKINS_SERVER_URL, jenkinsLocation.getUrl()),
-                            tagFilter(EC2Tag.TAG_NAME_JENKINS_CLOUD_NAME, cloud.getDisplayName()));
-
-            requestBuilder.nextToken(nextToken);
-            DescribeInstancesResponse result = connection.describeInstances(requestBuilder.build());
+            DescribeInstancesResponse result =
+                    connection.describeInstances(buildRemoteInstancesRequest(cloud, jenkinsLocation, nextToken));
 
+            // Only keep the few fields we need, so that the SDK object graph of a page can be collected right away
+            List<RemoteInstance> page = new ArrayList<>();
             for (Reservation r : result.reservations()) {
-                instanceIds.addAll(new HashSet<>(r.instances()));
+                for (Instance instance : r.instances()) {
+                    page.add(new RemoteInstance(instance));
+                }
+            }
+            remoteCount += page.size();
+
+            addMissingTags(connection, page, cloud);
+            Set<String> updatedInstances = updateLocalInstancesTag(connection, localConnectedEC2Instances, page, cloud);
+            for (RemoteInstance remote : page) {
+                // exclude instances that just got updated
+                if (!updatedInstances.contains(remote.instanceId) && isOrphaned(remote)) {
+                    orphans.add(remote.instanceId);
+                }
             }
 
             nextToken = result.nextToken();
         } while (nextToken != null);
 
-        LOGGER.fine(() -> "Found " + instanceIds.size() + " remote instance ID(s) for cloud: " + cloud.getDisplayName()
-                + ". Instance IDs: "
-                + instanceIds.stream().map(Instance::instanceId).collect(Collectors.joining(", ")));
-        return instanceIds;
+        int total = remoteCount;
+        LOGGER.fine(() -> "Found " + total + " remote instance(s) for cloud: " + cloud.getDisplayName() + ", "
+                + orphans.size() + " orphaned");
+        terminateInstances(orphans, connection, cloud);
+    }
+
+    private List<EC2Cloud> getClouds() {
+        return Jenkins.get().clouds.getAll(EC2Cloud.class);
+    }
+
+    /**
+     * Builds the request for one page of EC2 instances in states (running, pending, or stopping) AND with the tags
+     * jenkins_server_url and jenkins_cloud_name
+     * These are all the instances that are created by the EC2 plugin of this controller and this cloud.
+     */
+    private DescribeInstancesRequest buildRemoteInstancesRequest(
+            EC2Cloud cloud, JenkinsLocationConfiguration jenkinsLocation, String nextToken) {
+        return DescribeInstancesRequest.builder()
+                .maxResults(PAGE_SIZE)
+                .filters(
+                        Filter.builder()
+                                .name("instance-state-name")
+                                .values(
+                                        InstanceState.RUNNING.getCode(),
+                                        InstanceState.PENDING.getCode(),
+                                        InstanceState.STOPPING.getCode())
+                                .build(),
+                        tagFilter(EC2Tag.TAG_NAME_JENKINS_SERVER_URL, jenkinsLocation.getUrl()),
+                        tagFilter(EC2Tag.TAG_NAME_JENKINS_CLOUD_NAME, cloud.getDisplayName()))
+                .nextToken(nextToken)
+                .build();
     }
 
     /**
@@ -175,13 +210,12 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
     /**
      * Adds a tag to each remote instance that does not have the jenkins_node_last_refresh tag.
      */
-    private void addMissingTags(Ec2Client connection, Set<Instance> remoteInstances, EC2Cloud cloud) {
+    private void addMissingTags(Ec2Client connection, List<RemoteInstance> remoteInstances, EC2Cloud cloud) {
         Set<String> instancesToTag = new HashSet<>();
 
-        for (Instance remoteInstance : remoteInstances) {
-            boolean hasTag = remoteInstance.tags().stream().anyMatch(tag -> NODE_EXPIRES_AT_TAG_NAME.equals(tag.key()));
-            if (!hasTag) {
-                instancesToTag.add(remoteInstance.instanceId());
+        for (RemoteInstance remoteInstance : remoteInstances) {
+            if (remoteInstance.nodeExpiresAt == null) {
+                instancesToTag.add(remoteInstance.instanceId);
             }
         }
 
@@ -198,13 +232,18 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
      * Updates the tag of the local EC2 instances to indicate they are still in use.
      */
     private Set<String> updateLocalInstancesTag(
-            Ec2Client connection, Set<String> localInstanceIds, Set<String> remoteInstanceIds, EC2Cloud cloud) {
+            Ec2Client connection, Set<String> localInstanceIds, List<RemoteInstance> remoteInstances, EC2Cloud cloud) {
         if (localInstanceIds.isEmpty()) {
             LOGGER.fine(() -> "No local EC2 agents found, skipping tag update.");
             return Set.of();
         }
 
-        Set<String> instanceIdsToUpdate = Sets.intersection(remoteInstanceIds, localInstanceIds);
+        Set<String> instanceIdsToUpdate = new HashSet<>();
+        for (RemoteInstance remoteInstance : remoteInstances) {
+            if (localInstanceIds.contains(remoteInstance.instanceId)) {
+                instanceIdsToUpdate.add(remoteInstance.instanceId);
+            }
+        }
 
         if (instanceIdsToUpdate.isEmpty()) {
             LOGGER.fine(() -> "No local EC2 agents found in remote instances, skipping tag update.");
@@ -223,7 +262,7 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
                 .toString();
 
         // Split instancesToTag into batches to avoid exceeding AWS limits
-        List<List<String>> batches = Lists.partition(new ArrayList<>(instancesToTag), 500);
+        List<List<String>> batches = Lists.partition(new ArrayList<>(instancesToTag), PAGE_SIZE);
         LOGGER.fine(() ->
                 "Creating or updating tags in batches of " + batches.size() + " for cloud: " + cloud.getDisplayName());
         for (List<String> batch : batches) {
@@ -242,42 +281,77 @@ public class EC2CleanupOrphanedNodes extends PeriodicWork {
         }
     }
 
-    private boolean isOrphaned(Instance remote) {
-        String nodeExpiresAt;
-        if (remote.tags() != null) {
-            nodeExpiresAt = remote.tags().stream()
-                    .filter(tag -> NODE_EXPIRES_AT_TAG_NAME.equals(tag.key()))
-                    .map(Tag::value)
-                    .findFirst()
-                    .orElse(null);
-        } else {
-            nodeExpiresAt = null;
-        }
-
+    private boolean isOrphaned(RemoteInstance remote) {
+        String nodeExpiresAt = remote.nodeExpiresAt;
         if (nodeExpiresAt == null) {
-            LOGGER.fine(() -> "Instance " + remote.instanceId() + " does not have the tag " + NODE_EXPIRES_AT_TAG_NAME);
+            LOGGER.fine(() -> "Instance " + remote.instanceId + " does not have the tag " + NODE_EXPIRES_AT_TAG_NAME);
             return false;
         }
         String currentTime = OffsetDateTime.now(ZoneOffset.UTC).toString();
 
         // We can do a string compare since the format will always be ISO 8601
         boolean isOrphan = nodeExpiresAt.compareTo(currentTime) < 0;
-        LOGGER.fine(() -> "Instance " + remote.instanceId() + ", nodeExpiresAt: " + nodeExpiresAt + ", currentDate: "
-                + currentTime + ", isOrphan: " + isOrphan);
+        LOGGER.fine(() -> "Instance " + remote.instanceId + " (" + remote.state + "), nodeExpiresAt: " + nodeExpiresAt
+                + ", currentDate: " + currentTime + ", isOrphan: " + isOrphan);
         return isOrphan;
     }
 
-    private void terminateInstance(String instanceId, Ec2Client connection) {
-        LOGGER.info(() -> "Removing orphaned instance: " + instanceId);
+    /**
+     * Terminates the orphaned instances, several at a time.
+     */
+    private void terminateInstances(List<String> instanceIds, Ec2Client connection, EC2Cloud cloud) {
+        for (List<String> batch : Lists.partition(instanceIds, PAGE_SIZE)) {
+            LOGGER.info(() -> "Removing orphaned instances: " + batch + " in cloud: " + cloud.getDisplayName());
+            terminateBatch(batch, connection);
+        }
+    }
+
+    private void terminateBatch(List<String> batch, Ec2Client connection) {
         try {
-            connection.terminateInstances(
-                    builder -> builder.instanceIds(instanceId).build());
+            connection.terminateInstances(builder -> builder.instanceIds(batch).build());
+        } catch (AwsServiceException ex) {
+            String errorCode = ex.awsErrorDetails() == null ? null : ex.awsErrorDetails().errorCode();
+            if (batch.size() > 1 && isRejectedInstance(errorCode)) {
+                // One instance already gone or protected fails the whole call, terminate the others one by one
+                LOGGER.log(Level.FINE, "Error terminating remote instances " + batch + ", retrying one by one", ex);
+                for (String instanceId : batch) {
+                    terminateBatch(List.of(instanceId), connection);
+                }
+            } else {
+                LOGGER.log(Level.WARNING, "Error terminating remote instances " + batch, ex);
+            }
         } catch (SdkException ex) {
-            LOGGER.log(Level.WARNING, "Error terminating remote instance " + instanceId, ex);
+            LOGGER.log(Level.WARNING, "Error terminating remote instances " + batch, ex);
         }
     }
 
+    private static boolean isRejectedInstance(String errorCode) {
+        return errorCode != null
+                && (errorCode.startsWith("InvalidInstanceID.") || "OperationNotPermitted".equals(errorCode));
+    }
+
     private Filter tagFilter(String tagName, String tagValue) {
         return Filter.builder().name("tag:" + tagName).values(tagValue).build();
     }
+
+    /**
+     * The part of a remote {@link Instance} the clean up needs.
+     */
+    private static final class RemoteInstance {
+        final String instanceId;
+        final String nodeExpiresAt;
+        final String state;
+
+        RemoteInstance(Instance instance) {
+            this.instanceId = instance.instanceId();
+            this.nodeExpiresAt = instance.tags() == null
+                    ? null
+                    : instance.tags().stream()
+                            .filter(tag -> NODE_EXPIRES_AT_TAG_NAME.equals(tag.key()))
+                            .map(Tag::value)
+                            .findFirst()
+                            .orElse(null);
+            this.state = instance.state() == null ? null : instance.state().nameAsString();
+        }
+    }
 }
@@ -24,6 +24,7 @@
 package hudson.plugins.ec2;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Util;
 import hudson.model.Node;
 import hudson.slaves.SlaveComputer;
@@ -32,7 +33,6 @@ import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Base64;
-import java.util.Collections;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.kohsuke.stapler.HttpRedirect;
@@ -40,12 +40,9 @@ import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.verb.POST;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
-import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesResponse;
 import software.amazon.awssdk.services.ec2.model.GetConsoleOutputRequest;
 import software.amazon.awssdk.services.ec2.model.GetConsoleOutputResponse;
 import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.ec2.model.InstanceTypeHypervisor;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -54,21 +51,20 @@ public class EC2Computer extends SlaveComputer {
 
     private static final Logger LOGGER = Logger.getLogger(EC2Computer.class.getName());
 
+    /** TTL in ms for instance/state cache. Configurable via system property. */
+    private static final long INSTANCE_CACHE_TTL_MS =
+            Long.getLong(EC2Computer.class.getName() + ".instanceCacheTTLMs", 30_000);
+
     /**
-     * Cached description of this EC2 instance. Lazily fetched.
+     * Complete description of this EC2 instance, cached for {@link #describeInstance()} only. Lazily fetched.
      */
     private volatile Instance ec2InstanceDescription;
 
     /**
      * Timestamp when {@link #ec2InstanceDescription} was last fetched.
-     * Used for TTL cache to avoid repeated EC2 API calls during SSH verification retries.
      */
     private volatile long instanceCacheTimestamp;
 
-    /** TTL in ms for instance/state cache. Configurable via system property. */
-    private static final long INSTANCE_CACHE_TTL_MS =
-            Long.getLong(EC2Computer.class.getName() + ".instanceCacheTTLMs", 30_000);
-
     private volatile Boolean isNitro;
 
     public EC2Computer(EC2AbstractSlave slave) {
@@ -155,19 +151,9 @@ public class EC2Computer extends SlaveComputer {
     private boolean checkIfNitro() throws SdkException, InterruptedException {
         try {
             if (isNitro == null) {
-                DescribeInstanceTypesRequest request = DescribeInstanceTypesRequest.builder()
-                        .instanceTypes(
-                                Collections.singletonList(describeInstance().instanceType()))
-                        .build();
-                Ec2Client ec2 = getCloud().connect();
-                DescribeInstanceTypesResponse result = ec2.describeInstanceTypes(request);
-                if (result.instanceTypes().size() == 1) {
-                    InstanceTypeHypervisor hypervisor =
-                            result.instanceTypes().get(0).hypervisor();
-                    isNitro = hypervisor == InstanceTypeHypervisor.NITRO;
-                } else {
-                    isNitro = false;
-                }
+                InstanceTypeCatalogue.Entry type = InstanceTypeCatalogue.of(getCloud())
+                        .describe(getCloud(), getInstanceSnapshot().getInstanceType());
+                isNitro = type != null && type.isNitro();
             }
             return isNitro;
         } catch (SdkException e) {
@@ -177,6 +163,25 @@ public class EC2Computer extends SlaveComputer {
         }
     }
 
+    /**
+     * Obtains the compact instance data of this agent.
+     *
+     * <p>
+     * This method returns the data last fetched for the node (with TTL), shared with {@link EC2AbstractSlave}, so it's
+     * not suitable to check {@link InstanceSnapshot#getState()} when an up-to-date state matters.
+     * <p>
+     * The cache can be flushed using {@link #updateInstanceDescription()}
+     */
+    @NonNull
+    public InstanceSnapshot getInstanceSnapshot() throws SdkException, InterruptedException {
+        EC2AbstractSlave node = getNode();
+        InstanceSnapshot snapshot = node == null ? null : node.getLastFetchSnapshot();
+        if (snapshot != null && (System.currentTimeMillis() - snapshot.getFetchTime()) < INSTANCE_CACHE_TTL_MS) {
+            return snapshot;
+        }
+        return toSnapshot(fetchInstance());
+    }
+
     /**
      * Obtains the instance state description in EC2.
      *
@@ -187,22 +192,48 @@ public class EC2Computer extends SlaveComputer {
      * The cache can be flushed using {@link #updateInstanceDescription()}
      */
     public Instance describeInstance() throws SdkException, InterruptedException {
-        long now = System.currentTimeMillis();
-        if (ec2InstanceDescription != null && (now - instanceCacheTimestamp) < INSTANCE_CACHE_TTL_MS) {
-            return ec2InstanceDescription;
+        Instance instance = ec2InstanceDescription;
+        if (instance != null && (System.currentTimeMillis() - instanceCacheTimestamp) < INSTANCE_CACHE_TTL_MS) {
+            return instance;
         }
-        ec2InstanceDescription = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
-        instanceCacheTimestamp = now;
-        return ec2InstanceDescription;
+        instance = fetchInstance();
+        ec2InstanceDescription = instance;
+        instanceCacheTimestamp = System.currentTimeMillis();
+        return instance;
     }
 
     /**
      * This will flush any cached description held by {@link #describeInstance()}.
      */
     public Instance updateInstanceDescription() throws SdkException, InterruptedException {
-        ec2InstanceDescription = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
-        instanceCacheTimestamp = System.currentTimeMillis();
-        return ec2InstanceDescription;
+        Instance instance = fetchInstance();
+        // The complete description is only kept for the computers whose callers use describeInstance()
+        if (ec2InstanceDescription != null) {
+            ec2InstanceDescription = instance;
+            instanceCacheTimestamp = System.currentTimeMillis();
+        }
+        return instance;
+    }
+
+    /* Describes the instance and refreshes the snapshot of the node, without keeping the description */
+    private Instance fetchInstance() throws SdkException, InterruptedException {
+        Instance instance = CloudHelper.getInstanceWithRetry(getInstanceId(), getCloud());
+        EC2AbstractSlave node = getNode();
+        if (instance != null && node != null) {
+            node.updateFromFetchedInstance(instance);
+        }
+        return instance;
+    }
+
+    private InstanceSnapshot toSnapshot(Instance instance) {
+        if (instance == null) {
+            throw SdkException.builder()
+                    .message("No instance data available for " + getName())
+                    .build();
+        }
+        EC2AbstractSlave node = getNode();
+        InstanceSnapshot snapshot = node == null ? null : node.getLastFetchSnapshot();
+        return snapshot != null ? snapshot : InstanceSnapshot.of(instance);
     }
 
     /**
@@ -210,16 +241,29 @@ public class EC2Computer extends SlaveComputer {
      *
      * <p>
      * Uses a short TTL cache to avoid repeated EC2 API calls during SSH verification retries.
+     *
+     * @throws SdkException if the state of the instance is missing or unknown
      */
+    @NonNull
     public InstanceState getState() throws SdkException, InterruptedException {
-        return InstanceState.find(describeInstance().state().name().toString());
+        InstanceState state = getInstanceSnapshot().getState();
+        if (state == null) {
+            // The cached snapshot may predate the state, describe the instance again before giving up
+            state = toSnapshot(fetchInstance()).getState();
+        }
+        if (state == null) {
+            throw SdkException.builder()
+                    .message("Unknown state of the instance of " + getName())
+                    .build();
+        }
+        return state;
     }
 
     /**
      * Number of milli-secs since the instance was started.
      */
     public long getUptime() throws SdkException, InterruptedException {
-        return describeInstance().launchTime().until(Instant.now(), ChronoUnit.MILLIS);
+        return getInstanceSnapshot().getLaunchTime().until(Instant.now(), ChronoUnit.MILLIS);
     }
 
     /**
@@ -235,7 +279,7 @@ public class EC2Computer extends SlaveComputer {
      * @return Instant this instance was launched
      */
     public Instant getLaunchTime() throws InterruptedException {
-        return this.describeInstance().launchTime();
+        return getInstanceSnapshot().getLaunchTime();
     }
 
     /**
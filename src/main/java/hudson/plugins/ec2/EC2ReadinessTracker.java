@@ -0,0 +1,177 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+
+/**
+ * Waits for the {@link EC2Readiness} agents of a cloud to be ready to launch.
+ *
+ * <p>
+ * Instead of each launcher asking AWS about its own agent every second, the agents being launched are checked
+ * together by one task every {@link #POLL_INTERVAL_MS}. The spot requests of the {@link EC2SpotSlave}s are described
+ * with one DescribeSpotInstanceRequests call, and each launcher waits on a future completed once its agent is ready.
+ */
+@Restricted(NoExternalUse.class)
+public final class EC2ReadinessTracker extends CloudPoller {
+    static final long POLL_INTERVAL_MS = Long.getLong(EC2ReadinessTracker.class.getName() + ".pollIntervalMs", 1000);
+
+    /* Spot requests described per call */
+    private static final int PAGE_SIZE = 100;
+
+    private final Map<EC2Readiness, Pending> pending = new ConcurrentHashMap<>();
+
+    private static final class Pending {
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+        private volatile String status = "unknown";
+    }
+
+    EC2ReadinessTracker(@NonNull EC2Cloud cloud) {
+        super(cloud, POLL_INTERVAL_MS, "check the readiness of the agents");
+    }
+
+    @NonNull
+    public static EC2ReadinessTracker of(@NonNull EC2Cloud cloud) {
+        return of(cloud, EC2ReadinessTracker.class, EC2ReadinessTracker::new);
+    }
+
+    /**
+     * Waits for an agent to be ready, reporting its status every {@code logIntervalMillis} meanwhile.
+     *
+     * @throws SdkException if the agent is still not ready after {@code timeoutMillis}
+     */
+    public void awaitReady(
+            @NonNull EC2Readiness node, long timeoutMillis, long logIntervalMillis, @NonNull Consumer<String> log)
+            throws InterruptedException {
+        Pending p = pending.computeIfAbsent(node, n -> new Pending());
+        startPolling();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (; ; ) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw SdkException.builder()
+                            .message("Node still not ready, timed out after " + (timeoutMillis / 1000)
+                                    + "s with status " + p.status)
+                            .build();
+                }
+                try {
+                    p.ready.get(Math.min(remaining, Math.max(1, logIntervalMillis)), TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    log.accept("Node still not ready. Current status: " + p.status);
+                } catch (ExecutionException e) {
+                    throw SdkException.create("Failed to check whether the node is ready", e.getCause());
+                }
+            }
+        } finally {
+            pending.remove(node, p);
+        }
+    }
+
+    /**
+     * Checks the pending agents once.
+     */
+    @Override
+    protected void poll(@NonNull EC2Cloud cloud) {
+        pending.values().removeIf(p -> p.ready.isDone());
+        Map<String, EC2SpotSlave> spots = new HashMap<>();
+        for (Map.Entry<EC2Readiness, Pending> entry : pending.entrySet()) {
+            EC2Readiness node = entry.getKey();
+            if (node instanceof EC2SpotSlave spot && !spot.isFulfilled() && spot.getSpotInstanceRequestId() != null) {
+                spots.put(spot.getSpotInstanceRequestId(), spot);
+            } else {
+                check(node, entry.getValue());
+            }
+        }
+        if (!spots.isEmpty()) {
+            describe(cloud.connect(), spots);
+        }
+    }
+
+    @Override
+    protected boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /* Agents that are not spot agents, or whose instance is known already, answer on their own */
+    private void check(EC2Readiness node, Pending p) {
+        try {
+            if (node.isReady()) {
+                p.ready.complete(null);
+            } else {
+                p.status = node.getEc2ReadinessStatus();
+            }
+        } catch (SdkException e) {
+            p.status = e.getMessage();
+        }
+    }
+
+    private void describe(Ec2Client ec2, Map<String, EC2SpotSlave> spots) {
+        List<String> requestIds = new ArrayList<>(spots.keySet());
+        for (int from = 0; from < requestIds.size(); from += PAGE_SIZE) {
+            List<String> page = requestIds.subList(from, Math.min(requestIds.size(), from + PAGE_SIZE));
+            List<SpotInstanceRequest> requests;
+            try {
+                requests = ec2.describeSpotInstanceRequests(DescribeSpotInstanceRequestsRequest.builder()
+                                .spotInstanceRequestIds(page)
+                                .build())
+                        .spotInstanceRequests();
+            } catch (AwsServiceException e) {
+                String errorCode = e.awsErrorDetails() == null ? null : e.awsErrorDetails().errorCode();
+                if (page.size() > 1 && errorCode != null && errorCode.startsWith("InvalidSpotInstanceRequestID.")) {
+                    // One unknown request fails the whole call, describe them one by one this time
+                    for (String requestId : page) {
+                        describe(ec2, Map.of(requestId, spots.get(requestId)));
+                    }
+                } else {
+                    // Throttled or unavailable, splitting the page would only make more calls
+                    reportFailure(page, spots, e);
+                }
+                continue;
+            } catch (SdkException e) {
+                reportFailure(page, spots, e);
+                continue;
+            }
+            for (SpotInstanceRequest request : requests) {
+                EC2SpotSlave spot = spots.get(request.spotInstanceRequestId());
+                Pending p = spot == null ? null : pending.get(spot);
+                if (p == null) {
+                    continue;
+                }
+                if (request.status() != null) {
+                    p.status = request.status().message();
+                }
+                if (request.instanceId() != null && !request.instanceId().isBlank()) {
+                    spot.update(request);
+                    p.ready.complete(null);
+                }
+            }
+        }
+    }
+
+    /* The requests of the page are described again on the next round */
+    private void reportFailure(List<String> page, Map<String, EC2SpotSlave> spots, SdkException e) {
+        for (String requestId : page) {
+            Pending p = pending.get(spots.get(requestId));
+            if (p != null) {
+                p.status = e.getMessage();
+            }
+        }
+    }
+}
@@ -370,20 +370,12 @@ public class EC2RetentionStrategy extends RetentionStrategy<EC2Computer> impleme
     @Override
     public void start(EC2Computer c) {
         final EC2Computer computer = c;
+        if (Jenkins.get().getInitLevel() != InitMilestone.COMPLETED) {
+            // Agents restored from disk are reconciled together, see EC2StartupReconciler
+            EC2StartupReconciler.register(computer);
+            return;
+        }
         HEAVY_WORK_EXECUTOR.execute(() -> {
-            if (Jenkins.get().getInitLevel() != InitMilestone.COMPLETED) {
-                InstanceState state = null;
-                try {
-                    state = computer.getState();
-                } catch (SdkException | InterruptedException e) {
-                    LOGGER.log(Level.FINE, "Error getting EC2 instance state for " + computer.getName(), e);
-                }
-                if (!(InstanceState.PENDING.equals(state) || InstanceState.RUNNING.equals(state))) {
-                    LOGGER.info("Ignoring start request for " + computer.getName()
-                            + " during Jenkins startup due to EC2 instance state of " + state);
-                    return;
-                }
-            }
             LOGGER.info("Start requested for " + computer.getName());
             try {
                 computer.connect(false);
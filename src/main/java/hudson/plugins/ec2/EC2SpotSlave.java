@@ -10,7 +10,6 @@ import hudson.plugins.ec2.win.EC2WindowsLauncher;
 import hudson.slaves.NodeProperty;
 import java.io.IOException;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
@@ -32,6 +31,9 @@ public class EC2SpotSlave extends EC2AbstractSlave implements EC2Readiness {
 
     private final String spotInstanceRequestId;
 
+    /* Whether the request tags have been queued for the fulfilled instance */
+    private transient boolean tagsPushed;
+
     @Deprecated
     public EC2SpotSlave(
             String name,
@@ -308,51 +310,58 @@ public class EC2SpotSlave extends EC2AbstractSlave implements EC2Readiness {
 
     @Override
     public String getInstanceId() {
-        if (instanceId == null || instanceId.isEmpty()) {
+        if (!isFulfilled()) {
             SpotInstanceRequest sr = getSpotRequest();
-            if (sr != null && sr.instanceId() != null && !sr.instanceId().isBlank()) {
-                instanceId = sr.instanceId();
-                // Tag the instance immediately when it becomes available
-                // Note: Only tag the instance itself, not volumes, as volumes may not be attached yet
-                tagInstanceOnFulfillment();
+            if (sr != null) {
+                update(sr);
             }
         }
         return instanceId;
     }
 
+    /**
+     * Whether the instance of the spot request is known, without asking AWS.
+     */
+    boolean isFulfilled() {
+        return instanceId != null && !instanceId.isEmpty();
+    }
+
+    /**
+     * Takes the instance of the spot request from its description, e.g. made by {@link EC2ReadinessTracker} for
+     * several agents at once.
+     */
+    void update(SpotInstanceRequest sr) {
+        if (!isFulfilled() && sr.instanceId() != null && !sr.instanceId().isBlank()) {
+            instanceId = sr.instanceId();
+            // RequestSpotInstances can only tag the request itself, so tag the instance as soon as it is known
+            tagInstanceOnFulfillment();
+        }
+    }
+
     private void tagInstanceOnFulfillment() {
         if (tags == null || tags.isEmpty()) {
             return;
         }
-
-        try {
-            LOGGER.info("Tagging spot instance " + instanceId + " immediately on fulfillment");
-            HashSet<software.amazon.awssdk.services.ec2.model.Tag> instTags = new HashSet<>();
-
-            for (EC2Tag t : tags) {
-                instTags.add(software.amazon.awssdk.services.ec2.model.Tag.builder()
-                        .key(t.getName())
-                        .value(t.getValue())
-                        .build());
-            }
-
-            // Only tag the instance itself, not volumes (volumes may not be attached yet)
-            software.amazon.awssdk.services.ec2.model.CreateTagsRequest tagRequest =
-                    software.amazon.awssdk.services.ec2.model.CreateTagsRequest.builder()
-                            .resources(instanceId)
-                            .tags(instTags)
-                            .build();
-            getCloud().connect().createTags(tagRequest);
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "Failed to tag spot instance " + instanceId + " on fulfillment", e);
+        EC2Cloud cloud = getCloud();
+        if (cloud == null) {
+            return;
         }
+
+        LOGGER.fine("Queueing tags for spot instance " + instanceId + " on fulfillment");
+        // The tag writer resolves the attached volumes when it flushes, by then they are attached
+        EC2TagWriter.createTags(cloud, instanceId, true, EC2TagWriter.toAmazonTags(tags));
+        tagsPushed = true;
     }
 
     @Override
     public void onConnected() {
         // The spot request has been fulfilled and is connected. If the Spot
-        // request had tags, we want those on the instance.
-        pushLiveInstancedata();
+        // request had tags, we want those on the instance. This is usually
+        // already done when the instance ID was first seen.
+        if (!tagsPushed) {
+            pushLiveInstancedata();
+            tagsPushed = true;
+        }
     }
 
     @Extension
@@ -0,0 +1,230 @@
+package hudson.plugins.ec2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.model.Instance;
+
+/**
+ * Reconciles the EC2 agents restored from disk with their instances when Jenkins starts.
+ *
+ * <p>
+ * {@link EC2RetentionStrategy#start(EC2Computer)} is called for every persisted agent while Jenkins initializes.
+ * Instead of looking up each instance on its own, the computers are collected for a short while and their instances
+ * are fetched per cloud with a few paginated DescribeInstances calls. Each node is seeded with the fetched data, so
+ * that the first retention check does not query EC2 again. Nodes whose instance is confirmed gone are removed, and
+ * running instances are reconnected, at most {@link #MAX_CONCURRENT_CONNECTS} at the same time.
+ */
+final class EC2StartupReconciler {
+    private static final Logger LOGGER = Logger.getLogger(EC2StartupReconciler.class.getName());
+
+    /** Delay (ms) for collecting the computers restored at the same time before reconciling them. */
+    private static final long COLLECT_DELAY_MS =
+            Long.getLong(EC2StartupReconciler.class.getName() + ".collectDelayMs", 1000);
+
+    /** Maximum number of agents reconnected at the same time. */
+    static final int MAX_CONCURRENT_CONNECTS =
+            Math.max(1, Integer.getInteger(EC2StartupReconciler.class.getName() + ".maxConcurrentConnects", 10));
+
+    /** Maximum time (ms) a reconnect holds its permit, the launch goes on after that. */
+    private static final long CONNECT_WAIT_MS =
+            Long.getLong(EC2StartupReconciler.class.getName() + ".connectWaitMs", TimeUnit.MINUTES.toMillis(5));
+
+    private static final Semaphore CONNECTS = new Semaphore(MAX_CONCURRENT_CONNECTS);
+
+    private static final Queue<EC2Computer> WAITING_CONNECTS = new ConcurrentLinkedQueue<>();
+
+    private static final Object LOCK = new Object();
+
+    private static List<EC2Computer> pending = new ArrayList<>();
+
+    private static boolean reconcileScheduled;
+
+    private EC2StartupReconciler() {}
+
+    /**
+     * Queues a computer restored during Jenkins startup for reconciliation.
+     */
+    static void register(EC2Computer computer) {
+        synchronized (LOCK) {
+            pending.add(computer);
+            if (!reconcileScheduled) {
+                reconcileScheduled = true;
+                Timer.get().schedule(EC2StartupReconciler::reconcile, COLLECT_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    static void reconcile() {
+        List<EC2Computer> computers;
+        synchronized (LOCK) {
+            computers = pending;
+            pending = new ArrayList<>();
+            reconcileScheduled = false;
+        }
+        if (computers.isEmpty()) {
+            return;
+        }
+
+        Map<EC2Cloud, Map<String, EC2Computer>> byCloud = new LinkedHashMap<>();
+        for (EC2Computer computer : computers) {
+            EC2Cloud cloud = computer.getCloud();
+            String instanceId = computer.getNode() == null ? null : computer.getNode().getInstanceId();
+            if (cloud == null || instanceId == null || instanceId.isEmpty()) {
+                // Unfulfilled spot request or unknown cloud, leave it to the regular per-node check
+                EC2RetentionStrategy.HEAVY_WORK_EXECUTOR.execute(() -> startIndividually(computer));
+                continue;
+            }
+            byCloud.computeIfAbsent(cloud, k -> new LinkedHashMap<>()).put(instanceId, computer);
+        }
+
+        for (Map.Entry<EC2Cloud, Map<String, EC2Computer>> entry : byCloud.entrySet()) {
+            EC2Cloud cloud = entry.getKey();
+            Map<String, EC2Computer> cloudComputers = entry.getValue();
+            LOGGER.info(() -> "Reconciling " + cloudComputers.size() + " agents of cloud " + cloud.getDisplayName());
+            CloudHelper.InstanceLookup lookup =
+                    CloudHelper.describeInstances(cloud, new ArrayList<>(cloudComputers.keySet()));
+            for (Map.Entry<String, EC2Computer> computerEntry : cloudComputers.entrySet()) {
+                String instanceId = computerEntry.getKey();
+                EC2Computer computer = computerEntry.getValue();
+                Instance instance = lookup.instances.get(instanceId);
+                if (instance != null) {
+                    reconcile(computer, instance);
+                } else if (lookup.failed.contains(instanceId)) {
+                    // Nothing is known about the instance, fall back to the check of a single instance
+                    EC2RetentionStrategy.HEAVY_WORK_EXECUTOR.execute(() -> startIndividually(computer));
+                } else {
+                    EC2RetentionStrategy.HEAVY_WORK_EXECUTOR.execute(() -> confirmMissing(computer, cloud));
+                }
+            }
+        }
+    }
+
+    private static void reconcile(EC2Computer computer, Instance instance) {
+        EC2AbstractSlave node = computer.getNode();
+        if (node == null) {
+            return;
+        }
+        node.updateFromFetchedInstance(instance);
+        InstanceSnapshot snapshot = node.getLastFetchSnapshot();
+        InstanceState state = snapshot == null ? null : snapshot.getState();
+        if (InstanceState.TERMINATED.equals(state)) {
+            remove(computer, node);
+        } else if (InstanceState.PENDING.equals(state) || InstanceState.RUNNING.equals(state)) {
+            connect(computer);
+        } else {
+            LOGGER.info("Ignoring start request for " + computer.getName()
+                    + " during Jenkins startup due to EC2 instance state of " + state);
+        }
+    }
+
+    /*
+     * The instance-id filter silently omits unknown instances, only an explicit InvalidInstanceID.NotFound for this
+     * instance removes its node.
+     */
+    private static void confirmMissing(EC2Computer computer, EC2Cloud cloud) {
+        EC2AbstractSlave node = computer.getNode();
+        if (node == null) {
+            return;
+        }
+        Instance instance;
+        try {
+            instance = CloudHelper.getInstance(node.getInstanceId(), cloud);
+        } catch (AwsServiceException e) {
+            if (e.awsErrorDetails() != null
+                    && "InvalidInstanceID.NotFound".equals(e.awsErrorDetails().errorCode())) {
+                remove(computer, node);
+            } else {
+                LOGGER.log(Level.FINE, "Error getting EC2 instance state for " + computer.getName(), e);
+            }
+            return;
+        } catch (SdkException e) {
+            LOGGER.log(Level.FINE, "Error getting EC2 instance state for " + computer.getName(), e);
+            return;
+        }
+        if (instance != null) {
+            reconcile(computer, instance);
+        }
+    }
+
+    private static void remove(EC2Computer computer, EC2AbstractSlave node) {
+        LOGGER.info("Removing " + computer.getName() + " during Jenkins startup as its EC2 instance "
+                + node.getInstanceId() + " no longer exists");
+        try {
+            Jenkins.get().removeNode(node);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove node " + computer.getName(), e);
+        }
+    }
+
+    /*
+     * Fallback when the instance could not be fetched together with the others, one DescribeInstances call for this
+     * computer.
+     */
+    private static void startIndividually(EC2Computer computer) {
+        InstanceState state = null;
+        try {
+            state = computer.getState();
+        } catch (SdkException | InterruptedException e) {
+            LOGGER.log(Level.FINE, "Error getting EC2 instance state for " + computer.getName(), e);
+        }
+        if (!(InstanceState.PENDING.equals(state) || InstanceState.RUNNING.equals(state))) {
+            LOGGER.info("Ignoring start request for " + computer.getName()
+                    + " during Jenkins startup due to EC2 instance state of " + state);
+            return;
+        }
+        connect(computer);
+    }
+
+    /*
+     * Queues the computer until a permit is free, the caller does not wait for the launch.
+     */
+    static void connect(EC2Computer computer) {
+        WAITING_CONNECTS.add(computer);
+        startConnects();
+    }
+
+    private static void startConnects() {
+        while (!WAITING_CONNECTS.isEmpty() && CONNECTS.tryAcquire()) {
+            EC2Computer computer = WAITING_CONNECTS.poll();
+            if (computer == null) {
+                CONNECTS.release();
+                continue;
+            }
+            EC2RetentionStrategy.HEAVY_WORK_EXECUTOR.execute(() -> awaitConnect(computer));
+        }
+    }
+
+    /*
+     * Holds the permit until the launch, which runs on the launcher threads of Jenkins, is done.
+     */
+    private static void awaitConnect(EC2Computer computer) {
+        LOGGER.info("Start requested for " + computer.getName());
+        try {
+            computer.connect(false).get(CONNECT_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Error connecting " + computer.getName(), e);
+        } catch (TimeoutException e) {
+            LOGGER.fine(() -> "Still connecting " + computer.getName() + ", starting the next reconnect");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            CONNECTS.release();
+            startConnects();
+        }
+    }
+}
@@ -23,6 +23,9 @@
  */
 package hudson.plugins.ec2;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
@@ -45,16 +48,37 @@ public class EC2Tag extends AbstractDescribableImpl<EC2Tag> {
 
     public static final String TAG_NAME_JENKINS_CLOUD_NAME = "jenkins_cloud_name";
 
+    /* Canonical tag lists, so that agents of the same template reference a single copy */
+    private static final Interner<List<EC2Tag>> TAG_LISTS = Interners.newWeakInterner();
+
     @DataBoundConstructor
     public EC2Tag(String name, String value) {
-        this.name = name;
-        this.value = value;
+        this.name = intern(name);
+        this.value = intern(value);
     }
 
     /* Constructor from Amazon Tag */
     public EC2Tag(Tag t) {
-        name = t.key();
-        value = t.value();
+        this(t.key(), t.value());
+    }
+
+    /* Key and values are repeated on every agent of a template, keep a single copy of each */
+    private static String intern(String s) {
+        return s == null ? null : s.intern();
+    }
+
+    protected Object readResolve() {
+        return new EC2Tag(name, value);
+    }
+
+    /**
+     * Returns an immutable list equal to the given one, shared with every other caller holding an equal list.
+     */
+    static List<EC2Tag> share(List<EC2Tag> tags) {
+        if (tags == null) {
+            return null;
+        }
+        return TAG_LISTS.intern(ImmutableList.copyOf(tags));
     }
 
     public String getName() {
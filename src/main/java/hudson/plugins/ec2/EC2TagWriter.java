@@ -0,0 +1,292 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceBlockDeviceMapping;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+/**
+ * Batches tag updates that cannot be applied through {@code TagSpecifications} at launch time.
+ *
+ * <p>
+ * Updates are queued and flushed asynchronously after {@link #FLUSH_DELAY_MS}. All updates queued for the same cloud
+ * with the same tag set are merged into a single CreateTags (or DeleteTags) call, and volume IDs for every queued
+ * instance are resolved with batched DescribeInstances calls per cloud instead of one call per node. Updates
+ * rejected because the resource is not visible yet (EC2 eventual consistency) are re-queued for the next flush
+ * instead of sleeping on the calling thread. As one unknown resource fails a whole request, a rejected request is
+ * sent again instance by instance, so that only the unknown instances are re-queued.
+ */
+final class EC2TagWriter {
+    private static final Logger LOGGER = Logger.getLogger(EC2TagWriter.class.getName());
+
+    /** Delay (ms) between the first queued update and the flush, so that updates from several nodes coalesce. */
+    static final long FLUSH_DELAY_MS = Long.getLong(EC2TagWriter.class.getName() + ".flushDelayMs", 2000);
+
+    /** Number of times an update is re-queued when EC2 does not know the resource yet. */
+    static final int MAX_ATTEMPTS = Integer.getInteger(EC2TagWriter.class.getName() + ".maxAttempts", 5);
+
+    private static final int MAX_RESOURCES_PER_REQUEST = 500;
+
+    private static final Object LOCK = new Object();
+
+    private static List<PendingTags> pending = new ArrayList<>();
+
+    private static boolean flushScheduled;
+
+    private EC2TagWriter() {}
+
+    /**
+     * Queues tags to be added to an instance and, if requested, to the volumes attached to it.
+     */
+    static void createTags(
+            @NonNull EC2Cloud cloud, @NonNull String instanceId, boolean includeVolumes, Collection<Tag> tags) {
+        enqueue(new PendingTags(cloud, false, instanceId, includeVolumes, tags, 0));
+    }
+
+    /**
+     * Queues tags to be removed from an instance and, if requested, from the volumes attached to it.
+     */
+    static void deleteTags(
+            @NonNull EC2Cloud cloud, @NonNull String instanceId, boolean includeVolumes, Collection<Tag> tags) {
+        enqueue(new PendingTags(cloud, true, instanceId, includeVolumes, tags, 0));
+    }
+
+    static Set<Tag> toAmazonTags(Collection<EC2Tag> tags) {
+        Set<Tag> result = new HashSet<>();
+        if (tags != null) {
+            for (EC2Tag t : tags) {
+                result.add(Tag.builder().key(t.getName()).value(t.getValue()).build());
+            }
+        }
+        return result;
+    }
+
+    private static void enqueue(PendingTags update) {
+        if (update.tags.isEmpty()) {
+            return;
+        }
+        synchronized (LOCK) {
+            pending.add(update);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                Timer.get().schedule(EC2TagWriter::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sends every queued update. Deletions are sent before creations so that a reconfiguration (clear old tags, push
+     * new tags) ends up with the new tags even when both sets share a key/value pair.
+     */
+    static void flush() {
+        List<PendingTags> batch;
+        synchronized (LOCK) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<EC2Cloud, List<PendingTags>> byCloud = new LinkedHashMap<>();
+        for (PendingTags update : batch) {
+            byCloud.computeIfAbsent(update.cloud, k -> new ArrayList<>()).add(update);
+        }
+
+        for (Map.Entry<EC2Cloud, List<PendingTags>> entry : byCloud.entrySet()) {
+            EC2Cloud cloud = entry.getKey();
+            List<PendingTags> updates = entry.getValue();
+            Map<String, List<String>> volumes = resolveVolumes(cloud, updates);
+            Ec2Client ec2;
+            try {
+                ec2 = cloud.connect();
+            } catch (SdkException e) {
+                LOGGER.log(Level.WARNING, "Failed to connect to EC2 cloud " + cloud.getDisplayName(), e);
+                requeue(updates);
+                continue;
+            }
+            send(ec2, cloud, updates, volumes, true);
+            send(ec2, cloud, updates, volumes, false);
+        }
+    }
+
+    private static void send(
+            Ec2Client ec2,
+            EC2Cloud cloud,
+            List<PendingTags> updates,
+            Map<String, List<String>> volumes,
+            boolean delete) {
+        // Group the instances by tag set, so that every agent of a template ends up in the same request
+        Map<Set<Tag>, List<PendingTags>> byTags = new LinkedHashMap<>();
+        for (PendingTags update : updates) {
+            if (update.delete == delete) {
+                byTags.computeIfAbsent(update.tags, k -> new ArrayList<>()).add(update);
+            }
+        }
+
+        for (Map.Entry<Set<Tag>, List<PendingTags>> entry : byTags.entrySet()) {
+            List<PendingTags> group = entry.getValue();
+            for (int i = 0; i < group.size(); i += MAX_RESOURCES_PER_REQUEST) {
+                List<PendingTags> chunk = group.subList(i, Math.min(i + MAX_RESOURCES_PER_REQUEST, group.size()));
+                send(ec2, cloud, chunk, entry.getKey(), volumes, delete);
+            }
+        }
+    }
+
+    private static void send(
+            Ec2Client ec2,
+            EC2Cloud cloud,
+            List<PendingTags> chunk,
+            Set<Tag> tags,
+            Map<String, List<String>> volumes,
+            boolean delete) {
+        Set<String> resources = new LinkedHashSet<>();
+        for (PendingTags update : chunk) {
+            resources.add(update.instanceId);
+            if (update.includeVolumes) {
+                resources.addAll(volumes.getOrDefault(update.instanceId, Collections.emptyList()));
+            }
+        }
+        try {
+            if (delete) {
+                ec2.deleteTags(DeleteTagsRequest.builder()
+                        .resources(resources)
+                        .tags(tags)
+                        .build());
+            } else {
+                ec2.createTags(CreateTagsRequest.builder()
+                        .resources(resources)
+                        .tags(tags)
+                        .build());
+            }
+            LOGGER.fine(() -> (delete ? "Removed" : "Added") + " tags on " + resources + " in cloud "
+                    + cloud.getDisplayName());
+        } catch (AwsServiceException e) {
+            String errorCode = e.awsErrorDetails() == null ? null : e.awsErrorDetails().errorCode();
+            if (errorCode != null && errorCode.endsWith(".NotFound")) {
+                if (chunk.size() > 1) {
+                    // One unknown resource fails the whole call, send the instances one by one to find it
+                    for (PendingTags update : chunk) {
+                        send(ec2, cloud, List.of(update), tags, volumes, delete);
+                    }
+                } else {
+                    LOGGER.fine(() -> "Resources " + resources + " not visible yet, retrying on next flush");
+                    requeue(chunk);
+                }
+            } else {
+                LOGGER.log(Level.WARNING, "Failed to tag instances " + resources, e);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to tag instances " + resources, e);
+        }
+    }
+
+    /**
+     * Looks up the volumes attached to all queued instances of a cloud with batched DescribeInstances calls. The
+     * updates of the instances whose volumes could not be resolved are removed from {@code updates} and re-queued,
+     * rather than sent without volumes.
+     */
+    private static Map<String, List<String>> resolveVolumes(EC2Cloud cloud, List<PendingTags> updates) {
+        Set<String> instanceIds = new LinkedHashSet<>();
+        for (PendingTags update : updates) {
+            if (update.includeVolumes) {
+                instanceIds.add(update.instanceId);
+            }
+        }
+        if (instanceIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // Filtered by instance id, so that one unknown instance does not fail the lookup of the others
+        CloudHelper.InstanceLookup lookup = CloudHelper.describeInstances(cloud, new ArrayList<>(instanceIds));
+        Map<String, List<String>> result = new HashMap<>();
+        for (Instance inst : lookup.instances.values()) {
+            result.put(inst.instanceId(), getVolumeIds(inst));
+        }
+        List<PendingTags> unresolved = new ArrayList<>();
+        for (Iterator<PendingTags> it = updates.iterator(); it.hasNext(); ) {
+            PendingTags update = it.next();
+            if (update.includeVolumes && !result.containsKey(update.instanceId)) {
+                unresolved.add(update);
+                it.remove();
+            }
+        }
+        if (!unresolved.isEmpty()) {
+            LOGGER.fine(() -> "Volumes of " + unresolved.size() + " instances not resolved, retrying on next flush");
+            requeue(unresolved);
+        }
+        return result;
+    }
+
+    static List<String> getVolumeIds(Instance inst) {
+        List<String> volumeIds = new ArrayList<>();
+        for (InstanceBlockDeviceMapping blockDeviceMapping : inst.blockDeviceMappings()) {
+            if (blockDeviceMapping.ebs() != null && blockDeviceMapping.ebs().volumeId() != null) {
+                volumeIds.add(blockDeviceMapping.ebs().volumeId());
+            }
+        }
+        return volumeIds;
+    }
+
+    private static void requeue(List<PendingTags> updates) {
+        for (PendingTags update : updates) {
+            if (update.attempt + 1 >= MAX_ATTEMPTS) {
+                LOGGER.warning("Giving up tagging " + update.instanceId + " after " + MAX_ATTEMPTS + " attempts");
+                continue;
+            }
+            enqueue(new PendingTags(
+                    update.cloud,
+                    update.delete,
+                    update.instanceId,
+                    update.includeVolumes,
+                    update.tags,
+                    update.attempt + 1));
+        }
+    }
+
+    private static final class PendingTags {
+        final EC2Cloud cloud;
+        final boolean delete;
+        final String instanceId;
+        final boolean includeVolumes;
+        final Set<Tag> tags;
+        final int attempt;
+
+        PendingTags(
+                EC2Cloud cloud,
+                boolean delete,
+                String instanceId,
+                boolean includeVolumes,
+                Collection<Tag> tags,
+                int attempt) {
+            this.cloud = Objects.requireNonNull(cloud);
+            this.delete = delete;
+            this.instanceId = Objects.requireNonNull(instanceId);
+            this.includeVolumes = includeVolumes;
+            this.tags = tags == null ? Collections.emptySet() : Set.copyOf(tags);
+            this.attempt = attempt;
+        }
+    }
+}
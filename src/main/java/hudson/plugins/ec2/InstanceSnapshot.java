@@ -0,0 +1,142 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+/**
+ * Immutable subset of an EC2 {@link Instance} holding only the fields the plugin reads after a refresh.
+ *
+ * <p>
+ * A full SDK {@link Instance} carries network interfaces, block device mappings, security groups and more. Agents
+ * keep one of these per node for their whole lifetime, so only the compact snapshot is retained. It is shared between
+ * an {@link EC2AbstractSlave} and its {@link EC2Computer}.
+ */
+public final class InstanceSnapshot {
+    private final String instanceId;
+    private final InstanceState state;
+    private final Instant launchTime;
+    private final String instanceType;
+    private final String publicDnsName;
+    private final String publicIpAddress;
+    private final String privateDnsName;
+    private final String privateIpAddress;
+    private final List<EC2Tag> tags;
+
+    /* The time at which the instance data was fetched */
+    private final long fetchTime;
+
+    private InstanceSnapshot(Instance instance, long fetchTime) {
+        this.instanceId = instance.instanceId();
+        this.state = toState(instance);
+        this.launchTime = instance.launchTime();
+        this.instanceType = instance.instanceTypeAsString();
+        this.publicDnsName = instance.publicDnsName();
+        this.publicIpAddress = instance.publicIpAddress();
+        this.privateDnsName = instance.privateDnsName();
+        this.privateIpAddress = instance.privateIpAddress();
+        List<EC2Tag> tagList = new ArrayList<>(instance.tags().size());
+        for (Tag t : instance.tags()) {
+            tagList.add(new EC2Tag(t.key(), t.value()));
+        }
+        this.tags = Collections.unmodifiableList(tagList);
+        this.fetchTime = fetchTime;
+    }
+
+    @CheckForNull
+    private static InstanceState toState(Instance instance) {
+        if (instance.state() == null || instance.state().nameAsString() == null) {
+            return null;
+        }
+        try {
+            return InstanceState.find(instance.state().nameAsString());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    public static InstanceSnapshot of(@NonNull Instance instance) {
+        return new InstanceSnapshot(instance, System.currentTimeMillis());
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    @CheckForNull
+    public InstanceState getState() {
+        return state;
+    }
+
+    public boolean isTerminated() {
+        return state == InstanceState.TERMINATED;
+    }
+
+    public Instant getLaunchTime() {
+        return launchTime;
+    }
+
+    public String getInstanceType() {
+        return instanceType;
+    }
+
+    public String getPublicDnsName() {
+        return publicDnsName;
+    }
+
+    public String getPublicIpAddress() {
+        return publicIpAddress;
+    }
+
+    public String getPrivateDnsName() {
+        return privateDnsName;
+    }
+
+    public String getPrivateIpAddress() {
+        return privateIpAddress;
+    }
+
+    public List<EC2Tag> getTags() {
+        return tags;
+    }
+
+    public long getFetchTime() {
+        return fetchTime;
+    }
+
+    /**
+     * Rebuilds a lightweight SDK {@link Instance} carrying the fields of this snapshot, for callers of APIs that still
+     * expect one. The result is not retained.
+     */
+    public Instance toInstance() {
+        List<Tag> amazonTags = new ArrayList<>(tags.size());
+        for (EC2Tag t : tags) {
+            amazonTags.add(Tag.builder().key(t.getName()).value(t.getValue()).build());
+        }
+        Instance.Builder builder = Instance.builder()
+                .instanceId(instanceId)
+                .launchTime(launchTime)
+                .instanceType(instanceType)
+                .publicDnsName(publicDnsName)
+                .publicIpAddress(publicIpAddress)
+                .privateDnsName(privateDnsName)
+                .privateIpAddress(privateIpAddress)
+                .tags(amazonTags);
+        if (state != null) {
+            builder.state(s -> s.name(InstanceStateName.fromValue(state.getCode())));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceSnapshot: " + instanceId + " (" + state + ")";
+    }
+}
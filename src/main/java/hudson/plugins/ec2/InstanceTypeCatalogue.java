@@ -0,0 +1,329 @@
+package hudson.plugins.ec2;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.XmlFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesResponse;
+import software.amazon.awssdk.services.ec2.model.InstanceTypeHypervisor;
+import software.amazon.awssdk.services.ec2.model.InstanceTypeInfo;
+
+/**
+ * Catalogue of the instance types offered in a region, as returned by DescribeInstanceTypes.
+ *
+ * <p>
+ * The properties of an instance type are the same for all the agents of a region, so the catalogue of a region is
+ * loaded once, shared by all the clouds of that region and cached on disk under the Jenkins root. It is refreshed in
+ * the background once older than {@link #REFRESH_INTERVAL_MS}, while lookups keep answering from the previous
+ * catalogue. Only {@link #describe(EC2Cloud, String)} calls AWS on the caller thread, for a type missing from the
+ * catalogue.
+ */
+@Restricted(NoExternalUse.class)
+public final class InstanceTypeCatalogue {
+    private static final Logger LOGGER = Logger.getLogger(InstanceTypeCatalogue.class.getName());
+
+    static final long REFRESH_INTERVAL_MS =
+            Long.getLong(InstanceTypeCatalogue.class.getName() + ".refreshIntervalMs", TimeUnit.DAYS.toMillis(1));
+
+    /* How long to wait before trying again after a failed refresh */
+    static final long RETRY_INTERVAL_MS =
+            Long.getLong(InstanceTypeCatalogue.class.getName() + ".retryIntervalMs", TimeUnit.MINUTES.toMillis(10));
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final Map<String, InstanceTypeCatalogue> CATALOGUES = new ConcurrentHashMap<>();
+
+    private final String region;
+
+    /* Replaced as a whole, never modified */
+    private volatile Map<String, Entry> types = Collections.emptyMap();
+
+    private volatile long fetchTime;
+
+    private volatile long nextAttempt;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    InstanceTypeCatalogue(String region) {
+        this.region = region;
+    }
+
+    /**
+     * The catalogue of the region of a cloud, refreshed in the background if it is stale.
+     */
+    @NonNull
+    public static InstanceTypeCatalogue of(@NonNull EC2Cloud cloud) {
+        InstanceTypeCatalogue catalogue = CATALOGUES.computeIfAbsent(cloud.getRegion(), region -> {
+            InstanceTypeCatalogue c = new InstanceTypeCatalogue(region);
+            c.load();
+            return c;
+        });
+        catalogue.refreshIfStale(cloud);
+        return catalogue;
+    }
+
+    /**
+     * Looks an instance type up in the catalogues loaded so far, whatever their region.
+     */
+    @CheckForNull
+    public static Entry findAnyRegion(@CheckForNull String type) {
+        for (InstanceTypeCatalogue catalogue : CATALOGUES.values()) {
+            Entry entry = catalogue.find(type);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The names of the instance types in the catalogues loaded so far, whatever their region.
+     */
+    @NonNull
+    public static Set<String> knownTypes() {
+        Set<String> names = new TreeSet<>();
+        for (InstanceTypeCatalogue catalogue : CATALOGUES.values()) {
+            names.addAll(catalogue.types.keySet());
+        }
+        return names;
+    }
+
+    static void clear() {
+        CATALOGUES.clear();
+    }
+
+    /**
+     * Looks an instance type up, without calling AWS.
+     */
+    @CheckForNull
+    public Entry find(@CheckForNull String type) {
+        return type == null ? null : types.get(type);
+    }
+
+    /**
+     * Looks an instance type up, describing it on the spot if it is not in the catalogue yet.
+     *
+     * @return the instance type, or {@code null} if AWS does not know it either.
+     */
+    @CheckForNull
+    public Entry describe(@NonNull EC2Cloud cloud, @CheckForNull String type) throws SdkException {
+        Entry entry = find(type);
+        if (entry != null || type == null) {
+            return entry;
+        }
+        DescribeInstanceTypesRequest request = DescribeInstanceTypesRequest.builder()
+                .instanceTypesWithStrings(Collections.singletonList(type))
+                .build();
+        DescribeInstanceTypesResponse response = cloud.connect().describeInstanceTypes(request);
+        List<Entry> described = new ArrayList<>();
+        for (InstanceTypeInfo info : response.instanceTypes()) {
+            described.add(Entry.from(info));
+        }
+        merge(described);
+        return find(type);
+    }
+
+    private synchronized void merge(List<Entry> entries) {
+        Map<String, Entry> merged = new HashMap<>(types);
+        for (Entry entry : entries) {
+            merged.put(entry.getName(), entry);
+        }
+        types = Collections.unmodifiableMap(merged);
+    }
+
+    private synchronized void replace(List<Entry> entries, long time) {
+        Map<String, Entry> replaced = new HashMap<>();
+        for (Entry entry : entries) {
+            replaced.put(entry.getName(), entry);
+        }
+        types = Collections.unmodifiableMap(replaced);
+        fetchTime = time;
+    }
+
+    private void refreshIfStale(EC2Cloud cloud) {
+        long now = System.currentTimeMillis();
+        if (now - fetchTime < REFRESH_INTERVAL_MS || now < nextAttempt || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Timer.get().submit(() -> {
+            try {
+                refresh(cloud.connect());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to describe the instance types of " + region, e);
+                nextAttempt = System.currentTimeMillis() + RETRY_INTERVAL_MS;
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    void refresh(Ec2Client ec2) throws SdkException, IOException {
+        long time = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>();
+        String nextToken = null;
+        do {
+            DescribeInstanceTypesResponse response = ec2.describeInstanceTypes(DescribeInstanceTypesRequest.builder()
+                    .maxResults(PAGE_SIZE)
+                    .nextToken(nextToken)
+                    .build());
+            for (InstanceTypeInfo info : response.instanceTypes()) {
+                entries.add(Entry.from(info));
+            }
+            nextToken = response.nextToken();
+        } while (nextToken != null && !nextToken.isEmpty());
+        replace(entries, time);
+        LOGGER.fine(() -> "Described " + entries.size() + " instance types in " + region);
+
+        XmlFile file = getFile();
+        if (file != null) {
+            file.write(new Snapshot(time, entries));
+        }
+    }
+
+    void load() {
+        XmlFile file = getFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            Snapshot snapshot = (Snapshot) file.read();
+            replace(snapshot.types != null ? snapshot.types : Collections.emptyList(), snapshot.fetchTime);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the instance types of " + region + " from " + file, e);
+        }
+    }
+
+    @CheckForNull
+    private XmlFile getFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(new File(jenkins.getRootDir(), "ec2-instance-types/" + region + ".xml"));
+    }
+
+    /**
+     * The on-disk form of a catalogue.
+     */
+    private static final class Snapshot {
+        private final long fetchTime;
+        private final List<Entry> types;
+
+        private Snapshot(long fetchTime, List<Entry> types) {
+            this.fetchTime = fetchTime;
+            this.types = types;
+        }
+    }
+
+    /**
+     * The properties of an instance type.
+     */
+    public static final class Entry {
+        private final String name;
+        private final String hypervisor;
+        private final int vCpus;
+        private final long memoryMiB;
+        private final List<String> architectures;
+        private final String networkPerformance;
+        private final boolean burstable;
+
+        Entry(
+                String name,
+                @CheckForNull String hypervisor,
+                int vCpus,
+                long memoryMiB,
+                List<String> architectures,
+                @CheckForNull String networkPerformance,
+                boolean burstable) {
+            this.name = name;
+            this.hypervisor = hypervisor;
+            this.vCpus = vCpus;
+            this.memoryMiB = memoryMiB;
+            this.architectures = new ArrayList<>(architectures);
+            this.networkPerformance = networkPerformance;
+            this.burstable = burstable;
+        }
+
+        static Entry from(InstanceTypeInfo info) {
+            return new Entry(
+                    info.instanceTypeAsString(),
+                    info.hypervisorAsString(),
+                    info.vCpuInfo() != null && info.vCpuInfo().defaultVCpus() != null
+                            ? info.vCpuInfo().defaultVCpus()
+                            : 0,
+                    info.memoryInfo() != null && info.memoryInfo().sizeInMiB() != null
+                            ? info.memoryInfo().sizeInMiB()
+                            : 0,
+                    info.processorInfo() != null
+                            ? info.processorInfo().supportedArchitecturesAsStrings()
+                            : Collections.emptyList(),
+                    info.networkInfo() != null ? info.networkInfo().networkPerformance() : null,
+                    Boolean.TRUE.equals(info.burstablePerformanceSupported()));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @CheckForNull
+        public String getHypervisor() {
+            return hypervisor;
+        }
+
+        public boolean isNitro() {
+            return InstanceTypeHypervisor.NITRO.toString().equals(hypervisor);
+        }
+
+        /**
+         * The default number of vCPUs, or 0 if unknown.
+         */
+        public int getVCpus() {
+            return vCpus;
+        }
+
+        /**
+         * The memory in MiB, or 0 if unknown.
+         */
+        public long getMemoryMiB() {
+            return memoryMiB;
+        }
+
+        public List<String> getArchitectures() {
+            return Collections.unmodifiableList(architectures);
+        }
+
+        @CheckForNull
+        public String getNetworkPerformance() {
+            return networkPerformance;
+        }
+
+        public boolean isBurstable() {
+            return burstable;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + hypervisor + ", " + vCpus + " vCPUs, " + memoryMiB + " MiB, " + architectures + ")";
+        }
+    }
+}
@@ -56,7 +56,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
@@ -67,6 +66,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -83,13 +83,11 @@ import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 import org.kohsuke.stapler.verb.POST;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.BlockDeviceMapping;
 import software.amazon.awssdk.services.ec2.model.CancelSpotInstanceRequestsRequest;
 import software.amazon.awssdk.services.ec2.model.CpuOptionsRequest;
-import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
 import software.amazon.awssdk.services.ec2.model.CreditSpecificationRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesRequest;
@@ -1682,7 +1680,15 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         try {
             return Integer.parseInt(numExecutors);
         } catch (NumberFormatException e) {
-            return EC2AbstractSlave.toNumExecutors(InstanceType.fromValue(type));
+            InstanceType instanceType = InstanceType.fromValue(type);
+            if (instanceType == InstanceType.UNKNOWN_TO_SDK_VERSION && getParent() != null) {
+                // Size the types newer than this SDK version by their vCPUs
+                InstanceTypeCatalogue.Entry entry = InstanceTypeCatalogue.of(getParent()).find(type);
+                if (entry != null && entry.getVCpus() > 0) {
+                    return entry.getVCpus();
+                }
+            }
+            return EC2AbstractSlave.toNumExecutors(instanceType);
         }
     }
 
@@ -2411,6 +2417,10 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
 
         RunInstancesRequest.Builder riRequestBuilder = riRequest.toBuilder();
         riRequestBuilder.maxCount(number - orphansOrStopped.size());
+        DedicatedHostPool.Claim hostClaim = null;
+        if (getTenancyAttribute().equals(Tenancy.Host) && !spotWithoutBidPrice) {
+            hostClaim = claimDedicatedHost(ec2, riRequest, riRequestBuilder, number - orphansOrStopped.size());
+        }
 
         List<Instance> newInstances;
         if (spotWithoutBidPrice) {
@@ -2447,6 +2457,9 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                 logProvisionInfo("Jenkins attempted to reserve "
                         + riRequest.maxCount()
                         + " instances and received this EC2 exception: " + e.getMessage());
+                if (hostClaim != null) {
+                    DedicatedHostPool.of(getParent()).unclaim(hostClaim);
+                }
                 throw e;
             }
         }
@@ -2461,6 +2474,49 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return toSlaves(newInstances);
     }
 
+    /**
+     * Targets a launch at a dedicated host with free slots in the zone of the instances, if there is one. Otherwise EC2
+     * places the instances on any host with room for them, as before.
+     */
+    @CheckForNull
+    private DedicatedHostPool.Claim claimDedicatedHost(
+            Ec2Client ec2, RunInstancesRequest riRequest, RunInstancesRequest.Builder riRequestBuilder, int count) {
+        String zone = getZone();
+        if (zone == null || zone.isBlank()) {
+            zone = null;
+            String subnetId = riRequest.hasNetworkInterfaces()
+                    ? riRequest.networkInterfaces().get(0).subnetId()
+                    : null;
+            if (subnetId != null && !subnetId.isBlank()) {
+                // The host has to be in the zone of the subnet
+                try {
+                    List<Subnet> subnets = ec2.describeSubnets(DescribeSubnetsRequest.builder()
+                                    .subnetIds(subnetId)
+                                    .build())
+                            .subnets();
+                    if (subnets.isEmpty()) {
+                        return null;
+                    }
+                    zone = subnets.get(0).availabilityZone();
+                } catch (SdkException e) {
+                    LOGGER.log(Level.WARNING, "Failed to find the availability zone of " + subnetId, e);
+                    return null;
+                }
+            }
+        }
+        DedicatedHostPool.Claim claim = DedicatedHostPool.of(getParent()).claim(ec2, type, zone, count);
+        if (claim != null) {
+            Placement.Builder placement =
+                    riRequest.placement() != null ? riRequest.placement().toBuilder() : Placement.builder();
+            riRequestBuilder.placement(placement.tenancy("host")
+                    .hostId(claim.getHost().getHostId())
+                    .build());
+            riRequestBuilder.maxCount(claim.getSlots());
+            logProvisionInfo("Launching on dedicated host " + claim.getHost());
+        }
+        return claim;
+    }
+
     void wakeOrphansOrStoppedUp(Ec2Client ec2, List<Instance> orphansOrStopped) {
         List<String> instances = new ArrayList<>();
         for (Instance instance : orphansOrStopped) {
@@ -2840,18 +2896,15 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                     }
                 }
 
-                // Now that we have our Spot request, we can set tags on it
-                updateRemoteTags(
-                        ec2, instTags, "InvalidSpotInstanceRequestID.NotFound", spotInstReq.spotInstanceRequestId());
-
-                // That was a remote request - we should also update our local instance data
+                // The request was tagged through its TagSpecification, mirror that in our local instance data
                 SpotInstanceRequest.Builder spotInstReqBuilder = spotInstReq.toBuilder();
                 spotInstReqBuilder.tags(instTags);
 
-                // If the spot request is already fulfilled with an instance ID, tag the instance immediately
+                // If the spot request is already fulfilled with an instance ID, tag the instance right away.
+                // RequestSpotInstances cannot tag the instance or its volumes itself.
                 if (spotInstReq.instanceId() != null
                         && !spotInstReq.instanceId().isBlank()) {
-                    tagSpotInstance(ec2, spotInstReq.instanceId(), instTags);
+                    EC2TagWriter.createTags(parent, spotInstReq.instanceId(), true, instTags);
                 }
 
                 LOGGER.info("Spot instance id in provision: " + spotInstReq.spotInstanceRequestId());
@@ -3005,63 +3058,6 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return keyPair;
     }
 
-    /**
-     * Update the tags stored in EC2 with the specified information. Re-try 5 times if instances isn't up by
-     * catchErrorCode - e.g. InvalidSpotInstanceRequestID.NotFound or InvalidInstanceRequestID.NotFound
-     *
-     * @param ec2
-     * @param instTags
-     * @param catchErrorCode
-     * @param params
-     * @throws InterruptedException
-     */
-    private void updateRemoteTags(
-            Ec2Client ec2, Collection<Tag> instTags, @NonNull String catchErrorCode, String... params)
-            throws InterruptedException {
-        for (int i = 0; i < 5; i++) {
-            try {
-                ec2.createTags(CreateTagsRequest.builder()
-                        .resources(params)
-                        .tags(instTags)
-                        .build());
-                break;
-            } catch (AwsServiceException e) {
-                if (catchErrorCode.equals(e.awsErrorDetails().errorCode())) {
-                    Thread.sleep(5000);
-                    continue;
-                }
-                LOGGER.log(Level.SEVERE, e.awsErrorDetails().errorMessage(), e);
-            }
-        }
-    }
-
-    /**
-     * Tag a spot instance and its volumes immediately when the instance ID becomes available.
-     * This ensures tags are applied at instance creation time rather than waiting for connection.
-     *
-     * @param ec2
-     * @param instanceId
-     * @param instTags
-     */
-    private void tagSpotInstance(Ec2Client ec2, String instanceId, Collection<Tag> instTags) {
-        try {
-            LOGGER.info("Tagging spot instance " + instanceId + " at creation time");
-            List<String> resources = new ArrayList<>();
-            resources.add(instanceId);
-
-            ec2.createTags(CreateTagsRequest.builder()
-                    .resources(resources)
-                    .tags(instTags)
-                    .build());
-        } catch (AwsServiceException e) {
-            LOGGER.log(
-                    Level.WARNING,
-                    "Failed to tag spot instance " + instanceId + " at creation: "
-                            + e.awsErrorDetails().errorMessage(),
-                    e);
-        }
-    }
-
     /**
      * Get a list of security group ids for the agent
      */
@@ -3378,7 +3374,8 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         public FormValidation doValidateType(@QueryParameter String value) {
             InstanceType instanceType = InstanceType.fromValue(value);
 
-            if (instanceType == InstanceType.UNKNOWN_TO_SDK_VERSION) {
+            if (instanceType == InstanceType.UNKNOWN_TO_SDK_VERSION
+                    && InstanceTypeCatalogue.findAnyRegion(value) == null) {
                 return FormValidation.error("Instance type unknown to SDK version");
             }
 
@@ -3642,10 +3639,11 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         public ListBoxModel doFillTypeItems(@QueryParameter String type) {
             ListBoxModel items = new ListBoxModel();
 
-            List<String> knownValues = InstanceType.knownValues().stream()
+            // Also offer the types described by AWS that this SDK version doesn't know yet
+            Set<String> knownValues = InstanceType.knownValues().stream()
                     .map(InstanceType::toString)
-                    .sorted()
-                    .collect(Collectors.toList());
+                    .collect(Collectors.toCollection(TreeSet::new));
+            knownValues.addAll(InstanceTypeCatalogue.knownTypes());
 
             for (String value : knownValues) {
                 items.add(new ListBoxModel.Option(value, value, Objects.equals(value, type)));
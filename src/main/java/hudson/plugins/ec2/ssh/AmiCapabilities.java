@@ -0,0 +1,104 @@
+package hudson.plugins.ec2.ssh;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Capabilities of the agents launched from an AMI, learned from the first successful launch.
+ *
+ * <p>
+ * Agents of a baked AMI answer the same setup questions on every launch. Once an agent of an AMI has been launched
+ * without installing anything, later launches from that AMI with the same java path skip checking for java and scp.
+ * The init script may install them, so the capabilities are recorded per AMI and init script. A failed launch forgets
+ * the fingerprints of the AMI, so that the next launch verifies the agent again.
+ */
+final class AmiCapabilities {
+    private static final Logger LOGGER = Logger.getLogger(AmiCapabilities.class.getName());
+
+    static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("jenkins.ec2.cacheAmiCapabilities", "true"));
+
+    private static final Map<String, Fingerprint> FINGERPRINTS = new ConcurrentHashMap<>();
+
+    private AmiCapabilities() {}
+
+    /**
+     * The fingerprint recorded for an AMI, or {@code null} if its agents must be verified.
+     *
+     * @param scp whether the launch needs scp, in which case only a fingerprint where it was found is returned
+     */
+    @CheckForNull
+    static Fingerprint get(@CheckForNull String ami, String javaPath, @CheckForNull String initScript, boolean scp) {
+        if (!ENABLED || ami == null) {
+            return null;
+        }
+        Fingerprint fingerprint = FINGERPRINTS.get(key(ami, initScript));
+        if (fingerprint == null || !Objects.equals(fingerprint.getJavaPath(), javaPath)) {
+            return null;
+        }
+        return !scp || fingerprint.hasScp() ? fingerprint : null;
+    }
+
+    static void record(
+            @CheckForNull String ami,
+            String javaPath,
+            @CheckForNull String initScript,
+            @CheckForNull String javaVersion,
+            boolean scp) {
+        if (!ENABLED || ami == null) {
+            return;
+        }
+        Fingerprint previous = FINGERPRINTS.put(key(ami, initScript), new Fingerprint(javaPath, javaVersion, scp));
+        if (previous == null) {
+            LOGGER.fine(() -> "Recorded capabilities of " + ami + ": " + javaPath + " (" + javaVersion + ")");
+        }
+    }
+
+    static void forget(@CheckForNull String ami) {
+        if (ami != null && FINGERPRINTS.keySet().removeIf(key -> key.equals(ami) || key.startsWith(ami + "@"))) {
+            LOGGER.fine(() -> "Forgot capabilities of " + ami);
+        }
+    }
+
+    static void clear() {
+        FINGERPRINTS.clear();
+    }
+
+    private static String key(String ami, String initScript) {
+        return initScript == null || initScript.isBlank() ? ami : ami + "@" + Util.getDigestOf(initScript);
+    }
+
+    static final class Fingerprint {
+        private final String javaPath;
+        private final String javaVersion;
+        private final boolean scp;
+
+        private Fingerprint(String javaPath, String javaVersion, boolean scp) {
+            this.javaPath = javaPath;
+            this.javaVersion = javaVersion;
+            this.scp = scp;
+        }
+
+        String getJavaPath() {
+            return javaPath;
+        }
+
+        @CheckForNull
+        String getJavaVersion() {
+            return javaVersion;
+        }
+
+        boolean hasScp() {
+            return scp;
+        }
+
+        @Override
+        public String toString() {
+            return javaPath + (javaVersion != null ? " (" + javaVersion + ")" : "") + (scp ? " and scp" : "");
+        }
+    }
+}
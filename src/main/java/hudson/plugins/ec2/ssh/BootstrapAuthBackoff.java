@@ -0,0 +1,148 @@
+package hudson.plugins.ec2.ssh;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Backoff between the SSH bootstrap authentication attempts of an agent.
+ *
+ * <p>
+ * Attempts start {@link #INITIAL_DELAY_MS} apart and the delay grows exponentially with jitter, up to a maximum
+ * delay and the remaining launch timeout. The time from the launch of the instance to the first successful
+ * authentication is recorded per AMI, so that agents of an AMI whose {@code authorized_keys} is known to be installed
+ * late do not hammer sshd with attempts bound to fail. Reconnections to instances up for longer than
+ * {@link #FRESH_LAUNCH_MS} neither wait nor are recorded.
+ */
+final class BootstrapAuthBackoff {
+    private static final Logger LOGGER = Logger.getLogger(BootstrapAuthBackoff.class.getName());
+
+    static final long INITIAL_DELAY_MS =
+            Long.getLong(BootstrapAuthBackoff.class.getName() + ".initialDelayMs", 300);
+
+    private static final double MULTIPLIER = 2.0;
+
+    private static final double JITTER = 0.2;
+
+    /* Instances launched longer ago are being reconnected, they say nothing about the time their AMI takes */
+    static final long FRESH_LAUNCH_MS =
+            Long.getLong(BootstrapAuthBackoff.class.getName() + ".freshLaunchMs", TimeUnit.MINUTES.toMillis(10));
+
+    /* Weight of the latest sample in the per-AMI average */
+    private static final double SMOOTHING = 0.3;
+
+    private static final Map<String, AmiStats> STATS = new ConcurrentHashMap<>();
+
+    private final String ami;
+    private final Instant launchTime;
+    private final boolean freshLaunch;
+    private final long maxDelayMs;
+    private final long deadline;
+    private long delayMs = INITIAL_DELAY_MS;
+    private int attempts;
+
+    /**
+     * @param ami the AMI of the agent, or {@code null} if unknown
+     * @param launchTime the launch time of the instance, or {@code null} if unknown
+     * @param maxDelayMs maximum delay between two attempts
+     * @param timeoutMs launch timeout of the agent, {@code 0} or less if there is none
+     */
+    BootstrapAuthBackoff(String ami, Instant launchTime, long maxDelayMs, long timeoutMs) {
+        this.ami = ami;
+        this.launchTime = launchTime;
+        this.freshLaunch = launchTime != null && sinceLaunch() < FRESH_LAUNCH_MS;
+        this.maxDelayMs = Math.max(INITIAL_DELAY_MS, maxDelayMs);
+        this.deadline = timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : Long.MAX_VALUE;
+    }
+
+    /**
+     * Delay before the first attempt: until a bit before agents of this AMI usually accept the key after their launch,
+     * so that the first attempt has a good chance to succeed. {@code 0} when nothing is known yet, or when the
+     * instance has been up for longer already, e.g. when reconnecting.
+     */
+    long firstAttemptDelay() {
+        AmiStats stats = ami == null || !freshLaunch ? null : STATS.get(ami);
+        long typical = stats == null ? -1 : stats.getTypicalTimeToAuthMs();
+        if (typical <= 0) {
+            return 0;
+        }
+        long delay = (long) (typical * 0.8) - sinceLaunch();
+        return Math.max(0, Math.min(delay, remaining()));
+    }
+
+    /**
+     * Delay before the next attempt, or {@code -1} if the launch timeout leaves no time for another attempt.
+     */
+    long nextDelay() {
+        attempts++;
+        long remaining = remaining();
+        if (remaining <= 0) {
+            return -1;
+        }
+        double jitter = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        long delay = Math.min((long) (delayMs * jitter), remaining);
+        delayMs = Math.min((long) (delayMs * MULTIPLIER), maxDelayMs);
+        return delay;
+    }
+
+    void recordSuccess() {
+        attempts++;
+        if (ami == null || !freshLaunch) {
+            return;
+        }
+        // Measured from the launch, so that it does not depend on when this launcher started its attempts
+        long elapsed = sinceLaunch();
+        STATS.computeIfAbsent(ami, k -> new AmiStats()).recordSuccess(elapsed);
+        LOGGER.fine(() -> "Authenticated on " + ami + " after " + attempts + " attempts, " + elapsed
+                + "ms after launch");
+    }
+
+    void recordFailure() {
+        if (ami == null) {
+            return;
+        }
+        int failures = STATS.computeIfAbsent(ami, k -> new AmiStats()).recordFailure();
+        LOGGER.fine(() -> "Failed to authenticate on " + ami + " after " + attempts + " attempts (" + failures
+                + " failed bootstraps so far)");
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    private long sinceLaunch() {
+        return System.currentTimeMillis() - launchTime.toEpochMilli();
+    }
+
+    private long remaining() {
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    static void clearStats() {
+        STATS.clear();
+    }
+
+    private static final class AmiStats {
+        private double averageTimeToAuthMs;
+        private int successes;
+        private int failures;
+
+        synchronized void recordSuccess(long timeToAuthMs) {
+            averageTimeToAuthMs = successes == 0
+                    ? timeToAuthMs
+                    : SMOOTHING * timeToAuthMs + (1 - SMOOTHING) * averageTimeToAuthMs;
+            successes++;
+        }
+
+        synchronized int recordFailure() {
+            return ++failures;
+        }
+
+        synchronized long getTypicalTimeToAuthMs() {
+            return successes == 0 ? -1 : (long) averageTimeToAuthMs;
+        }
+    }
+}
@@ -28,11 +28,13 @@ import hudson.model.TaskListener;
 import hudson.plugins.ec2.EC2AbstractSlave;
 import hudson.plugins.ec2.EC2Computer;
 import hudson.plugins.ec2.EC2Readiness;
+import hudson.plugins.ec2.EC2ReadinessTracker;
 import hudson.plugins.ec2.SlaveTemplate;
-import hudson.plugins.ec2.util.KeyHelper;
 import hudson.plugins.ec2.util.KeyPair;
+import hudson.plugins.ec2.util.RemotingJar;
 import hudson.slaves.CommandLauncher;
 import hudson.slaves.ComputerLauncher;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -42,12 +44,11 @@ import java.time.Duration;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import jenkins.model.Jenkins;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.sshd.client.session.ClientSession;
 import org.apache.sshd.scp.client.CloseableScpClient;
 import org.apache.sshd.scp.common.helpers.ScpTimestampCommandDetails;
 import software.amazon.awssdk.core.exception.SdkException;
-import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.InstanceType;
 
 /**
@@ -95,26 +96,12 @@ public class EC2MacLauncher extends EC2SSHLauncher {
         }
 
         if (node instanceof EC2Readiness readinessNode) {
-            int tries = readinessTries;
-
-            while (tries-- > 0) {
-                if (readinessNode.isReady()) {
-                    break;
-                }
-
-                logInfo(
-                        computer,
-                        listener,
-                        "Node still not ready. Current status: " + readinessNode.getEc2ReadinessStatus());
-                Thread.sleep(readinessSleepMs);
-            }
-
-            if (!readinessNode.isReady()) {
-                throw SdkException.builder()
-                        .message("Node still not ready, timed out after " + (readinessTries * readinessSleepMs / 1000)
-                                + "s with status " + readinessNode.getEc2ReadinessStatus())
-                        .build();
-            }
+            EC2ReadinessTracker.of(node.getCloud())
+                    .awaitReady(
+                            readinessNode,
+                            (long) readinessTries * readinessSleepMs,
+                            readinessSleepMs,
+                            status -> logInfo(computer, listener, status));
         }
 
         logInfo(computer, listener, "Launching instance: " + node.getInstanceId());
@@ -135,6 +122,11 @@ public class EC2MacLauncher extends EC2SSHLauncher {
             logInfo(computer, listener, "SSH service should have stabilized");
         }
 
+        final String ami = template.getAmi();
+        final AmiCapabilities.Fingerprint fingerprint = AmiCapabilities.get(ami, javaPath, node.initScript, false);
+        boolean javaFound = false;
+        String javaVersion = null;
+
         // connect fresh as ROOT
         logInfo(computer, listener, "connect fresh as root");
         try (ClientSession clientSession = connectToSsh(computer, listener, template)) {
@@ -144,7 +136,7 @@ public class EC2MacLauncher extends EC2SSHLauncher {
             if (key == null) {
                 isAuthenticated = false;
             } else {
-                clientSession.addPublicKeyIdentity(KeyHelper.decodeKeyPair(key.getMaterial(), ""));
+                clientSession.addPublicKeyIdentity(key.getDecodedKeyPair());
                 clientSession.auth().await(timeout);
                 isAuthenticated = clientSession.isAuthenticated();
             }
@@ -184,40 +176,41 @@ public class EC2MacLauncher extends EC2SSHLauncher {
                     executeRemote(clientSession, createHudsonRunInitCommand, logger);
                 }
 
-                try {
-                    Instance nodeInstance = computer.describeInstance();
-                    if (nodeInstance.instanceType().equals(InstanceType.MAC2_METAL)) {
-                        LOGGER.info("Running Command for mac2.metal");
-                        executeRemote(
-                                computer,
-                                clientSession,
-                                javaPath + " -fullversion",
-                                "curl -L -O "
-                                        + CORRETTO_LATEST_URL
-                                        + "/amazon-corretto-11-aarch64-macos-jdk.pkg; sudo installer -pkg amazon-corretto-11-aarch64-macos-jdk.pkg -target /",
-                                logger,
-                                listener);
-                    } else {
-                        executeRemote(
-                                computer,
-                                clientSession,
-                                javaPath + " -fullversion",
-                                "curl -L -O "
-                                        + CORRETTO_LATEST_URL
-                                        + "/amazon-corretto-11-x64-macos-jdk.pkg; sudo installer -pkg amazon-corretto-11-x64-macos-jdk.pkg -target /",
-                                logger,
-                                listener);
+                if (fingerprint != null) {
+                    logInfo(computer, listener, "Agents of " + ami + " are known to have " + fingerprint);
+                } else {
+                    String javaCheck = javaPath + " -fullversion";
+                    logInfo(computer, listener, "Verifying: " + javaCheck);
+                    ByteArrayOutputStream javaCheckOutput = new ByteArrayOutputStream();
+                    javaFound = executeRemote(clientSession, javaCheck, new TeeOutputStream(logger, javaCheckOutput));
+                    if (javaFound) {
+                        javaVersion = javaCheckOutput
+                                .toString(StandardCharsets.UTF_8)
+                                .lines()
+                                .findFirst()
+                                .orElse(null);
+                    }
+                    if (!javaFound) {
+                        String nodeInstanceType = computer.getInstanceSnapshot().getInstanceType();
+                        String arch = InstanceType.MAC2_METAL.toString().equals(nodeInstanceType) ? "aarch64" : "x64";
+                        String pkg = "amazon-corretto-11-" + arch + "-macos-jdk.pkg";
+                        String installCommand = "curl -L -O " + CORRETTO_LATEST_URL + "/" + pkg
+                                + "; sudo installer -pkg " + pkg + " -target /";
+                        logInfo(computer, listener, "Installing: " + installCommand);
+                        if (!executeRemote(clientSession, installCommand, logger)) {
+                            logWarning(computer, listener, "Failed to install: " + installCommand);
+                        }
                     }
-                } catch (InterruptedException ex) {
-                    LOGGER.warning(ex.getMessage());
                 }
 
-                // Always copy so we get the most recent remoting.jar
-                logInfo(computer, listener, "Copying remoting.jar to: " + tmpDir);
-                scp.upload(
-                        Jenkins.get().getJnlpJars("remoting.jar").readFully(),
-                        tmpDir + "/remoting.jar",
-                        List.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+                String remotingPath = tmpDir + "/remoting.jar";
+                uploadRemotingJar(
+                        computer,
+                        listener,
+                        clientSession,
+                        scp,
+                        RemotingJar.unixChecksumCommand(remotingPath),
+                        remotingPath,
                         scpTimestamp);
             }
         }
@@ -268,7 +261,17 @@ public class EC2MacLauncher extends EC2SSHLauncher {
                 }
             }
         } else {
-            launchRemotingAgent(computer, listener, launchString, template, timeout, logger);
+            try {
+                launchRemotingAgent(computer, listener, launchString, template, timeout, logger);
+            } catch (IOException | RuntimeException e) {
+                // Verify the agents of this AMI again on the next launch
+                AmiCapabilities.forget(ami);
+                throw e;
+            }
+            if (javaFound) {
+                // Java did not have to be installed, scp is not checked as this launcher does not need it
+                AmiCapabilities.record(ami, javaPath, node.initScript, javaVersion, false);
+            }
         }
     }
 }
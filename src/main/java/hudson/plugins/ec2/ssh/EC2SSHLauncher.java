@@ -1,5 +1,6 @@
 package hudson.plugins.ec2.ssh;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.FilePath;
 import hudson.ProxyConfiguration;
 import hudson.model.Descriptor;
@@ -17,8 +18,9 @@ import hudson.plugins.ec2.ssh.proxy.ProxyCONNECTListener;
 import hudson.plugins.ec2.ssh.verifiers.HostKey;
 import hudson.plugins.ec2.ssh.verifiers.HostKeyHelper;
 import hudson.plugins.ec2.ssh.verifiers.Messages;
-import hudson.plugins.ec2.util.KeyHelper;
 import hudson.plugins.ec2.util.KeyPair;
+import hudson.plugins.ec2.util.PortProber;
+import hudson.plugins.ec2.util.RemotingJar;
 import hudson.plugins.ec2.util.SSHClientHelper;
 import hudson.plugins.ec2.util.SSHClientManager;
 import hudson.remoting.Channel;
@@ -36,7 +38,9 @@ import java.net.Proxy;
 import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
 import java.security.PublicKey;
+import java.time.Instant;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
@@ -55,6 +59,8 @@ import org.apache.sshd.client.session.ClientSession;
 import org.apache.sshd.common.AttributeRepository;
 import org.apache.sshd.common.AttributeStore;
 import org.apache.sshd.common.config.keys.OpenSshCertificate;
+import org.apache.sshd.scp.client.ScpClient;
+import org.apache.sshd.scp.common.helpers.ScpTimestampCommandDetails;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import software.amazon.awssdk.core.exception.SdkException;
@@ -68,6 +74,9 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
     private static final String BOOTSTRAP_AUTH_SLEEP_MS = "jenkins.ec2.bootstrapAuthSleepMs";
     private static final String BOOTSTRAP_AUTH_TRIES = "jenkins.ec2.bootstrapAuthTries";
 
+    /* Maximum time waiting for the SSH port before the host address is looked up again */
+    private static final long PORT_PROBE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
     private static int bootstrapAuthSleepMs = 30000;
     private static int bootstrapAuthTries = 30;
 
@@ -119,17 +128,37 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
             long timeout,
             PrintStream logger)
             throws InterruptedException, IOException {
-        logInfo(computer, listener, "Launching remoting agent (via SSH2 Connection): " + launchString);
-
         final ClientSession remotingSession = connectToSsh(computer, listener, template);
         KeyPair key = computer.getCloud().getKeyPair();
         if (key != null) {
-            remotingSession.addPublicKeyIdentity(KeyHelper.decodeKeyPair(key.getMaterial(), ""));
+            remotingSession.addPublicKeyIdentity(key.getDecodedKeyPair());
         }
         remotingSession.auth().await(timeout);
-        ChannelExec agentExecChannel = remotingSession.createExecChannel(
-                launchString, StandardCharsets.US_ASCII, null, Collections.emptyMap());
-        agentExecChannel.open().verify(timeout);
+        launchRemotingAgent(computer, listener, remotingSession, launchString, timeout, logger);
+    }
+
+    /**
+     * Starts the remoting agent on an already authenticated session. The session is closed along with the channel.
+     */
+    protected void launchRemotingAgent(
+            EC2Computer computer,
+            TaskListener listener,
+            ClientSession remotingSession,
+            String launchString,
+            long timeout,
+            PrintStream logger)
+            throws IOException {
+        logInfo(computer, listener, "Launching remoting agent (via SSH2 Connection): " + launchString);
+
+        ChannelExec agentExecChannel;
+        try {
+            agentExecChannel = remotingSession.createExecChannel(
+                    launchString, StandardCharsets.US_ASCII, null, Collections.emptyMap());
+            agentExecChannel.open().verify(timeout);
+        } catch (IOException | RuntimeException e) {
+            remotingSession.close();
+            throw e;
+        }
 
         InputStream invertedOut = agentExecChannel.getInvertedOut();
         OutputStream invertedIn = agentExecChannel.getInvertedIn();
@@ -182,6 +211,54 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
         }
     }
 
+    /**
+     * Copies remoting.jar to the agent, unless the copy already there has the same checksum.
+     *
+     * @param checksumCommand command printing the SHA-256 of the remote copy, see {@link RemotingJar}
+     */
+    protected void uploadRemotingJar(
+            EC2Computer computer,
+            TaskListener listener,
+            ClientSession clientSession,
+            ScpClient scp,
+            String checksumCommand,
+            String remotePath,
+            ScpTimestampCommandDetails scpTimestamp)
+            throws IOException {
+        String checksum = null;
+        try {
+            checksum = clientSession.executeRemoteCommand(checksumCommand);
+        } catch (IOException e) {
+            // Most likely there is no copy yet
+            LOGGER.log(Level.FINE, "Failed to get the checksum of " + remotePath, e);
+        }
+        uploadRemotingJar(computer, listener, scp, checksum, remotePath, scpTimestamp);
+    }
+
+    /**
+     * Copies remoting.jar to the agent, unless the checksum of the copy already there, obtained beforehand, matches.
+     */
+    protected void uploadRemotingJar(
+            EC2Computer computer,
+            TaskListener listener,
+            ScpClient scp,
+            @CheckForNull String remoteChecksum,
+            String remotePath,
+            ScpTimestampCommandDetails scpTimestamp)
+            throws IOException {
+        RemotingJar jar = RemotingJar.get();
+        if (jar.matches(remoteChecksum)) {
+            logInfo(computer, listener, "remoting.jar is up to date in: " + remotePath);
+            return;
+        }
+        logInfo(computer, listener, "Copying remoting.jar to: " + remotePath);
+        scp.upload(
+                jar.getContent(),
+                remotePath,
+                List.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+                scpTimestamp);
+    }
+
     protected File createIdentityKeyFile(EC2Computer computer) throws IOException {
         EC2PrivateKey ec2PrivateKey = computer.getCloud().resolvePrivateKey();
         String privateKey = "";
@@ -237,6 +314,20 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
 
     protected boolean bootstrap(EC2Computer computer, TaskListener listener, SlaveTemplate template)
             throws IOException, InterruptedException, SdkException {
+        try (ClientSession session = bootstrapSession(computer, listener, template)) {
+            return session != null;
+        }
+    }
+
+    /**
+     * Same as {@link #bootstrap(EC2Computer, TaskListener, SlaveTemplate)}, but hands the authenticated session over
+     * to the caller, so that it can be used for the rest of the launch instead of connecting again.
+     *
+     * @return the authenticated session, to be closed by the caller, or {@code null} if authentication failed.
+     */
+    @CheckForNull
+    protected ClientSession bootstrapSession(EC2Computer computer, TaskListener listener, SlaveTemplate template)
+            throws IOException, InterruptedException, SdkException {
         logInfo(computer, listener, "bootstrap()");
         final EC2AbstractSlave node = computer.getNode();
         final long timeout = node == null ? 0L : node.getLaunchTimeoutInMillis();
@@ -248,7 +339,7 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
             KeyPair key = computer.getCloud().getKeyPair();
             if (key == null) {
                 logWarning(computer, listener, "Could not retrieve a valid key pair.");
-                return false;
+                return null;
             }
             logInfo(
                     computer,
@@ -256,34 +347,85 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
                     String.format(
                             "Using private key %s (SHA-1 fingerprint %s)",
                             key.getKeyPairInfo().keyName(), key.getKeyPairInfo().keyFingerprint()));
+            BootstrapAuthBackoff backoff = new BootstrapAuthBackoff(
+                    template == null ? null : template.getAmi(), launchTime(computer), bootstrapAuthSleepMs, timeout);
+            long delay = backoff.firstAttemptDelay();
+            if (delay > 0) {
+                logInfo(computer, listener, "Waiting " + delay + "ms for the key to be installed on the agent.");
+                Thread.sleep(delay);
+            }
             while (tries-- > 0) {
                 logInfo(computer, listener, "Authenticating as " + computer.getRemoteAdmin());
                 try {
                     bootstrapSession = connectToSsh(computer, listener, template);
-                    bootstrapSession.addPublicKeyIdentity(KeyHelper.decodeKeyPair(key.getMaterial(), ""));
+                    bootstrapSession.addPublicKeyIdentity(key.getDecodedKeyPair());
                     bootstrapSession.auth().await(timeout);
 
                     isAuthenticated = bootstrapSession.isAuthenticated();
                 } catch (IOException e) {
                     logException(computer, listener, "Exception trying to authenticate", e);
-                    bootstrapSession.close();
                 }
                 if (isAuthenticated) {
+                    backoff.recordSuccess();
+                    break;
+                }
+                if (bootstrapSession != null) {
+                    bootstrapSession.close();
+                    bootstrapSession = null;
+                }
+                delay = backoff.nextDelay();
+                if (delay < 0) {
                     break;
                 }
-                logWarning(computer, listener, "Authentication failed. Trying again...");
-                Thread.sleep(bootstrapAuthSleepMs);
+                logWarning(computer, listener, "Authentication failed. Trying again in " + delay + "ms...");
+                Thread.sleep(delay);
             }
             if (!isAuthenticated) {
+                backoff.recordFailure();
                 logWarning(computer, listener, "Authentication failed");
-                return false;
+                return null;
             }
+            ClientSession authenticated = bootstrapSession;
+            bootstrapSession = null;
+            return authenticated;
         } finally {
             if (bootstrapSession != null) {
                 bootstrapSession.close();
             }
         }
-        return true;
+    }
+
+    /* The launch time of the instance, or null if it could not be described */
+    @CheckForNull
+    private static Instant launchTime(EC2Computer computer) throws InterruptedException {
+        try {
+            return computer.getLaunchTime();
+        } catch (SdkException e) {
+            LOGGER.log(Level.FINE, "Failed to get the launch time of " + computer.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens a new session authenticated with the key pair of the cloud.
+     *
+     * @return the authenticated session, to be closed by the caller, or {@code null} if authentication failed.
+     */
+    @CheckForNull
+    protected ClientSession connectAndAuthenticate(
+            EC2Computer computer, TaskListener listener, SlaveTemplate template, long timeout)
+            throws IOException, InterruptedException, SdkException {
+        ClientSession clientSession = connectToSsh(computer, listener, template);
+        KeyPair key = computer.getCloud().getKeyPair();
+        if (key != null) {
+            clientSession.addPublicKeyIdentity(key.getDecodedKeyPair());
+            clientSession.auth().await(timeout);
+            if (clientSession.isAuthenticated()) {
+                return clientSession;
+            }
+        }
+        clientSession.close();
+        return null;
     }
 
     protected ClientSession connectToSsh(EC2Computer computer, TaskListener listener, SlaveTemplate template)
@@ -367,6 +509,23 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
                 }
 
                 int port = computer.getSshPort();
+                ProxyConfiguration proxyConfig = Jenkins.get().proxy;
+                Proxy proxy = proxyConfig == null ? Proxy.NO_PROXY : proxyConfig.createProxy(host);
+                if (proxy.equals(Proxy.NO_PROXY)) {
+                    // Only start the SSH handshake once sshd is listening, without sleeping between attempts
+                    long probeTimeout = timeout > 0
+                            ? Math.min(PORT_PROBE_TIMEOUT_MS, timeout - (System.currentTimeMillis() - startTime))
+                            : PORT_PROBE_TIMEOUT_MS;
+                    if (!PortProber.awaitOpen(host, probeTimeout, port)) {
+                        // Also reached at once when the host cannot be resolved yet
+                        logInfo(computer, listener, "Waiting for port " + port + " of " + host + " to be open.");
+                        throw new IOException("goto sleep");
+                    }
+                }
+
+                // The host key is verified on the SSH I/O threads, whatever the verifier waits for is awaited here
+                template.getHostKeyVerificationStrategy().getStrategy().beforeConnect(computer);
+
                 Integer slaveConnectTimeout = Integer.getInteger("jenkins.ec2.slaveConnectTimeout", 10000);
                 logInfo(
                         computer,
@@ -375,8 +534,6 @@ public abstract class EC2SSHLauncher extends EC2ComputerLauncher {
 
                 ConnectFuture connectFuture;
 
-                ProxyConfiguration proxyConfig = Jenkins.get().proxy;
-                Proxy proxy = proxyConfig == null ? Proxy.NO_PROXY : proxyConfig.createProxy(host);
                 if (!proxy.equals(Proxy.NO_PROXY) && proxy.address() instanceof InetSocketAddress address) {
                     String username = proxyConfig.getUserName();
                     String password = proxyConfig.getSecretPassword().getPlainText();
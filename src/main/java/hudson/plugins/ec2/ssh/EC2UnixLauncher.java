@@ -28,9 +28,8 @@ import hudson.model.TaskListener;
 import hudson.plugins.ec2.EC2AbstractSlave;
 import hudson.plugins.ec2.EC2Computer;
 import hudson.plugins.ec2.EC2Readiness;
+import hudson.plugins.ec2.EC2ReadinessTracker;
 import hudson.plugins.ec2.SlaveTemplate;
-import hudson.plugins.ec2.util.KeyHelper;
-import hudson.plugins.ec2.util.KeyPair;
 import hudson.slaves.CommandLauncher;
 import hudson.slaves.ComputerLauncher;
 import java.io.File;
@@ -40,9 +39,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.attribute.PosixFilePermission;
 import java.time.Duration;
 import java.util.List;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import jenkins.model.Jenkins;
 import org.apache.sshd.client.session.ClientSession;
 import org.apache.sshd.scp.client.CloseableScpClient;
 import org.apache.sshd.scp.common.helpers.ScpTimestampCommandDetails;
@@ -60,6 +59,10 @@ public class EC2UnixLauncher extends EC2SSHLauncher {
     private static final String READINESS_SLEEP_MS = "jenkins.ec2.readinessSleepMs";
     private static final String READINESS_TRIES = "jenkins.ec2.readinessTries";
 
+    /* Use a single SSH session for bootstrap, setup and remoting instead of connecting again for each step */
+    private static final boolean REUSE_SESSION =
+            Boolean.parseBoolean(System.getProperty("jenkins.ec2.reuseSshSession", "true"));
+
     private static int readinessSleepMs = 1000;
     private static int readinessTries = 120;
 
@@ -92,26 +95,12 @@ public class EC2UnixLauncher extends EC2SSHLauncher {
         }
 
         if (node instanceof EC2Readiness readinessNode) {
-            int tries = readinessTries;
-
-            while (tries-- > 0) {
-                if (readinessNode.isReady()) {
-                    break;
-                }
-
-                logInfo(
-                        computer,
-                        listener,
-                        "Node still not ready. Current status: " + readinessNode.getEc2ReadinessStatus());
-                Thread.sleep(readinessSleepMs);
-            }
-
-            if (!readinessNode.isReady()) {
-                throw SdkException.builder()
-                        .message("Node still not ready, timed out after " + (readinessTries * readinessSleepMs / 1000)
-                                + "s with status " + readinessNode.getEc2ReadinessStatus())
-                        .build();
-            }
+            EC2ReadinessTracker.of(node.getCloud())
+                    .awaitReady(
+                            readinessNode,
+                            (long) readinessTries * readinessSleepMs,
+                            readinessSleepMs,
+                            status -> logInfo(computer, listener, status));
         }
 
         logInfo(computer, listener, "Launching instance: " + node.getInstanceId());
@@ -120,34 +109,43 @@ public class EC2UnixLauncher extends EC2SSHLauncher {
         final String javaPath = node.javaPath;
         String tmpDir = (Util.fixEmptyAndTrim(node.tmpDir) != null ? node.tmpDir : "/tmp");
 
-        boolean isBootstrapped = bootstrap(computer, listener, template);
-        if (!isBootstrapped) {
+        // When reusing the session, the authenticated bootstrap session carries the whole launch
+        ClientSession clientSession = REUSE_SESSION ? bootstrapSession(computer, listener, template) : null;
+        if (REUSE_SESSION ? clientSession == null : !bootstrap(computer, listener, template)) {
             logWarning(computer, listener, "bootstrapresult failed");
             return; // bootstrap closed for us.
         }
-        int bootDelay = node.getBootDelay();
-        if (bootDelay > 0) {
-            logInfo(computer, listener, "SSH service responded. Waiting " + bootDelay + "ms for service to stabilize");
-            Thread.sleep(bootDelay);
-            logInfo(computer, listener, "SSH service should have stabilized");
-        }
-
-        // connect fresh as ROOT
-        logInfo(computer, listener, "connect fresh as root");
-        try (ClientSession clientSession = connectToSsh(computer, listener, template)) {
-            KeyPair key = computer.getCloud().getKeyPair();
+        boolean sessionHandedOver = false;
+        final String ami = template.getAmi();
+        final AmiCapabilities.Fingerprint fingerprint = AmiCapabilities.get(ami, javaPath, node.initScript, true);
+        RemoteEnvironment environment;
+        try {
+            int bootDelay = node.getBootDelay();
+            if (bootDelay > 0) {
+                logInfo(
+                        computer,
+                        listener,
+                        "SSH service responded. Waiting " + bootDelay + "ms for service to stabilize");
+                Thread.sleep(bootDelay);
+                logInfo(computer, listener, "SSH service should have stabilized");
+            }
 
-            final boolean isAuthenticated;
-            if (key == null) {
-                isAuthenticated = false;
-            } else {
-                clientSession.addPublicKeyIdentity(KeyHelper.decodeKeyPair(key.getMaterial(), ""));
-                clientSession.auth().await(timeout);
-                isAuthenticated = clientSession.isAuthenticated();
+            if (clientSession != null
+                    && (!clientSession.isOpen()
+                            || !Objects.equals(clientSession.getUsername(), computer.getRemoteAdmin()))) {
+                // sshd may have restarted during the boot delay, or the remote admin changed since the bootstrap
+                logInfo(computer, listener, "Bootstrap session can no longer be used, opening a new one");
+                clientSession.close();
+                clientSession = null;
             }
-            if (!isAuthenticated) {
-                logWarning(computer, listener, "Authentication failed");
-                return; // failed to connect as root.
+            if (clientSession == null) {
+                // connect fresh as ROOT
+                logInfo(computer, listener, "connect fresh as root");
+                clientSession = connectAndAuthenticate(computer, listener, template, timeout);
+                if (clientSession == null) {
+                    logWarning(computer, listener, "Authentication failed");
+                    return; // failed to connect as root.
+                }
             }
 
             try (CloseableScpClient scp = createScpClient(clientSession)) {
@@ -156,12 +154,17 @@ public class EC2UnixLauncher extends EC2SSHLauncher {
                         ScpTimestampCommandDetails.parse("T" + timestamp + " " + timestamp);
                 String initScript = node.initScript;
 
+                String remotingPath = tmpDir + "/remoting.jar";
+
+                if (fingerprint != null) {
+                    logInfo(computer, listener, "Agents of " + ami + " are known to have " + fingerprint);
+                }
                 logInfo(computer, listener, "Creating tmp directory (" + tmpDir + ") if it does not exist");
-                executeRemote(clientSession, "mkdir -p " + tmpDir, logger);
+                environment = RemoteEnvironment.probe(
+                        clientSession, javaPath, fingerprint == null, tmpDir, remotingPath, logger);
+                logInfo(computer, listener, "Agent environment: " + environment);
 
-                if (initScript != null
-                        && !initScript.isBlank()
-                        && !executeRemote(clientSession, "test -e ~/.hudson-run-init", logger)) {
+                if (initScript != null && !initScript.isBlank() && !environment.hasInitMarker()) {
                     logInfo(computer, listener, "Upload init script");
                     scp.upload(
                             initScript.getBytes(StandardCharsets.UTF_8),
@@ -192,84 +195,128 @@ public class EC2UnixLauncher extends EC2SSHLauncher {
                                 "Failed to execute init script on " + node.getInstanceId());
                         throw new IOException("Failed to execute init script on " + node.getInstanceId());
                     }
+                    if (fingerprint == null) {
+                        // The init script may have installed java or scp
+                        environment =
+                                RemoteEnvironment.probe(clientSession, javaPath, true, tmpDir, remotingPath, logger);
+                        logInfo(computer, listener, "Agent environment: " + environment);
+                    }
                 }
 
-                executeRemote(
-                        computer,
-                        clientSession,
-                        javaPath + " -fullversion",
-                        "sudo amazon-linux-extras install java-openjdk11 -y; sudo yum install -y fontconfig java-11-openjdk",
-                        logger,
-                        listener);
-                executeRemote(
-                        computer, clientSession, "which scp", "sudo yum install -y openssh-clients", logger, listener);
+                if (fingerprint == null && environment.getJavaVersion() == null) {
+                    install(
+                            computer,
+                            clientSession,
+                            "sudo amazon-linux-extras install java-openjdk11 -y; sudo yum install -y fontconfig java-11-openjdk",
+                            logger,
+                            listener);
+                }
+                if (fingerprint == null && !environment.hasScp()) {
+                    install(computer, clientSession, "sudo yum install -y openssh-clients", logger, listener);
+                }
 
-                // Always copy so we get the most recent remoting.jar
-                logInfo(computer, listener, "Copying remoting.jar to: " + tmpDir);
-                scp.upload(
-                        Jenkins.get().getJnlpJars("remoting.jar").readFully(),
-                        tmpDir + "/remoting.jar",
-                        List.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
-                        scpTimestamp);
+                uploadRemotingJar(
+                        computer, listener, scp, environment.getRemotingChecksum(), remotingPath, scpTimestamp);
             }
-        }
 
-        final String jvmopts = node.jvmopts;
-        final String prefix = computer.getSlaveCommandPrefix();
-        final String suffix = computer.getSlaveCommandSuffix();
-        final String remoteFS = node.getRemoteFS();
-        final String workDir = Util.fixEmptyAndTrim(remoteFS) != null ? remoteFS : tmpDir;
-        String launchString = prefix
-                + " "
-                + javaPath
-                + " "
-                + (jvmopts != null ? jvmopts : "")
-                + " -jar "
-                + tmpDir
-                + "/remoting.jar -workDir "
-                + workDir
-                + suffix;
-        // launchString = launchString.trim();
+            final String jvmopts = node.jvmopts;
+            final String prefix = computer.getSlaveCommandPrefix();
+            final String suffix = computer.getSlaveCommandSuffix();
+            final String remoteFS = node.getRemoteFS();
+            final String workDir = Util.fixEmptyAndTrim(remoteFS) != null ? remoteFS : tmpDir;
+            String launchString = prefix
+                    + " "
+                    + javaPath
+                    + " "
+                    + (jvmopts != null ? jvmopts : "")
+                    + " -jar "
+                    + tmpDir
+                    + "/remoting.jar -workDir "
+                    + workDir
+                    + suffix;
+            // launchString = launchString.trim();
 
-        if (template.isConnectBySSHProcess()) {
-            File identityKeyFile = createIdentityKeyFile(computer);
-            String ec2HostAddress = getEC2HostAddress(computer, template);
-            File hostKeyFile = createHostKeyFile(computer, ec2HostAddress, listener);
-            String userKnownHostsFileFlag = "";
-            if (hostKeyFile != null) {
-                userKnownHostsFileFlag = String.format(" -o \"UserKnownHostsFile=%s\"", hostKeyFile.getAbsolutePath());
+            try {
+                if (template.isConnectBySSHProcess()) {
+                    launchBySSHProcess(computer, listener, template, node, launchString);
+                } else if (REUSE_SESSION) {
+                    sessionHandedOver = true;
+                    launchRemotingAgent(computer, listener, clientSession, launchString, timeout, logger);
+                } else {
+                    clientSession.close();
+                    clientSession = null;
+                    launchRemotingAgent(computer, listener, launchString, template, timeout, logger);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Verify the agents of this AMI again on the next launch
+                AmiCapabilities.forget(ami);
+                throw e;
+            }
+            if (fingerprint == null && environment.getJavaVersion() != null && environment.hasScp()) {
+                // Nothing had to be installed, the AMI provides everything the agent needs
+                AmiCapabilities.record(ami, javaPath, node.initScript, environment.getJavaVersion(), true);
             }
+        } finally {
+            if (clientSession != null && !sessionHandedOver) {
+                clientSession.close();
+            }
+        }
+    }
 
-            try {
-                // Obviously the controller must have an installed ssh client.
-                // Depending on the strategy selected on the UI, we set the StrictHostKeyChecking flag
-                String sshClientLaunchString = String.format(
-                        "ssh -o StrictHostKeyChecking=%s%s%s -i %s %s@%s -p %d %s",
-                        template.getHostKeyVerificationStrategy().getSshCommandEquivalentFlag(),
-                        userKnownHostsFileFlag,
-                        getEC2HostKeyAlgorithmFlag(computer),
-                        identityKeyFile.getAbsolutePath(),
-                        node.remoteAdmin,
-                        ec2HostAddress,
-                        node.getSshPort(),
-                        launchString);
+    private void install(
+            EC2Computer computer,
+            ClientSession clientSession,
+            String command,
+            PrintStream logger,
+            TaskListener listener) {
+        logInfo(computer, listener, "Installing: " + command);
+        if (!executeRemote(clientSession, command, logger)) {
+            logWarning(computer, listener, "Failed to install: " + command);
+        }
+    }
 
-                logInfo(
-                        computer,
-                        listener,
-                        "Launching remoting agent (via SSH client process): " + sshClientLaunchString);
-                CommandLauncher commandLauncher = new CommandLauncher(sshClientLaunchString, null);
-                commandLauncher.launch(computer, listener);
-            } finally {
-                if (!identityKeyFile.delete()) {
-                    LOGGER.log(Level.WARNING, "Failed to delete identity key file");
-                }
-                if (hostKeyFile != null && !hostKeyFile.delete()) {
-                    LOGGER.log(Level.WARNING, "Failed to delete host key file");
-                }
+    private void launchBySSHProcess(
+            EC2Computer computer,
+            TaskListener listener,
+            SlaveTemplate template,
+            EC2AbstractSlave node,
+            String launchString)
+            throws IOException, InterruptedException {
+        File identityKeyFile = createIdentityKeyFile(computer);
+        String ec2HostAddress = getEC2HostAddress(computer, template);
+        File hostKeyFile = createHostKeyFile(computer, ec2HostAddress, listener);
+        String userKnownHostsFileFlag = "";
+        if (hostKeyFile != null) {
+            userKnownHostsFileFlag = String.format(" -o \"UserKnownHostsFile=%s\"", hostKeyFile.getAbsolutePath());
+        }
+
+        try {
+            // Obviously the controller must have an installed ssh client.
+            // Depending on the strategy selected on the UI, we set the StrictHostKeyChecking flag
+            String sshClientLaunchString = String.format(
+                    "ssh -o StrictHostKeyChecking=%s%s%s -i %s %s@%s -p %d %s",
+                    template.getHostKeyVerificationStrategy().getSshCommandEquivalentFlag(),
+                    userKnownHostsFileFlag,
+                    getEC2HostKeyAlgorithmFlag(computer),
+                    identityKeyFile.getAbsolutePath(),
+                    node.remoteAdmin,
+                    ec2HostAddress,
+                    node.getSshPort(),
+                    launchString);
+
+            logInfo(
+                    computer,
+                    listener,
+                    "Launching remoting agent (via SSH client process): " + sshClientLaunchString);
+            CommandLauncher commandLauncher = new CommandLauncher(sshClientLaunchString, null);
+            commandLauncher.launch(computer, listener);
+        } finally {
+            if (!identityKeyFile.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete identity key file");
+            }
+            if (hostKeyFile != null && !hostKeyFile.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete host key file");
             }
-        } else {
-            launchRemotingAgent(computer, listener, launchString, template, timeout, logger);
         }
     }
 }
@@ -6,9 +6,10 @@ import hudson.os.WindowsUtil;
 import hudson.plugins.ec2.EC2AbstractSlave;
 import hudson.plugins.ec2.EC2Computer;
 import hudson.plugins.ec2.EC2Readiness;
+import hudson.plugins.ec2.EC2ReadinessTracker;
 import hudson.plugins.ec2.SlaveTemplate;
-import hudson.plugins.ec2.util.KeyHelper;
 import hudson.plugins.ec2.util.KeyPair;
+import hudson.plugins.ec2.util.RemotingJar;
 import hudson.slaves.CommandLauncher;
 import java.io.File;
 import java.io.IOException;
@@ -19,7 +20,6 @@ import java.time.Duration;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import jenkins.model.Jenkins;
 import org.apache.sshd.client.session.ClientSession;
 import org.apache.sshd.scp.client.CloseableScpClient;
 import org.apache.sshd.scp.common.helpers.ScpTimestampCommandDetails;
@@ -64,26 +64,12 @@ public class EC2WindowsSSHLauncher extends EC2SSHLauncher {
         }
 
         if (node instanceof EC2Readiness readinessNode) {
-            int tries = readinessTries;
-
-            while (tries-- > 0) {
-                if (readinessNode.isReady()) {
-                    break;
-                }
-
-                logInfo(
-                        computer,
-                        listener,
-                        "Node still not ready. Current status: " + readinessNode.getEc2ReadinessStatus());
-                Thread.sleep(readinessSleepMs);
-            }
-
-            if (!readinessNode.isReady()) {
-                throw SdkException.builder()
-                        .message("Node still not ready, timed out after " + (readinessTries * readinessSleepMs / 1000)
-                                + "s with status " + readinessNode.getEc2ReadinessStatus())
-                        .build();
-            }
+            EC2ReadinessTracker.of(node.getCloud())
+                    .awaitReady(
+                            readinessNode,
+                            (long) readinessTries * readinessSleepMs,
+                            readinessSleepMs,
+                            status -> logInfo(computer, listener, status));
         }
 
         logInfo(computer, listener, "Launching instance: " + node.getInstanceId());
@@ -115,7 +101,7 @@ public class EC2WindowsSSHLauncher extends EC2SSHLauncher {
             if (key == null) {
                 isAuthenticated = false;
             } else {
-                clientSession.addPublicKeyIdentity(KeyHelper.decodeKeyPair(key.getMaterial(), ""));
+                clientSession.addPublicKeyIdentity(key.getDecodedKeyPair());
                 clientSession.auth().await(timeout);
                 isAuthenticated = clientSession.isAuthenticated();
             }
@@ -171,13 +157,14 @@ public class EC2WindowsSSHLauncher extends EC2SSHLauncher {
                     }
                 }
 
-                // Always copy so we get the most recent remoting.jar
-                logInfo(computer, listener, "Copying remoting.jar to: " + tmpDir);
                 String remotingPath = tmpDir + "remoting.jar";
-                scp.upload(
-                        Jenkins.get().getJnlpJars("remoting.jar").readFully(),
+                uploadRemotingJar(
+                        computer,
+                        listener,
+                        clientSession,
+                        scp,
+                        RemotingJar.windowsChecksumCommand(remotingPath),
                         remotingPath.replace('\\', '/'),
-                        List.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
                         scpTimestamp);
             }
         }
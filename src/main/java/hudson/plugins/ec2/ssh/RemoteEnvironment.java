@@ -0,0 +1,138 @@
+package hudson.plugins.ec2.ssh;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.plugins.ec2.util.RemotingJar;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.sshd.client.session.ClientSession;
+
+/**
+ * Environment of a Unix agent, reported by a single probe script.
+ *
+ * <p>
+ * The script creates the tmp directory and prints one {@code key=value} line per property, so that preparing the
+ * launch costs one exec channel instead of one per check. Only the corrective actions that the report shows to be
+ * needed, e.g. installing java, are run afterwards.
+ */
+final class RemoteEnvironment {
+    private static final Logger LOGGER = Logger.getLogger(RemoteEnvironment.class.getName());
+
+    static final String TMP_DIR_WRITABLE = "tmpdir.writable";
+    static final String TMP_DIR_FREE_KB = "tmpdir.free.kb";
+    static final String INIT_MARKER = "init.marker";
+    static final String JAVA_VERSION = "java.version";
+    static final String SCP = "scp";
+    static final String REMOTING_SHA256 = "remoting.sha256";
+
+    private final Map<String, String> properties;
+
+    private RemoteEnvironment(Map<String, String> properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Runs the probe script. If it fails, the returned environment reports every check as failed, as the separate
+     * commands would have.
+     *
+     * @param checkTools whether to look for java and scp, which is not needed when they are known to be installed
+     * @param logger receives the error output of the script
+     */
+    static RemoteEnvironment probe(
+            ClientSession session,
+            String javaPath,
+            boolean checkTools,
+            String tmpDir,
+            String remotingPath,
+            OutputStream logger) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            session.executeRemoteCommand(
+                    script(javaPath, checkTools, tmpDir, remotingPath), out, logger, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to probe the agent environment", e);
+        }
+        return parse(out.toString(StandardCharsets.UTF_8));
+    }
+
+    static String script(String javaPath, boolean checkTools, String tmpDir, String remotingPath) {
+        List<String> lines = new ArrayList<>();
+        lines.add("mkdir -p " + tmpDir + " && test -w " + tmpDir + " && echo " + TMP_DIR_WRITABLE + "=true");
+        lines.add("echo " + TMP_DIR_FREE_KB + "=$(df -Pk " + tmpDir + " 2>/dev/null | awk 'NR==2 {print $4}')");
+        lines.add("test -e ~/.hudson-run-init && echo " + INIT_MARKER + "=true");
+        if (checkTools) {
+            // java prints its version on stderr
+            lines.add("if v=$(" + javaPath + " -fullversion 2>&1); then echo \"" + JAVA_VERSION
+                    + "=$(echo \"$v\" | head -n 1)\"; fi");
+            lines.add("if p=$(command -v scp); then echo " + SCP + "=$p; fi");
+        }
+        lines.add("echo \"" + REMOTING_SHA256 + "=$( (" + RemotingJar.unixChecksumCommand(remotingPath)
+                + ") 2>/dev/null | head -n 1)\"");
+        lines.add("exit 0");
+        return String.join("\n", lines);
+    }
+
+    static RemoteEnvironment parse(String output) {
+        Map<String, String> properties = new HashMap<>();
+        for (String line : output.split("\r?\n")) {
+            int i = line.indexOf('=');
+            if (i > 0) {
+                properties.put(line.substring(0, i).trim(), line.substring(i + 1).trim());
+            }
+        }
+        return new RemoteEnvironment(properties);
+    }
+
+    boolean isTmpDirWritable() {
+        return Boolean.parseBoolean(properties.get(TMP_DIR_WRITABLE));
+    }
+
+    /**
+     * Free space in the tmp directory in KB, or {@code -1} if unknown.
+     */
+    long getTmpDirFreeKb() {
+        try {
+            return Long.parseLong(properties.getOrDefault(TMP_DIR_FREE_KB, ""));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    boolean hasInitMarker() {
+        return Boolean.parseBoolean(properties.get(INIT_MARKER));
+    }
+
+    /**
+     * The first line of {@code java -fullversion}, or {@code null} if java cannot be run.
+     */
+    @CheckForNull
+    String getJavaVersion() {
+        return properties.get(JAVA_VERSION);
+    }
+
+    boolean hasScp() {
+        return properties.containsKey(SCP);
+    }
+
+    /**
+     * Output of the checksum command for the remoting.jar on the agent, see {@link RemotingJar#matches(String)}.
+     */
+    @CheckForNull
+    String getRemotingChecksum() {
+        return properties.get(REMOTING_SHA256);
+    }
+
+    @Override
+    public String toString() {
+        long freeKb = getTmpDirFreeKb();
+        return "tmpDirWritable=" + isTmpDirWritable() + ", tmpDirFree=" + (freeKb < 0 ? "unknown" : freeKb + "KB")
+                + ", initMarker=" + hasInitMarker() + ", java=" + getJavaVersion() + ", scp=" + properties.get(SCP);
+    }
+}
@@ -43,6 +43,11 @@ import java.util.logging.Logger;
 public class CheckNewHardStrategy extends SshHostKeyVerificationStrategy {
     private static final Logger LOGGER = Logger.getLogger(CheckNewHardStrategy.class.getName());
 
+    @Override
+    public void beforeConnect(EC2Computer computer) throws IOException, InterruptedException {
+        awaitHostKeysFromConsole(computer);
+    }
+
     @Override
     public boolean verify(EC2Computer computer, HostKey hostKey, TaskListener listener) throws IOException {
         HostKey existingHostKey = HostKeyHelper.getInstance().getHostKey(computer);
@@ -0,0 +1,227 @@
+package hudson.plugins.ec2.ssh.verifiers;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.plugins.ec2.EC2Computer;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * Watches the console of an instance for the host keys printed out at boot.
+ *
+ * <p>
+ * The console is polled in the background with a growing interval, and only the lines added since the previous poll
+ * are parsed. Launchers wait for the keys to be printed before connecting, and verifiers only look up what was found
+ * so far, as they run on the SSH I/O threads during the key exchange. The watcher stops once the instance printed the
+ * end of its host keys, all the requested keys were found, or it has been watching for {@link #WATCH_TIMEOUT_MS}.
+ */
+final class ConsoleHostKeyWatcher {
+    private static final Logger LOGGER = Logger.getLogger(ConsoleHostKeyWatcher.class.getName());
+
+    static final long INITIAL_POLL_INTERVAL_MS =
+            Long.getLong(ConsoleHostKeyWatcher.class.getName() + ".initialPollIntervalMs", 2000);
+
+    static final long MAX_POLL_INTERVAL_MS =
+            Long.getLong(ConsoleHostKeyWatcher.class.getName() + ".maxPollIntervalMs", 15000);
+
+    static final long WATCH_TIMEOUT_MS =
+            Long.getLong(ConsoleHostKeyWatcher.class.getName() + ".watchTimeoutMs", TimeUnit.MINUTES.toMillis(10));
+
+    /* How long a connection attempt waits for the keys to be printed */
+    static final long VERIFY_WAIT_MS = Long.getLong(ConsoleHostKeyWatcher.class.getName() + ".verifyWaitMs", 10000);
+
+    /* Printed by cloud-init after the host keys */
+    private static final String END_OF_KEYS = "-----END SSH HOST KEY KEYS-----";
+
+    private static final Map<EC2Computer, ConsoleHostKeyWatcher> WATCHERS = new ConcurrentHashMap<>();
+
+    private final EC2Computer computer;
+    private final long deadline;
+
+    /* Keys by algorithm, completed with null if the watcher stopped before the key was printed */
+    private final Map<String, CompletableFuture<HostKey>> keys = new ConcurrentHashMap<>();
+
+    /* Keys found for algorithms nobody asked for yet */
+    private final Map<String, HostKey> found = new ConcurrentHashMap<>();
+
+    /* Completed once a first key was found or the watcher stopped */
+    private final CompletableFuture<Void> printed = new CompletableFuture<>();
+
+    private volatile boolean blank = true;
+
+    private volatile boolean stopped;
+
+    /* Guarded by this */
+    private String scanned = "";
+    private long interval = INITIAL_POLL_INTERVAL_MS;
+    private ScheduledFuture<?> nextPoll;
+
+    private ConsoleHostKeyWatcher(EC2Computer computer) {
+        this.computer = computer;
+        this.deadline = System.currentTimeMillis() + WATCH_TIMEOUT_MS;
+    }
+
+    static ConsoleHostKeyWatcher of(EC2Computer computer) {
+        return WATCHERS.computeIfAbsent(computer, c -> {
+            ConsoleHostKeyWatcher watcher = new ConsoleHostKeyWatcher(c);
+            watcher.schedule(0);
+            return watcher;
+        });
+    }
+
+    /**
+     * Waits up to {@link #VERIFY_WAIT_MS} for the host keys to be printed out, i.e. for a first key to be found.
+     */
+    void awaitKeys() throws InterruptedException {
+        if (printed.isDone()) {
+            return;
+        }
+        hurry();
+        try {
+            printed.get(VERIFY_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // Not printed in time, the verifier reports what was found so far
+        }
+    }
+
+    /**
+     * Looks up the key of an algorithm, without waiting for it to be printed out.
+     *
+     * @return the key, or {@code null} if it was not printed so far.
+     */
+    @CheckForNull
+    HostKey getKey(String algorithm) {
+        CompletableFuture<HostKey> key = keys.computeIfAbsent(algorithm, a -> {
+            CompletableFuture<HostKey> future = new CompletableFuture<>();
+            HostKey known = found.get(a);
+            if (known != null || stopped) {
+                future.complete(known);
+            }
+            return future;
+        });
+        if (!key.isDone()) {
+            hurry();
+        }
+        return key.getNow(null);
+    }
+
+    /**
+     * Whether no output has been seen on the console so far.
+     */
+    boolean isBlank() {
+        return blank;
+    }
+
+    /* Someone is waiting, check the console soon again */
+    private synchronized void hurry() {
+        interval = INITIAL_POLL_INTERVAL_MS;
+        if (!stopped && nextPoll != null && nextPoll.getDelay(TimeUnit.MILLISECONDS) > INITIAL_POLL_INTERVAL_MS) {
+            nextPoll.cancel(false);
+            schedule(INITIAL_POLL_INTERVAL_MS);
+        }
+    }
+
+    private synchronized void schedule(long delay) {
+        nextPoll = Timer.get().schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll() {
+        if (computer.getNode() == null || System.currentTimeMillis() > deadline) {
+            stop();
+            return;
+        }
+        boolean endOfKeys = false;
+        try {
+            String console = computer.getDecodedConsoleOutput();
+            if (console != null && !console.isEmpty()) {
+                blank = false;
+                endOfKeys = parse(console);
+            }
+        } catch (RuntimeException e) {
+            // The console is not available yet
+            LOGGER.log(Level.FINE, "Failed to get the console of " + computer.getName(), e);
+        }
+        boolean allFound = !keys.isEmpty() && keys.values().stream().allMatch(CompletableFuture::isDone);
+        if (endOfKeys || allFound) {
+            stop();
+            return;
+        }
+        synchronized (this) {
+            if (!stopped) {
+                schedule(interval);
+                interval = Math.min(interval * 2, MAX_POLL_INTERVAL_MS);
+            }
+        }
+    }
+
+    /**
+     * Parses the complete lines added to the console since the previous poll.
+     *
+     * @return whether the end of the host keys was reached
+     */
+    synchronized boolean parse(String console) {
+        int from = scanned.length();
+        if (!console.startsWith(scanned)) {
+            // The console only returns the latest output, which moved on
+            from = 0;
+        }
+        int end = console.lastIndexOf('\n');
+        boolean endOfKeys = false;
+        if (end >= from) {
+            for (String line : console.substring(from, end).split("\n")) {
+                endOfKeys |= line.contains(END_OF_KEYS);
+                parseLine(line);
+            }
+            scanned = console.substring(0, end + 1);
+        }
+        return endOfKeys;
+    }
+
+    private void parseLine(String line) {
+        String[] parts = line.trim().split("\\s+");
+        for (int i = 0; i + 1 < parts.length; i++) {
+            String algorithm = parts[i];
+            if (!algorithm.startsWith("ssh-") && !algorithm.startsWith("ecdsa-")) {
+                continue;
+            }
+            HostKey key;
+            try {
+                // The public SSH key in the console is Base64 encoded
+                key = new HostKey(algorithm, Base64.getDecoder().decode(parts[i + 1]));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            // The first key printed for an algorithm wins
+            if (found.putIfAbsent(algorithm, key) == null) {
+                LOGGER.fine(() -> "Found " + algorithm + " host key on the console of " + computer.getName());
+                keys.computeIfPresent(algorithm, (a, future) -> {
+                    future.complete(key);
+                    return future;
+                });
+                printed.complete(null);
+            }
+        }
+    }
+
+    private void stop() {
+        synchronized (this) {
+            stopped = true;
+            if (nextPoll != null) {
+                nextPoll.cancel(false);
+            }
+        }
+        WATCHERS.remove(computer, this);
+        for (CompletableFuture<HostKey> future : keys.values()) {
+            future.complete(null);
+        }
+        printed.complete(null);
+    }
+}
@@ -28,7 +28,9 @@ package hudson.plugins.ec2.ssh.verifiers;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
 import hudson.XmlFile;
+import hudson.init.Terminator;
 import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.plugins.ec2.util.KeyHelper;
@@ -36,8 +38,17 @@ import java.io.File;
 import java.io.IOException;
 import java.security.PublicKey;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.util.OpenSSHPublicKeyUtil;
 import org.bouncycastle.crypto.util.PublicKeyFactory;
@@ -47,14 +58,29 @@ import org.bouncycastle.crypto.util.PublicKeyFactory;
  * don't have a reference to the Node or Computer that they're running for at the point
  * they're created, so can only load the existing key to run comparisons against at the
  * point the verifier is invoked during the connection attempt.
+ * <p>
+ * Keys are kept in memory once loaded, and saved keys are written to disk in the
+ * background, so verifying a key during a connection attempt does no file I/O.
  * @author Michael Clarke, M Ramon Leon
  * @since TODO
  */
 public final class HostKeyHelper {
 
+    private static final Logger LOGGER = Logger.getLogger(HostKeyHelper.class.getName());
+
     private static final HostKeyHelper INSTANCE = new HostKeyHelper();
 
-    private final Map<Computer, HostKey> cache = new WeakHashMap<>();
+    /* Trusted keys by host key file, empty when the host has no trusted key */
+    private final Map<File, Optional<HostKey>> cache = new ConcurrentHashMap<>();
+
+    /* Keys not written yet by host key file, only the latest key of a host is written */
+    private final Map<File, HostKey> pendingWrites = new ConcurrentHashMap<>();
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "EC2 host key writer");
+        t.setDaemon(true);
+        return t;
+    });
 
     private HostKeyHelper() {
         super();
@@ -90,32 +116,66 @@ public final class HostKeyHelper {
      * @throws IOException if the host key can not be read from storage
      */
     public HostKey getHostKey(Computer host) throws IOException {
-        HostKey key = cache.get(host);
+        File hostKeyFile = getSshHostKeyFile(host.getNode());
+        Optional<HostKey> key = cache.get(hostKeyFile);
         if (null == key) {
-            File hostKeyFile = getSshHostKeyFile(host.getNode());
+            checkNodesDirectory();
             if (hostKeyFile.exists()) {
                 XmlFile xmlHostKeyFile = new XmlFile(hostKeyFile);
-                key = (HostKey) xmlHostKeyFile.read();
+                key = Optional.of((HostKey) xmlHostKeyFile.read());
             } else {
-                key = null;
+                key = Optional.empty();
+            }
+            // A key saved meanwhile is more recent than the one read
+            Optional<HostKey> saved = cache.putIfAbsent(hostKeyFile, key);
+            if (saved != null) {
+                key = saved;
             }
-            cache.put(host, key);
         }
-        return key;
+        return key.orElse(null);
     }
 
     /**
      * Persists an SSH key to disk for the requested host. This effectively marks
      * the requested key as trusted for all future connections to the host, until
-     * any future save attempt replaces this key.
+     * any future save attempt replaces this key. The key is trusted immediately
+     * and written to disk in the background.
      * @param host the host the key is being saved for
      * @param hostKey the key to be saved as the trusted key for this host
      * @throws IOException on failure saving the key for the host
      */
     public void saveHostKey(Computer host, HostKey hostKey) throws IOException {
-        XmlFile xmlHostKeyFile = new XmlFile(getSshHostKeyFile(host.getNode()));
-        xmlHostKeyFile.write(hostKey);
-        cache.put(host, hostKey);
+        File hostKeyFile = getSshHostKeyFile(host.getNode());
+        cache.put(hostKeyFile, Optional.of(hostKey));
+        if (pendingWrites.put(hostKeyFile, hostKey) == null) {
+            writer.execute(() -> write(hostKeyFile));
+        }
+    }
+
+    private void write(File hostKeyFile) {
+        HostKey hostKey = pendingWrites.remove(hostKeyFile);
+        if (hostKey == null) {
+            return; // already written
+        }
+        try {
+            checkNodesDirectory();
+            new XmlFile(hostKeyFile).write(hostKey);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save host key to " + hostKeyFile, e);
+        }
+    }
+
+    /**
+     * Waits for the keys still waiting to be saved to be written.
+     */
+    @Terminator
+    public static void flush() throws InterruptedException {
+        try {
+            // Keys are written in order, so all of them are once this task runs
+            INSTANCE.writer.submit(() -> {}).get(1, TimeUnit.MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.log(Level.WARNING, "Failed to wait for host keys to be saved", e);
+        }
     }
 
     private File getSshHostKeyFile(Node node) throws IOException {
@@ -129,12 +189,32 @@ public final class HostKeyHelper {
         return new File(getNodesDirectory(), node.getNodeName());
     }
 
-    private File getNodesDirectory() throws IOException {
+    private File getNodesDirectory() {
         // Apparent clone of jenkins.model.Nodes#getNodesDirectory(), which no longer even exists.
-        File nodesDir = new File(Jenkins.get().getRootDir(), "nodes");
+        return new File(Jenkins.get().getRootDir(), "nodes");
+    }
+
+    private void checkNodesDirectory() throws IOException {
+        File nodesDir = getNodesDirectory();
         if (!nodesDir.exists() || !nodesDir.isDirectory()) {
             throw new IOException("Nodes directory does not exist");
         }
-        return nodesDir;
+    }
+
+    /**
+     * Forgets the key of deleted nodes, and does not write it if it is still pending.
+     */
+    @Extension
+    public static final class NodeListenerImpl extends NodeListener {
+        @Override
+        protected void onDeleted(@NonNull Node node) {
+            try {
+                File hostKeyFile = INSTANCE.getSshHostKeyFile(node);
+                INSTANCE.pendingWrites.remove(hostKeyFile);
+                INSTANCE.cache.remove(hostKeyFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to forget the host key of " + node.getNodeName(), e);
+            }
+        }
     }
 }
@@ -26,7 +26,6 @@
  */
 package hudson.plugins.ec2.ssh.verifiers;
 
-import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.model.Describable;
@@ -35,8 +34,8 @@ import hudson.model.TaskListener;
 import hudson.plugins.ec2.EC2Cloud;
 import hudson.plugins.ec2.EC2Computer;
 import hudson.plugins.ec2.InstanceState;
+import java.io.IOException;
 import java.security.PublicKey;
-import java.util.Base64;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
@@ -79,6 +78,23 @@ public abstract class SshHostKeyVerificationStrategy implements Describable<SshH
         return verify(computer, HostKeyHelper.getInstance().getHostKey(serverKey), listener);
     }
 
+    /**
+     * Prepare what {@link #verify} needs before each connection attempt. Verifiers run on the SSH I/O threads during
+     * the key exchange and must not block, so any wait belongs here.
+     * @param computer the computer this connection is being initiated for
+     * @since TODO
+     */
+    public void beforeConnect(EC2Computer computer) throws IOException, InterruptedException {}
+
+    /**
+     * Wait for the host keys to be printed out on the console, unless a key of the computer is already known.
+     */
+    void awaitHostKeysFromConsole(@NonNull final EC2Computer computer) throws IOException, InterruptedException {
+        if (HostKeyHelper.getInstance().getHostKey(computer) == null) {
+            ConsoleHostKeyWatcher.of(computer).awaitKeys();
+        }
+    }
+
     public abstract static class SshHostKeyVerificationStrategyDescriptor
             extends Descriptor<SshHostKeyVerificationStrategy> {}
 
@@ -110,81 +126,29 @@ public abstract class SshHostKeyVerificationStrategy implements Describable<SshH
             return null;
         }
 
-        String line = getLineWithKey(logger, computer, serverHostKeyAlgorithm);
-        if (line != null && !line.isEmpty()) {
-            key = getKeyFromLine(logger, line, listener);
-        } else if (line != null) {
-            key = new HostKey(serverHostKeyAlgorithm, new byte[] {});
-        } else {
-            key = null;
-        }
-
-        return key;
-    }
-
-    /**
-     * Get the line with the key for such an algorithm
-     * @param logger the logger to print the messages
-     * @param computer the computer
-     * @param serverHostKeyAlgorithm the algorithm to search for
-     * @return the line where the key for the algorithm is on, null if the console is blank, "" if the console is not
-     * blank and the line is not found.
-     */
-    @CheckForNull
-    String getLineWithKey(
-            @NonNull final Logger logger,
-            @NonNull final EC2Computer computer,
-            @NonNull final String serverHostKeyAlgorithm) {
-        String line = null;
-        String console = computer.getDecodedConsoleOutput();
-        if (console == null) {
+        // Called during the key exchange, the keys were awaited before connecting
+        ConsoleHostKeyWatcher watcher = ConsoleHostKeyWatcher.of(computer);
+        key = watcher.getKey(serverHostKeyAlgorithm);
+        if (key == null && watcher.isBlank()) {
             // The instance is running and the console is blank
             EC2Cloud.log(
                     logger,
                     Level.INFO,
-                    computer.getListener(),
+                    listener,
                     "The instance " + computer.getName()
                             + " has a blank console. Maybe the console is yet not available. If enough time has passed, consider changing the key verification strategy or the AMI used by one printing out the host key in the instance console");
-            return null;
-        }
-
-        try {
-            int start = console.indexOf(serverHostKeyAlgorithm);
-            if (start > -1) {
-                int end = console.indexOf('\n', start);
-                line = console.substring(start, end);
-            } else {
-                // The instance printed on the console but the key was not printed with the expected format
-                EC2Cloud.log(
-                        logger,
-                        Level.INFO,
-                        computer.getListener(),
-                        String.format(
-                                "The instance %s didn't print the host key. Expected a line starting with: \"%s\"",
-                                computer.getName(), serverHostKeyAlgorithm));
-                return "";
-            }
-        } catch (IllegalArgumentException ignored) {
-        }
-        return line;
-    }
-
-    @CheckForNull
-    HostKey getKeyFromLine(
-            @NonNull final Logger logger, @NonNull final String line, @Nullable final TaskListener listener) {
-        String[] parts = line.split(" ");
-        if (parts.length >= 2) {
-            // The public SSH key in the console is Base64 encoded
-            return new HostKey(parts[0], Base64.getDecoder().decode(parts[1]));
-        } else {
+        } else if (key == null) {
+            // The instance printed on the console but the key was not printed with the expected format
             EC2Cloud.log(
                     logger,
                     Level.INFO,
                     listener,
                     String.format(
-                            "The line with the key doesn't have the required format. Found: \"%s\". Expected a line with this text: \"ALGORITHM THEHOSTKEY\", example: \"ssh-ed25519 AAAAC3NzaC1lZDI1NTE5AAAAIJbvbEIoY3tqKwkeRW/L1FnbCLLp8a1TwSOyZHKJqFFR \"",
-                            line));
-            return null;
+                            "The instance %s didn't print the host key. Expected a line starting with: \"%s\"",
+                            computer.getName(), serverHostKeyAlgorithm));
+            key = new HostKey(serverHostKeyAlgorithm, new byte[] {});
         }
+
+        return key;
     }
 }
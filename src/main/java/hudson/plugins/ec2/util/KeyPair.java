@@ -1,5 +1,6 @@
 package hudson.plugins.ec2.util;
 
+import java.io.IOException;
 import java.util.Objects;
 import software.amazon.awssdk.services.ec2.model.KeyPairInfo;
 
@@ -7,6 +8,9 @@ public class KeyPair {
     private final KeyPairInfo keyPairInfo;
     private final String material;
 
+    /* Parsed from the material on first use */
+    private volatile java.security.KeyPair decoded;
+
     public KeyPair(KeyPairInfo keyPairInfo, String material) {
         this.keyPairInfo = Objects.requireNonNull(keyPairInfo);
         this.material = Objects.requireNonNull(material);
@@ -19,4 +23,22 @@ public class KeyPair {
     public String getMaterial() {
         return material;
     }
+
+    /**
+     * Gets the key pair decoded from the material.
+     *
+     * <p>
+     * The material is only parsed once, then all the SSH connections authenticating with this key share the decoded
+     * key pair. The cloud builds a new instance when its credentials change.
+     *
+     * @throws IOException if the material can't be parsed.
+     */
+    public java.security.KeyPair getDecodedKeyPair() throws IOException {
+        java.security.KeyPair result = decoded;
+        if (result == null) {
+            result = KeyHelper.decodeKeyPair(material, "");
+            decoded = result;
+        }
+        return result;
+    }
 }
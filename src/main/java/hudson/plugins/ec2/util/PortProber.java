@@ -0,0 +1,272 @@
+package hudson.plugins.ec2.util;
+
+import hudson.init.Terminator;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Waits for TCP ports of launching agents to accept connections.
+ *
+ * <p>
+ * A single daemon thread runs non-blocking connects for every pending probe on one {@link Selector}, retrying refused
+ * or unanswered attempts every {@link #retryIntervalMs}. The returned future completes as soon as the port accepts a
+ * connection, so the launchers only start their SSH, WinRM or SMB handshake once the service is listening, instead of
+ * running full handshakes and sleeping between them.
+ */
+@Restricted(NoExternalUse.class)
+public final class PortProber {
+
+    private static final Logger LOGGER = Logger.getLogger(PortProber.class.getName());
+
+    /**
+     * Delay in milliseconds between two connect attempts to a port that is not accepting connections yet.
+     */
+    private static final long retryIntervalMs =
+            SystemProperties.getLong(PortProber.class.getName() + "." + "retryIntervalMs", 1000L);
+
+    /**
+     * Maximum time in milliseconds a single connect attempt stays pending, e.g. when a security group drops packets.
+     */
+    private static final long connectTimeoutMs =
+            SystemProperties.getLong(PortProber.class.getName() + "." + "connectTimeoutMs", 5000L);
+
+    private static final class ProberHolder {
+        static final PortProber INSTANCE = new PortProber();
+    }
+
+    private final Queue<Probe> submitted = new ConcurrentLinkedQueue<>();
+
+    /* Probes waiting for their next attempt, only accessed by the selector thread */
+    private final List<Probe> waiting = new ArrayList<>();
+
+    private final Selector selector;
+
+    private PortProber() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open selector", e);
+        }
+        Thread t = new Thread(this::run, "EC2 port prober");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Probes a port until it accepts a connection.
+     *
+     * @return a future completed with {@code true} when the port accepts a connection, or with {@code false} when it
+     *     did not within {@code timeoutMs} or the host cannot be resolved.
+     */
+    public static CompletableFuture<Boolean> probe(String host, int port, long timeoutMs) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            LOGGER.fine(() -> "Unable to resolve " + host);
+            future.complete(false);
+            return future;
+        }
+        PortProber prober = ProberHolder.INSTANCE;
+        prober.submitted.add(new Probe(address, System.currentTimeMillis() + timeoutMs, future));
+        prober.selector.wakeup();
+        return future;
+    }
+
+    /**
+     * Waits until all the given ports of a host accept connections. The ports are probed concurrently.
+     *
+     * @return {@code true} if all ports accepted a connection within {@code timeoutMs}.
+     */
+    public static boolean awaitOpen(String host, long timeoutMs, int... ports) throws InterruptedException {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(ports.length);
+        for (int port : ports) {
+            futures.add(probe(host, port, timeoutMs));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .get(timeoutMs + connectTimeoutMs, TimeUnit.MILLISECONDS);
+            for (CompletableFuture<Boolean> future : futures) {
+                if (!future.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.log(Level.FINE, "Failed to probe " + host, e);
+            return false;
+        } finally {
+            // Stop probing if we were interrupted or one port did not answer in time
+            for (CompletableFuture<Boolean> future : futures) {
+                future.complete(false);
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                long now = System.currentTimeMillis();
+                Probe p;
+                while ((p = submitted.poll()) != null) {
+                    connect(p, now);
+                }
+                retryWaiting(now);
+                expirePending(now);
+                selector.select(Math.max(1, nextWakeUp(now) - now));
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    finishConnect(key);
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unexpected error while probing ports", e);
+            }
+        }
+    }
+
+    private void connect(Probe p, long now) {
+        if (p.future.isDone()) {
+            return;
+        }
+        if (now > p.deadline) {
+            p.future.complete(false);
+            return;
+        }
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(p.address)) {
+                channel.close();
+                p.future.complete(true);
+                return;
+            }
+            p.attemptStarted = now;
+            channel.register(selector, SelectionKey.OP_CONNECT, p);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            retryLater(p, now);
+        }
+    }
+
+    private void finishConnect(SelectionKey key) {
+        Probe p = (Probe) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        key.cancel();
+        try {
+            if (channel.finishConnect()) {
+                LOGGER.fine(() -> p.address + " accepts connections");
+                p.future.complete(true);
+            } else {
+                retryLater(p, System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            // Connection refused or host unreachable, the service is not up yet
+            retryLater(p, System.currentTimeMillis());
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private void expirePending(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            Probe p = (Probe) key.attachment();
+            if (p.future.isDone() || now - p.attemptStarted > connectTimeoutMs) {
+                key.cancel();
+                closeQuietly((SocketChannel) key.channel());
+                retryLater(p, now);
+            }
+        }
+    }
+
+    private void retryLater(Probe p, long now) {
+        if (p.future.isDone()) {
+            return;
+        }
+        if (now > p.deadline) {
+            p.future.complete(false);
+            return;
+        }
+        p.nextAttempt = Math.min(now + retryIntervalMs, p.deadline + 1);
+        waiting.add(p);
+    }
+
+    private void retryWaiting(long now) {
+        Iterator<Probe> it = waiting.iterator();
+        List<Probe> due = new ArrayList<>();
+        while (it.hasNext()) {
+            Probe p = it.next();
+            if (p.future.isDone() || p.nextAttempt <= now) {
+                it.remove();
+                due.add(p);
+            }
+        }
+        for (Probe p : due) {
+            connect(p, now);
+        }
+    }
+
+    private long nextWakeUp(long now) {
+        long next = now + retryIntervalMs;
+        for (Probe p : waiting) {
+            next = Math.min(next, p.nextAttempt);
+        }
+        if (!selector.keys().isEmpty()) {
+            next = Math.min(next, now + connectTimeoutMs);
+        }
+        return next;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close probe channel", e);
+            }
+        }
+    }
+
+    @Terminator
+    public static void stop() throws IOException {
+        ProberHolder.INSTANCE.selector.close();
+    }
+
+    private static final class Probe {
+        final InetSocketAddress address;
+        final long deadline;
+        final CompletableFuture<Boolean> future;
+        long attemptStarted;
+        long nextAttempt;
+
+        Probe(InetSocketAddress address, long deadline, CompletableFuture<Boolean> future) {
+            this.address = address;
+            this.deadline = deadline;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package hudson.plugins.ec2.util;
+
+import hudson.Util;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Objects;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The {@code remoting.jar} copied to the agents, read and hashed once per controller version.
+ *
+ * <p>
+ * Launchers compare the SHA-256 of the copy already on the agent, obtained with a single remote command, and skip
+ * the upload when it matches, e.g. when a stopped instance is started again.
+ */
+@Restricted(NoExternalUse.class)
+public final class RemotingJar {
+
+    public static final String NAME = "remoting.jar";
+
+    private static volatile RemotingJar cached;
+
+    private final String version;
+    private final byte[] content;
+    private final String sha256;
+
+    private RemotingJar(String version, byte[] content) {
+        this.version = version;
+        this.content = content;
+        try {
+            this.sha256 = Util.toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static RemotingJar get() throws IOException {
+        RemotingJar jar = cached;
+        // remoting.jar only changes with the version of Jenkins
+        if (jar == null || !Objects.equals(jar.version, Jenkins.VERSION)) {
+            synchronized (RemotingJar.class) {
+                jar = cached;
+                if (jar == null || !Objects.equals(jar.version, Jenkins.VERSION)) {
+                    jar = new RemotingJar(Jenkins.VERSION, Jenkins.get().getJnlpJars(NAME).readFully());
+                    cached = jar;
+                }
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * The content of the jar. Shared between all launches, so it must not be modified.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * Whether the output of {@link #unixChecksumCommand(String)} or {@link #windowsChecksumCommand(String)} reports
+     * the SHA-256 of this jar.
+     */
+    public boolean matches(String checksumOutput) {
+        if (checksumOutput == null) {
+            return false;
+        }
+        // certutil on older Windows versions separates the bytes with spaces
+        return checksumOutput.replace(" ", "").toLowerCase(Locale.ROOT).contains(sha256);
+    }
+
+    /**
+     * Command printing the SHA-256 of a file on Linux ({@code sha256sum}) and macOS ({@code shasum}).
+     */
+    public static String unixChecksumCommand(String path) {
+        return "sha256sum " + path + " 2>/dev/null || shasum -a 256 " + path;
+    }
+
+    /**
+     * Command printing the SHA-256 of a file on Windows.
+     */
+    public static String windowsChecksumCommand(String path) {
+        return "certutil -hashfile " + path + " SHA256";
+    }
+}
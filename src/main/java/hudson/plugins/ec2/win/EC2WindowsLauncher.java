@@ -9,13 +9,15 @@ import hudson.plugins.ec2.EC2AbstractSlave;
 import hudson.plugins.ec2.EC2Computer;
 import hudson.plugins.ec2.EC2ComputerLauncher;
 import hudson.plugins.ec2.EC2HostAddressProvider;
-import hudson.plugins.ec2.EC2PrivateKey;
 import hudson.plugins.ec2.SlaveTemplate;
+import hudson.plugins.ec2.util.PortProber;
+import hudson.plugins.ec2.util.RemotingJar;
 import hudson.plugins.ec2.win.winrm.WindowsProcess;
 import hudson.remoting.Channel;
 import hudson.remoting.Channel.Listener;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.OfflineCause;
+import hudson.util.Secret;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -23,19 +25,20 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 import javax.net.ssl.SSLException;
-import jenkins.model.Jenkins;
 import org.apache.commons.io.IOUtils;
 import software.amazon.awssdk.core.exception.SdkException;
-import software.amazon.awssdk.services.ec2.model.GetPasswordDataRequest;
-import software.amazon.awssdk.services.ec2.model.GetPasswordDataResponse;
 import software.amazon.awssdk.services.ec2.model.Instance;
 
 public class EC2WindowsLauncher extends EC2ComputerLauncher {
-    private static final String AGENT_JAR = "remoting.jar";
+    private static final Logger LOGGER = Logger.getLogger(EC2WindowsLauncher.class.getName());
 
-    final long sleepBetweenAttempts = TimeUnit.SECONDS.toMillis(10);
+    private static final String AGENT_JAR = "remoting.jar";
 
     @Override
     protected void launchScript(EC2Computer computer, TaskListener listener)
@@ -98,12 +101,16 @@ public class EC2WindowsLauncher extends EC2ComputerLauncher {
                 logger.println("init script ran successfully");
             }
 
-            try (OutputStream agentJar = connection.putFile(tmpDir + AGENT_JAR)) {
-                agentJar.write(Jenkins.get().getJnlpJars(AGENT_JAR).readFully());
+            RemotingJar jar = RemotingJar.get();
+            if (jar.matches(remoteChecksum(connection, tmpDir + AGENT_JAR))) {
+                logger.println("remoting.jar is up to date remotely. Bootstrapping it");
+            } else {
+                try (OutputStream agentJar = connection.putFile(tmpDir + AGENT_JAR)) {
+                    agentJar.write(jar.getContent());
+                }
+                logger.println("remoting.jar sent remotely. Bootstrapping it");
             }
 
-            logger.println("remoting.jar sent remotely. Bootstrapping it");
-
             final String javaPath = node.javaPath;
             final String jvmopts = node.jvmopts;
             final String remoteFS = WindowsUtil.quoteArgument(node.getRemoteFS());
@@ -142,6 +149,20 @@ public class EC2WindowsLauncher extends EC2ComputerLauncher {
         }
     }
 
+    /**
+     * Output of the checksum command for a file on the agent, or {@code null} if it failed, e.g. there is no such file.
+     */
+    private static String remoteChecksum(WinConnection connection, String path) {
+        WindowsProcess process = connection.execute(RemotingJar.windowsChecksumCommand(path));
+        try {
+            String output = IOUtils.toString(process.getStdout(), StandardCharsets.UTF_8);
+            return process.waitFor() == 0 ? output : null;
+        } catch (IOException | RuntimeException e) {
+            process.destroy();
+            return null;
+        }
+    }
+
     @NonNull
     private WinConnection connectToWinRM(
             EC2Computer computer, EC2AbstractSlave node, SlaveTemplate template, PrintStream logger)
@@ -156,7 +177,12 @@ public class EC2WindowsLauncher extends EC2ComputerLauncher {
         logger.println(node.getDisplayName() + " booted at " + node.getCreatedTime());
         boolean alreadyBooted =
                 node.getCreatedTime().until(startTime, ChronoUnit.MILLIS) > TimeUnit.MINUTES.toMillis(3);
+        WindowsReadiness readiness = new WindowsReadiness();
         WinConnection connection = null;
+        String host = null;
+        String instanceId = null;
+        boolean portsOpen = false;
+        CompletableFuture<Secret> pendingPassword = null;
         while (true) {
             boolean allowSelfSignedCertificate = node.isAllowSelfSignedCertificate();
 
@@ -165,54 +191,72 @@ public class EC2WindowsLauncher extends EC2ComputerLauncher {
                 if (waitTime > timeout) {
                     throw SdkException.builder()
                             .message("Timed out after " + (waitTime / 1000)
-                                    + " seconds of waiting for winrm to be connected")
+                                    + " seconds of waiting for winrm to be connected (" + readiness + ")")
                             .build();
                 }
 
-                if (connection == null) {
+                if (host == null) {
+                    readiness.enter(WindowsReadiness.Stage.ADDRESS);
                     Instance instance = computer.updateInstanceDescription();
-                    String host = EC2HostAddressProvider.windows(instance, template.connectionStrategy);
+                    String address = EC2HostAddressProvider.windows(instance, template.connectionStrategy);
 
                     // Check when host is null or we will keep trying and receiving a hostname cannot be null forever.
-                    if (host == null || "0.0.0.0".equals(host)) {
-                        logger.println(
+                    if (address == null || "0.0.0.0".equals(address)) {
+                        readiness.pause(
+                                logger,
                                 "Invalid host (null or 0.0.0.0). Your host is most likely waiting for an IP address.");
-                        throw new IOException("goto sleep");
+                        continue;
+                    }
+                    host = address;
+                    instanceId = instance.instanceId();
+                }
+
+                // Probing the ports is cheap, only try the WinRM and SMB handshakes once both services are listening
+                if (!portsOpen) {
+                    readiness.enter(WindowsReadiness.Stage.PORTS);
+                    long probeTimeout = timeout - waitTime;
+                    if (!PortProber.awaitOpen(host, probeTimeout, node.isUseHTTPS() ? 5986 : 5985, 445)) {
+                        // Also reached at once when the host cannot be resolved yet
+                        readiness.pause(logger, "Waiting for WinRM to come up.");
+                        continue;
                     }
+                    portsOpen = true;
+                }
 
+                if (connection == null) {
                     if (!node.isSpecifyPassword()) {
-                        GetPasswordDataResponse result;
-                        try {
-                            result = node.getCloud()
-                                    .connect()
-                                    .getPasswordData(GetPasswordDataRequest.builder()
-                                            .instanceId(instance.instanceId())
-                                            .build());
-                        } catch (Exception e) {
-                            logger.println("Unexpected Exception: " + e);
-                            Thread.sleep(sleepBetweenAttempts);
-                            continue;
+                        readiness.enter(WindowsReadiness.Stage.PASSWORD);
+                        Secret password = node.getWindowsPassword();
+                        if (password == null) {
+                            if (node.getCloud().resolvePrivateKey() == null) {
+                                readiness.pause(
+                                        logger,
+                                        "Waiting for privateKey to be available. Consider checking the credentials in the cloud configuration.");
+                                continue;
+                            }
+                            if (pendingPassword == null) {
+                                pendingPassword = WindowsPasswordWatcher.of(node.getCloud()).watch(instanceId);
+                            }
+                            if (!readiness.pauseUntil(
+                                    pendingPassword, logger, "Waiting for password to be available.")) {
+                                continue;
+                            }
+                            try {
+                                password = pendingPassword.get();
+                            } catch (ExecutionException | CancellationException e) {
+                                pendingPassword = null;
+                                readiness.pause(logger, "Unexpected Exception: " + e.getCause());
+                                continue;
+                            }
+                            node.setWindowsPassword(password);
                         }
-                        String passwordData = result.passwordData();
-                        if (passwordData == null || passwordData.isEmpty()) {
-                            logger.println("Waiting for password to be available. Sleeping 10s.");
-                            Thread.sleep(sleepBetweenAttempts);
-                            continue;
-                        }
-                        EC2PrivateKey ec2PrivateKey = node.getCloud().resolvePrivateKey();
-                        if (ec2PrivateKey == null) {
-                            logger.println(
-                                    "Waiting for privateKey to be available. Consider checking the credentials in the cloud configuration. Sleeping 10s.");
-                            Thread.sleep(sleepBetweenAttempts);
-                            continue;
-                        }
-                        String password = ec2PrivateKey.decryptWindowsPassword(passwordData);
                         if (!node.getRemoteAdmin().equals("Administrator")) {
                             logger.println(
                                     "WARNING: For password retrieval remote admin must be Administrator, ignoring user provided value");
                         }
                         logger.println("Connecting to " + "(" + host + ") with WinRM as Administrator");
-                        connection = new WinConnection(host, "Administrator", password, allowSelfSignedCertificate);
+                        connection = new WinConnection(
+                                host, "Administrator", password.getPlainText(), allowSelfSignedCertificate);
                     } else { // password Specified
                         logger.println("Connecting to " + "(" + host + ") with WinRM as " + node.getRemoteAdmin());
                         connection = new WinConnection(
@@ -224,29 +268,43 @@ public class EC2WindowsLauncher extends EC2ComputerLauncher {
                     connection.setUseHTTPS(node.isUseHTTPS());
                 }
 
+                readiness.enter(WindowsReadiness.Stage.AUTHENTICATION);
                 if (!connection.pingFailingIfSSHHandShakeError()) {
-                    logger.println("Waiting for WinRM to come up. Sleeping 10s.");
-                    Thread.sleep(sleepBetweenAttempts);
+                    if (connection.isAuthenticationFailed() && !node.isSpecifyPassword()) {
+                        // The stored password may be outdated, retrieve it again from the password data
+                        logger.println("The administrator password was rejected, retrieving it again");
+                        node.setWindowsPassword(null);
+                        connection.close();
+                        connection = null;
+                        pendingPassword = null;
+                    }
+                    readiness.pause(logger, "Waiting for WinRM to come up.");
                     continue;
                 }
 
                 if (!alreadyBooted || node.stopOnTerminate) {
                     int bootDelay = node.getBootDelay();
+                    alreadyBooted = true;
                     if (bootDelay > 0) {
+                        readiness.enter(WindowsReadiness.Stage.BOOT_DELAY);
                         logger.println("WinRM service responded. Waiting " + bootDelay
                                 + "ms for WinRM service to stabilize on " + node.getDisplayName());
                         Thread.sleep(bootDelay);
                         logger.println("WinRM should now be ok on " + node.getDisplayName());
-                    }
-                    alreadyBooted = true;
-                    if (!connection.pingFailingIfSSHHandShakeError()) {
-                        logger.println("WinRM not yet up. Sleeping 10s.");
-                        Thread.sleep(sleepBetweenAttempts);
-                        continue;
+
+                        // Check again only if the service had time to go away
+                        readiness.enter(WindowsReadiness.Stage.AUTHENTICATION);
+                        if (!connection.pingFailingIfSSHHandShakeError()) {
+                            readiness.pause(logger, "WinRM not yet up.");
+                            continue;
+                        }
                     }
                 }
 
+                readiness.finish();
                 logger.println("Connected with WinRM.");
+                logger.println("Waited for " + readiness);
+                LOGGER.fine(() -> node.getDisplayName() + " waited for " + readiness);
                 return connection; // successfully connected
             } catch (IOException e) {
                 if (e instanceof SSLException) {
@@ -256,8 +314,14 @@ public class EC2WindowsLauncher extends EC2ComputerLauncher {
                     // certificate
                     throw SdkException.create("The SSL connection failed while negotiating SSL", e);
                 }
-                logger.println("Waiting for WinRM to come up. Sleeping 10s.");
-                Thread.sleep(sleepBetweenAttempts);
+                // Start over, the address of the instance or its services may have changed meanwhile
+                if (connection != null) {
+                    connection.close();
+                    connection = null;
+                }
+                host = null;
+                portsOpen = false;
+                readiness.pause(logger, "Waiting for WinRM to come up.");
             }
         }
     }
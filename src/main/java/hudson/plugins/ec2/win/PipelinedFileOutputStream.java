@@ -0,0 +1,137 @@
+package hudson.plugins.ec2.win;
+
+import com.hierynomus.smbj.share.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes a file over SMB with several write requests in flight.
+ *
+ * <p>
+ * The stream of smbj waits for each write to be acknowledged before sending the next one, so an upload takes at least
+ * one round trip per chunk. Here the next chunks are sent while the previous ones are being written, up to
+ * {@link WinConnection#SMB_WRITES_IN_FLIGHT}. Each chunk is as large as the server accepts in one request, which
+ * takes several credits when it is larger than 64 KiB.
+ */
+final class PipelinedFileOutputStream extends OutputStream {
+    private static final long WRITE_TIMEOUT_SECONDS = 60;
+
+    private final File file;
+    private final int chunkSize;
+
+    /* Chunks sent, in order */
+    private final Deque<Chunk> writes = new ArrayDeque<>();
+
+    /* Buffers of the chunks written already, to be filled again */
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    private final long startTime = System.nanoTime();
+
+    private byte[] buffer;
+    private int count;
+    private long offset;
+    private boolean closed;
+
+    PipelinedFileOutputStream(File file, int chunkSize) {
+        this.file = file;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = freeBuffers.isEmpty() ? new byte[chunkSize] : freeBuffers.removeFirst();
+            }
+            int n = Math.min(len, chunkSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == chunkSize) {
+                sendChunk();
+            }
+        }
+    }
+
+    private void sendChunk() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (writes.size() >= WinConnection.SMB_WRITES_IN_FLIGHT) {
+            awaitOldest();
+        }
+        writes.addLast(new Chunk(file.writeAsync(buffer, offset, 0, count), buffer, offset, count));
+        offset += count;
+        buffer = null;
+        count = 0;
+    }
+
+    private void awaitOldest() throws IOException {
+        Chunk chunk = writes.removeFirst();
+        Long written;
+        try {
+            written = chunk.write.get(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing " + file.getFileName(), e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to write " + file.getFileName(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out while writing " + file.getFileName(), e);
+        }
+        if (written == null || written != chunk.length) {
+            throw new IOException("Short write to " + file.getFileName() + " at offset " + chunk.offset + ": " + written
+                    + " of " + chunk.length + " bytes written");
+        }
+        freeBuffers.addLast(chunk.buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sendChunk();
+            while (!writes.isEmpty()) {
+                awaitOldest();
+            }
+            WinConnection.uploaded(offset, System.nanoTime() - startTime);
+        } finally {
+            for (Chunk chunk : writes) {
+                chunk.write.cancel(true);
+            }
+            file.close();
+        }
+    }
+
+    private static final class Chunk {
+        final Future<Long> write;
+        final byte[] buffer;
+        final long offset;
+        final int length;
+
+        Chunk(Future<Long> write, byte[] buffer, long offset, int length) {
+            this.write = write;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
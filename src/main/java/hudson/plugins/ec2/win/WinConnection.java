@@ -1,16 +1,22 @@
 package hudson.plugins.ec2.win;
 
 import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.mserref.NtStatus;
 import com.hierynomus.mssmb2.SMB2CreateDisposition;
 import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.mssmb2.SMBApiException;
 import com.hierynomus.protocol.transport.TransportException;
 import com.hierynomus.smbj.SMBClient;
+import com.hierynomus.smbj.SmbConfig;
 import com.hierynomus.smbj.auth.AuthenticationContext;
 import com.hierynomus.smbj.connection.Connection;
 import com.hierynomus.smbj.session.Session;
 import com.hierynomus.smbj.share.DiskShare;
+import com.hierynomus.smbj.share.File;
+import com.hierynomus.smbj.share.Share;
 import hudson.plugins.ec2.Messages;
 import hudson.plugins.ec2.win.winrm.WinRM;
+import hudson.plugins.ec2.win.winrm.WinRMAuthenticationException;
 import hudson.plugins.ec2.win.winrm.WindowsProcess;
 import java.io.IOException;
 import java.io.InputStream;
@@ -18,14 +24,41 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLException;
 import jenkins.security.FIPS140;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+/**
+ * Connection to a Windows agent, with WinRM to run commands and SMB to transfer files.
+ *
+ * <p>
+ * One SMB session is opened for the pings and the file transfers, and opened again only once its connection is lost,
+ * so that each NTLM handshake is done once rather than at every ping.
+ */
 public class WinConnection {
     private static final Logger LOGGER = Logger.getLogger(WinConnection.class.getName());
 
+    /* Largest SMB2 read and write requests, the server may negotiate them down */
+    static final int SMB_READ_SIZE = Integer.getInteger(WinConnection.class.getName() + ".smbReadSize", 1024 * 1024);
+
+    static final int SMB_WRITE_SIZE =
+            Integer.getInteger(WinConnection.class.getName() + ".smbWriteSize", 1024 * 1024);
+
+    /* Write requests sent to the agent before the first one is acknowledged */
+    static final int SMB_WRITES_IN_FLIGHT =
+            Math.max(1, Integer.getInteger(WinConnection.class.getName() + ".smbWritesInFlight", 4));
+
+    /* SMB activity of all the connections, to tune the sizes above */
+    private static final AtomicLong SMB_HANDSHAKES = new AtomicLong();
+    private static final AtomicLong UPLOADS = new AtomicLong();
+    private static final AtomicLong UPLOADED_BYTES = new AtomicLong();
+    private static final AtomicLong UPLOAD_NANOS = new AtomicLong();
+
     private final String host;
     private final String username;
     private final String password;
@@ -36,6 +69,9 @@ public class WinConnection {
     private Connection connection;
     private Session session;
 
+    /* Whether the latest ping was rejected because of the credentials */
+    private volatile boolean authenticationFailed;
+
     private boolean useHTTPS;
     private static final int TIMEOUT = 8000; // 8 seconds
     private boolean allowSelfSignedCertificate;
@@ -52,7 +88,10 @@ public class WinConnection {
         this.host = host;
         this.username = username;
         this.password = password;
-        this.smbclient = new SMBClient();
+        this.smbclient = new SMBClient(SmbConfig.builder()
+                .withReadBufferSize(SMB_READ_SIZE)
+                .withWriteBufferSize(SMB_WRITE_SIZE)
+                .build());
         this.authentication = new AuthenticationContext(username, password.toCharArray(), null);
         this.allowSelfSignedCertificate = allowSelfSignedCertificate;
     }
@@ -77,26 +116,34 @@ public class WinConnection {
         return winrm(timeout).execute(commandLine);
     }
 
-    private DiskShare getSmbShare(String path) throws IOException {
-        if (this.connection == null) {
-            this.connection = smbclient.connect(host);
+    /**
+     * The SMB session to the agent, authenticated again only if the connection was lost.
+     */
+    private synchronized Session getSession() throws IOException {
+        if (session != null && connection != null && connection.isConnected()) {
+            return session;
         }
-        if (this.session == null) {
-            this.session = connection.authenticate(this.authentication);
-        }
-        return (DiskShare) session.connectShare(toAdministrativeShare(path));
+        closeSession();
+        connection = smbclient.connect(host);
+        session = connection.authenticate(authentication);
+        SMB_HANDSHAKES.incrementAndGet();
+        return session;
+    }
+
+    private DiskShare getSmbShare(String path) throws IOException {
+        return (DiskShare) getSession().connectShare(toAdministrativeShare(path));
     }
 
     public OutputStream putFile(String path) throws IOException {
-        return getSmbShare(path)
-                .openFile(
-                        toFilePath(path),
-                        EnumSet.of(AccessMask.GENERIC_READ, AccessMask.GENERIC_WRITE),
-                        null,
-                        SMB2ShareAccess.ALL,
-                        SMB2CreateDisposition.FILE_OVERWRITE_IF,
-                        null)
-                .getOutputStream();
+        DiskShare share = getSmbShare(path);
+        File file = share.openFile(
+                toFilePath(path),
+                EnumSet.of(AccessMask.GENERIC_READ, AccessMask.GENERIC_WRITE),
+                null,
+                SMB2ShareAccess.ALL,
+                SMB2CreateDisposition.FILE_OVERWRITE_IF,
+                null);
+        return new PipelinedFileOutputStream(file, share.getWriteBufferSize());
     }
 
     public InputStream getFile(String path) throws IOException {
@@ -130,15 +177,20 @@ public class WinConnection {
 
     public boolean pingFailingIfSSHHandShakeError() throws IOException {
         LOGGER.log(Level.FINE, () -> "checking SMB connection to " + host);
-        try (Socket socket = new Socket();
-                Connection connection = smbclient.connect(host);
-                Session session = connection.authenticate(authentication)) {
+        authenticationFailed = false;
+        try (Socket socket = new Socket()) {
             socket.connect(new InetSocketAddress(host, 445), TIMEOUT);
             winrm().ping();
-            session.connectShare("IPC$");
-            return true;
+            try (Share ipc = getSession().connectShare("IPC$")) {
+                return true;
+            }
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Failed to verify connectivity to Windows agent", e);
+            authenticationFailed = e instanceof WinRMAuthenticationException
+                    || (e instanceof SMBApiException smbException
+                            && smbException.getStatus() == NtStatus.STATUS_LOGON_FAILURE);
+            // The session may be broken, e.g. it expired or was rejected, authenticate again on the next attempt
+            closeSession();
             if (e instanceof SSLException) {
                 throw e;
             } else if (e instanceof TransportException) {
@@ -151,13 +203,22 @@ public class WinConnection {
         }
     }
 
-    public void close() {
+    /**
+     * Whether the latest ping failed because the credentials were rejected.
+     */
+    @Restricted(NoExternalUse.class)
+    public boolean isAuthenticationFailed() {
+        return authenticationFailed;
+    }
+
+    private synchronized void closeSession() {
         if (this.session != null) {
             try {
                 this.session.close();
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Failed to close session", e);
             }
+            this.session = null;
         }
         if (this.connection != null) {
             try {
@@ -165,7 +226,12 @@ public class WinConnection {
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Failed to close connection", e);
             }
+            this.connection = null;
         }
+    }
+
+    public void close() {
+        closeSession();
         if (this.smbclient != null) {
             try {
                 this.smbclient.close();
@@ -178,4 +244,23 @@ public class WinConnection {
     public void setUseHTTPS(boolean useHTTPS) {
         this.useHTTPS = useHTTPS;
     }
+
+    static void uploaded(long bytes, long nanos) {
+        UPLOADS.incrementAndGet();
+        UPLOADED_BYTES.addAndGet(bytes);
+        UPLOAD_NANOS.addAndGet(nanos);
+    }
+
+    /**
+     * Statistics of the SMB sessions and uploads of all the connections since startup, e.g. to tune
+     * {@link #SMB_WRITE_SIZE} from the script console.
+     */
+    @Restricted(NoExternalUse.class)
+    public static String getSmbStatistics() {
+        long uploads = UPLOADS.get();
+        long bytes = UPLOADED_BYTES.get();
+        long millis = TimeUnit.NANOSECONDS.toMillis(UPLOAD_NANOS.get());
+        return SMB_HANDSHAKES.get() + " SMB sessions authenticated, " + bytes + " bytes uploaded in " + uploads
+                + " files (" + (millis > 0 ? bytes * 1000 / millis : 0) + " bytes/s)";
+    }
 }
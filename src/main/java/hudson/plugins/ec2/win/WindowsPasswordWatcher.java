@@ -0,0 +1,110 @@
+package hudson.plugins.ec2.win;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.plugins.ec2.CloudPoller;
+import hudson.plugins.ec2.EC2Cloud;
+import hudson.plugins.ec2.EC2PrivateKey;
+import hudson.util.Secret;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.GetPasswordDataRequest;
+
+/**
+ * Waits for the administrator password of the Windows instances of a cloud.
+ *
+ * <p>
+ * The password data of an instance only shows up a few minutes after it boots. Instead of one polling loop per
+ * launching agent, the pending instances of a cloud are polled together by one task every {@link #POLL_INTERVAL_MS},
+ * and the password of each instance is decrypted once, when it shows up.
+ */
+final class WindowsPasswordWatcher extends CloudPoller {
+    private static final Logger LOGGER = Logger.getLogger(WindowsPasswordWatcher.class.getName());
+
+    static final long POLL_INTERVAL_MS =
+            Long.getLong(WindowsPasswordWatcher.class.getName() + ".pollIntervalMs", TimeUnit.SECONDS.toMillis(5));
+
+    private final Map<String, CompletableFuture<Secret>> pending = new ConcurrentHashMap<>();
+
+    WindowsPasswordWatcher(@NonNull EC2Cloud cloud) {
+        super(cloud, POLL_INTERVAL_MS, "poll the Windows passwords");
+    }
+
+    static WindowsPasswordWatcher of(@NonNull EC2Cloud cloud) {
+        return of(cloud, WindowsPasswordWatcher.class, WindowsPasswordWatcher::new);
+    }
+
+    /**
+     * Starts waiting for the password of an instance, or joins the wait already started for it.
+     *
+     * <p>
+     * The future fails if the password could not be retrieved or decrypted, in which case the instance is no longer
+     * watched. It is shared by the launchers of the instance, so they must not cancel it. A wait already done, e.g.
+     * failed, is replaced by a new one.
+     */
+    CompletableFuture<Secret> watch(@NonNull String instanceId) {
+        CompletableFuture<Secret> password = pending.compute(
+                instanceId, (id, current) -> current == null || current.isDone() ? new CompletableFuture<>() : current);
+        startPolling();
+        return password;
+    }
+
+    /**
+     * Polls the password data of the pending instances once.
+     */
+    @Override
+    protected void poll(@NonNull EC2Cloud cloud) {
+        pending.values().removeIf(CompletableFuture::isDone);
+        if (pending.isEmpty()) {
+            return;
+        }
+        EC2PrivateKey privateKey = cloud.resolvePrivateKey();
+        if (privateKey == null) {
+            // The launchers report it, keep waiting for the credentials to be fixed
+            return;
+        }
+        Ec2Client ec2;
+        try {
+            ec2 = cloud.connect();
+        } catch (RuntimeException e) {
+            failAll(e);
+            return;
+        }
+        for (Map.Entry<String, CompletableFuture<Secret>> entry : pending.entrySet()) {
+            String instanceId = entry.getKey();
+            CompletableFuture<Secret> password = entry.getValue();
+            if (password.isDone()) {
+                continue;
+            }
+            try {
+                String passwordData = ec2.getPasswordData(GetPasswordDataRequest.builder()
+                                .instanceId(instanceId)
+                                .build())
+                        .passwordData();
+                if (passwordData == null || passwordData.isEmpty()) {
+                    continue;
+                }
+                password.complete(Secret.fromString(privateKey.decryptWindowsPassword(passwordData)));
+                LOGGER.fine(() -> "Retrieved the administrator password of " + instanceId);
+            } catch (RuntimeException e) {
+                password.completeExceptionally(e);
+            }
+            pending.remove(instanceId, password);
+        }
+    }
+
+    @Override
+    protected boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    private void failAll(Throwable cause) {
+        pending.values().removeIf(password -> {
+            password.completeExceptionally(cause);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,130 @@
+package hudson.plugins.ec2.win;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Stages a Windows agent goes through before it accepts WinRM commands, with the time spent waiting in each.
+ *
+ * <p>
+ * The launcher polls each stage until it is over, starting with short pauses that grow up to
+ * {@link #MAX_PAUSE_MS}, so that a stage about to be over is not kept waiting for a long fixed sleep. The time spent in
+ * each stage is logged once the agent is ready, to show where the launch time goes.
+ */
+final class WindowsReadiness {
+    static final long INITIAL_PAUSE_MS =
+            Long.getLong(WindowsReadiness.class.getName() + ".initialPauseMs", TimeUnit.SECONDS.toMillis(2));
+
+    static final long MAX_PAUSE_MS =
+            Long.getLong(WindowsReadiness.class.getName() + ".maxPauseMs", TimeUnit.SECONDS.toMillis(10));
+
+    private static final double MULTIPLIER = 1.5;
+
+    enum Stage {
+        ADDRESS("IP address"),
+        PORTS("WinRM and SMB ports"),
+        PASSWORD("administrator password"),
+        AUTHENTICATION("WinRM and SMB authentication"),
+        BOOT_DELAY("boot delay");
+
+        private final String displayName;
+
+        Stage(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    private final Map<Stage, Long> waited = new EnumMap<>(Stage.class);
+
+    private Stage current;
+    private long enteredAt;
+    private long pause;
+
+    /**
+     * Starts waiting for a stage, unless it is the current one.
+     */
+    void enter(Stage stage) {
+        if (stage == current) {
+            return;
+        }
+        finish();
+        current = stage;
+        enteredAt = System.nanoTime();
+        pause = INITIAL_PAUSE_MS;
+    }
+
+    /**
+     * Stops counting the time of the current stage.
+     */
+    void finish() {
+        if (current != null) {
+            waited.merge(current, System.nanoTime() - enteredAt, Long::sum);
+            current = null;
+        }
+    }
+
+    /**
+     * Pauses before polling the current stage again, a bit longer each time.
+     */
+    void pause(PrintStream logger, String message) throws InterruptedException {
+        long delay = nextPause();
+        logger.println(message + " Sleeping " + TimeUnit.MILLISECONDS.toSeconds(delay) + "s.");
+        Thread.sleep(delay);
+    }
+
+    /**
+     * Pauses like {@link #pause}, but no longer than it takes for the future to complete.
+     *
+     * @return whether the future is done
+     */
+    boolean pauseUntil(Future<?> future, PrintStream logger, String message) throws InterruptedException {
+        if (future.isDone()) {
+            return true;
+        }
+        long delay = nextPause();
+        logger.println(message + " Waiting up to " + TimeUnit.MILLISECONDS.toSeconds(delay) + "s.");
+        try {
+            future.get(delay, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | CancellationException e) {
+            // Done all the same, the caller gets the failure from the future
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private long nextPause() {
+        long delay = pause;
+        pause = Math.min(MAX_PAUSE_MS, (long) (pause * MULTIPLIER));
+        return delay;
+    }
+
+    long getWaitedMillis(Stage stage) {
+        long nanos = waited.getOrDefault(stage, 0L);
+        if (stage == current) {
+            nanos += System.nanoTime() - enteredAt;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (!waited.containsKey(stage) && stage != current) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(stage.displayName).append(' ').append(getWaitedMillis(stage)).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,168 @@
+package hudson.plugins.ec2.win.winrm;
+
+import hudson.plugins.ec2.win.winrm.soap.Namespaces;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser of the responses to Receive requests.
+ *
+ * <p>
+ * The output streams are Base64 decoded from the XML text through reused buffers and written to their pipe as they
+ * are read, while the command state and exit code are picked up in the same pass. Not thread safe: the buffers are
+ * reused from one response to the next.
+ */
+final class ReceiveResponseParser {
+    private static final Logger LOGGER = Logger.getLogger(ReceiveResponseParser.class.getName());
+
+    private static final String SHELL_NS = Namespaces.NS_WIN_SHELL.getURI();
+
+    private static final String DONE_STATE = SHELL_NS + "/CommandState/Done";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    /* Base64 characters not decoded yet, always less than a quantum between two chunks of text */
+    private byte[] encoded = new byte[4096];
+    private int pending;
+
+    private final byte[] decoded = new byte[3072];
+
+    private boolean done;
+    private Integer exitCode;
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Parses a Receive response, writing the output streams to the matching pipes.
+     *
+     * @param streams the pipes by lower case stream name
+     */
+    void parse(String response, Map<String, ? extends OutputStream> streams) throws IOException {
+        done = false;
+        exitCode = null;
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(new StringReader(response));
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String state = reader.getAttributeValue(null, "State");
+                if (DONE_STATE.equals(state)) {
+                    done = true;
+                }
+                if (!SHELL_NS.equals(reader.getNamespaceURI())) {
+                    continue;
+                }
+                if ("Stream".equals(reader.getLocalName())) {
+                    String name = reader.getAttributeValue(null, "Name");
+                    OutputStream stream = name == null ? null : streams.get(name.toLowerCase(Locale.ENGLISH));
+                    int n = copyStream(reader, stream);
+                    LOGGER.log(Level.FINE, () -> "piping " + n + " bytes from " + name);
+                } else if ("ExitCode".equals(reader.getLocalName())) {
+                    exitCode = Integer.parseInt(reader.getElementText().trim());
+                }
+            }
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new RuntimeException("Malformed winRM receive response " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the response reported the command as done.
+     */
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * The exit code of the command, if the response has one.
+     */
+    Integer getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Decodes the text of the current stream element to a pipe.
+     *
+     * @param stream the pipe, or {@code null} to skip the stream
+     * @return the number of bytes decoded
+     */
+    private int copyStream(XMLStreamReader reader, OutputStream stream) throws XMLStreamException, IOException {
+        pending = 0;
+        int total = 0;
+        for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+            if (event != XMLStreamConstants.CHARACTERS && event != XMLStreamConstants.CDATA) {
+                continue;
+            }
+            char[] text = reader.getTextCharacters();
+            int start = reader.getTextStart();
+            int length = reader.getTextLength();
+            ensureCapacity(pending + length);
+            for (int i = start; i < start + length; i++) {
+                char c = text[i];
+                if (!Character.isWhitespace(c)) {
+                    encoded[pending++] = (byte) c;
+                }
+            }
+            // Decode the complete quanta, keep the rest for the next chunk of text
+            int complete = pending - pending % 4;
+            total += decode(complete, stream);
+            System.arraycopy(encoded, complete, encoded, 0, pending - complete);
+            pending -= complete;
+        }
+        if (pending > 0) {
+            total += decode(pending, stream);
+            pending = 0;
+        }
+        return total;
+    }
+
+    private int decode(int length, OutputStream stream) throws IOException {
+        int total = 0;
+        try (InputStream in = DECODER.wrap(new ByteArrayInputStream(encoded, 0, length))) {
+            for (int n; (n = in.read(decoded)) > 0; ) {
+                if (stream != null) {
+                    stream.write(decoded, 0, n);
+                }
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > encoded.length) {
+            encoded = Arrays.copyOf(encoded, Math.max(length, encoded.length * 2));
+        }
+    }
+}
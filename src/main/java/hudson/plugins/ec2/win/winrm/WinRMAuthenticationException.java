@@ -0,0 +1,11 @@
+package hudson.plugins.ec2.win.winrm;
+
+/**
+ * The WinRM service kept rejecting the credentials.
+ */
+public class WinRMAuthenticationException extends RuntimeException {
+
+    public WinRMAuthenticationException(String message) {
+        super(message);
+    }
+}
@@ -5,10 +5,9 @@ import hudson.plugins.ec2.win.winrm.request.RequestFactory;
 import hudson.plugins.ec2.win.winrm.soap.Namespaces;
 import hudson.remoting.FastPipedOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Base64;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,14 +30,13 @@ import org.apache.http.config.Lookup;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.auth.BasicSchemeFactory;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.dom4j.Document;
@@ -52,6 +50,10 @@ import org.jaxen.SimpleNamespaceContext;
 public class WinRMClient {
     private static final Logger LOGGER = Logger.getLogger(WinRMClient.class.getName());
 
+    private static final XPath SHELL_ID = xpath("//*[@Name='ShellId']");
+
+    private static final XPath COMMAND_ID = xpath("//" + Namespaces.NS_WIN_SHELL.getPrefix() + ":CommandId");
+
     private final URL url;
     private final String username;
     private final String password;
@@ -62,7 +64,18 @@ public class WinRMClient {
 
     private final RequestFactory factory;
 
-    private final ThreadLocal<BasicAuthCache> authCache = new ThreadLocal<>();
+    /* Shared by all the requests of this client, whatever the thread sending them */
+    private volatile BasicAuthCache authCache = new BasicAuthCache();
+
+    /* State of the connections authenticated by a connection based scheme (NTLM), so that they can be reused */
+    private volatile Object userToken;
+
+    /* Built on first use, once HTTPS has been configured */
+    private HttpClient httpClient;
+
+    /* Only used by the thread reading the output */
+    private final ReceiveResponseParser receiveParser = new ReceiveResponseParser();
+
     private boolean useHTTPS;
     private BasicCredentialsProvider credsProvider;
     private final boolean allowSelfSignedCertificate;
@@ -87,15 +100,15 @@ public class WinRMClient {
 
     public void openShell() {
         LOGGER.log(Level.FINE, () -> "opening winrm shell to: " + url);
-        Document request = factory.newOpenShellRequest().build();
-        shellId = first(sendRequest(request), "//*[@Name='ShellId']");
+        byte[] request = factory.newOpenShellEnvelope();
+        shellId = first(sendRequest(request), SHELL_ID);
         LOGGER.log(Level.FINER, () -> "shellid: " + shellId);
     }
 
     public void executeCommand(String command) {
         LOGGER.log(Level.FINE, () -> "winrm execute on " + shellId + " command: " + command);
-        Document request = factory.newExecuteCommandRequest(shellId, command).build();
-        commandId = first(sendRequest(request), "//" + Namespaces.NS_WIN_SHELL.getPrefix() + ":CommandId");
+        byte[] request = factory.newExecuteCommandEnvelope(shellId, command);
+        commandId = first(sendRequest(request), COMMAND_ID);
         LOGGER.log(Level.FINER, () -> "winrm started execution on " + shellId + " commandId: " + commandId);
     }
 
@@ -106,7 +119,7 @@ public class WinRMClient {
 
         LOGGER.log(Level.FINE, () -> "closing winrm shell " + shellId);
 
-        Document request = factory.newDeleteShellRequest(shellId).build();
+        byte[] request = factory.newDeleteShellEnvelope(shellId);
         sendRequest(request);
     }
 
@@ -117,15 +130,14 @@ public class WinRMClient {
 
         LOGGER.log(Level.FINE, () -> "signalling winrm shell " + shellId + " command: " + commandId);
 
-        Document request = factory.newSignalRequest(shellId, commandId).build();
+        byte[] request = factory.newSignalEnvelope(shellId, commandId);
         sendRequest(request);
     }
 
     public void sendInput(byte[] input) {
         LOGGER.log(Level.FINE, () -> "--> sending " + input.length);
 
-        Document request =
-                factory.newSendInputRequest(input, shellId, commandId).build();
+        byte[] request = factory.newSendInputEnvelope(input, shellId, commandId);
         sendRequest(request);
     }
 
@@ -135,39 +147,19 @@ public class WinRMClient {
         streams.put("stdout", stdout);
         streams.put("stderr", stderr);
 
-        Document request = factory.newGetOutputRequest(shellId, commandId).build();
-        Document response = sendRequest(request);
-
-        XPath xpath = DocumentHelper.createXPath("//" + Namespaces.NS_WIN_SHELL.getPrefix() + ":Stream");
-        SimpleNamespaceContext namespaceContext = new SimpleNamespaceContext();
-        namespaceContext.addNamespace(Namespaces.NS_WIN_SHELL.getPrefix(), Namespaces.NS_WIN_SHELL.getURI());
-        xpath.setNamespaceContext(namespaceContext);
-
-        for (Node node : xpath.selectNodes(response)) {
-            if (node instanceof Element e) {
-                FastPipedOutputStream stream =
-                        streams.get(e.attribute("Name").getText().toLowerCase());
-                final byte[] decode = Base64.getDecoder().decode(e.getText());
-                LOGGER.log(
-                        Level.FINE,
-                        () -> "piping " + decode.length + " bytes from "
-                                + e.attribute("Name").getText().toLowerCase());
-
-                stream.write(decode);
-            }
-        }
+        byte[] request = factory.newGetOutputEnvelope(shellId, commandId);
+        receiveParser.parse(post(request, 0), streams);
 
-        XPath done = DocumentHelper.createXPath(
-                "//*[@State='http://schemas.microsoft.com/wbem/wsman/1/windows/shell/CommandState/Done']");
-        done.setNamespaceContext(namespaceContext);
-        final List<Node> nodes = done.selectNodes(response);
-        if (nodes != null && nodes.isEmpty()) {
+        if (!receiveParser.isDone()) {
             LOGGER.log(Level.FINE, "keep going baby!");
             return true;
-        } else {
-            exitCode = Integer.parseInt(first(response, "//" + Namespaces.NS_WIN_SHELL.getPrefix() + ":ExitCode"));
-            LOGGER.log(Level.FINE, () -> "no more output - command is now done - exit code: " + exitCode);
         }
+        Integer code = receiveParser.getExitCode();
+        if (code == null) {
+            throw new RuntimeException("Malformed response for ExitCode of command " + commandId);
+        }
+        exitCode = code;
+        LOGGER.log(Level.FINE, () -> "no more output - command is now done - exit code: " + exitCode);
         return false;
     }
 
@@ -175,13 +167,21 @@ public class WinRMClient {
         return exitCode;
     }
 
-    private static String first(Document doc, String selector) {
+    /* Compiled once, with its own namespace context so that it can be shared by concurrent evaluations */
+    private static XPath xpath(String selector) {
         XPath xpath = DocumentHelper.createXPath(selector);
+        SimpleNamespaceContext namespaceContext = new SimpleNamespaceContext();
+        namespaceContext.addNamespace(Namespaces.NS_WIN_SHELL.getPrefix(), Namespaces.NS_WIN_SHELL.getURI());
+        xpath.setNamespaceContext(namespaceContext);
+        return xpath;
+    }
+
+    private static String first(Document doc, XPath xpath) {
         List<Node> nodes = xpath.selectNodes(doc);
         if (!nodes.isEmpty() && nodes.get(0) instanceof Element) {
             return nodes.get(0).getText();
         }
-        throw new RuntimeException("Malformed response for " + selector + " in " + doc.asXML());
+        throw new RuntimeException("Malformed response for " + xpath.getText() + " in " + doc.asXML());
     }
 
     private void setupHTTPClient() {
@@ -191,6 +191,13 @@ public class WinRMClient {
                 new UsernamePasswordCredentials(username, password));
     }
 
+    private synchronized HttpClient getHTTPClient() {
+        if (httpClient == null) {
+            httpClient = buildHTTPClient();
+        }
+        return httpClient;
+    }
+
     private HttpClient buildHTTPClient() {
         // This can occur if setUseHTTPS is not called
         FIPS140Utils.ensureNoPasswordLeak(useHTTPS, password);
@@ -246,34 +253,48 @@ public class WinRMClient {
         return builder.build();
     }
 
-    private Document sendRequest(Document request) {
-        return sendRequest(request, 0);
+    private Document sendRequest(byte[] request) {
+        try {
+            return DocumentHelper.parseText(post(request, 0));
+        } catch (DocumentException e) {
+            LOGGER.log(Level.SEVERE, "XML Document exception in HTTP POST", e);
+            throw new RuntimeException("Invalid XML document in winRM response " + e.getMessage(), e);
+        }
     }
 
-    private Document sendRequest(Document request, int retry) {
+    /**
+     * Posts a request.
+     *
+     * @return the text of the response
+     */
+    private String post(byte[] request, int retry) {
         if (retry > 3) {
-            throw new RuntimeException("Too many retry for request");
+            // Only the requests rejected with a 401 are retried
+            throw new WinRMAuthenticationException("Too many retry for request");
         }
 
-        HttpClient httpclient = buildHTTPClient();
-        HttpContext context = new BasicHttpContext();
-
-        if (authCache.get() == null) {
-            authCache.set(new BasicAuthCache());
+        HttpClient httpclient = getHTTPClient();
+        HttpClientContext context = HttpClientContext.create();
+        context.setAuthCache(authCache);
+        if (userToken != null) {
+            // Lease a connection already authenticated for this user from the pool
+            context.setUserToken(userToken);
         }
 
-        context.setAttribute(HttpClientContext.AUTH_CACHE, authCache.get());
-
         try {
             HttpPost post = new HttpPost(url.toURI());
 
-            HttpEntity entity = new StringEntity(request.asXML(), ContentType.APPLICATION_SOAP_XML);
+            HttpEntity entity = new ByteArrayEntity(request, ContentType.APPLICATION_SOAP_XML);
             post.setEntity(entity);
 
-            LOGGER.log(Level.FINEST, () -> "Request:\nPOST " + url + "\n" + request.asXML());
+            LOGGER.log(
+                    Level.FINEST, () -> "Request:\nPOST " + url + "\n" + new String(request, StandardCharsets.UTF_8));
 
             HttpResponse response = httpclient.execute(post, context);
             HttpEntity responseEntity = response.getEntity();
+            if (context.getUserToken() != null) {
+                userToken = context.getUserToken();
+            }
 
             if (response.getStatusLine().getStatusCode() != 200) {
                 // check for possible timeout
@@ -285,7 +306,7 @@ public class WinRMClient {
                                         .startsWith(ContentType.APPLICATION_SOAP_XML.getMimeType()))) {
                     String respStr = EntityUtils.toString(responseEntity);
                     if (respStr.contains("TimedOut")) {
-                        return DocumentHelper.parseText(respStr);
+                        return respStr;
                     }
                 } else {
                     // this shouldn't happen, as httpclient knows how to auth
@@ -295,6 +316,7 @@ public class WinRMClient {
                     if (response.getStatusLine().getStatusCode() == 401) {
                         // we need to force using new connections here
                         // throw away our auth cache
+                        EntityUtils.consumeQuietly(responseEntity);
                         LOGGER.log(
                                 Level.WARNING, "winrm returned 401 - shouldn't happen though - retrying in 2 minutes");
                         try {
@@ -302,9 +324,10 @@ public class WinRMClient {
                         } catch (InterruptedException e) {
                             Thread.currentThread().interrupt();
                         }
-                        authCache.set(new BasicAuthCache());
+                        authCache = new BasicAuthCache();
+                        userToken = null;
                         LOGGER.log(Level.WARNING, "winrm returned 401 - retrying now");
-                        return sendRequest(request, ++retry);
+                        return post(request, ++retry);
                     }
                     LOGGER.log(
                             Level.WARNING,
@@ -323,14 +346,12 @@ public class WinRMClient {
                 throw new RuntimeException("Unexpected WinRM content type: " + entity.getContentType());
             }
 
-            Document responseDocument = DocumentHelper.parseText(EntityUtils.toString(responseEntity));
+            String responseText = EntityUtils.toString(responseEntity);
 
-            LOGGER.log(Level.FINEST, () -> "Response:\n" + responseDocument.asXML());
-            return responseDocument;
+            LOGGER.log(Level.FINEST, () -> "Response:\n" + responseText);
+            return responseText;
         } catch (URISyntaxException e) {
             throw new RuntimeException("Invalid WinRM URI " + url);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("Invalid WinRM body " + request.asXML());
         } catch (ClientProtocolException e) {
             throw new RuntimeException("HTTP Error " + e.getMessage(), e);
         } catch (HttpHostConnectException e) {
@@ -342,9 +363,6 @@ public class WinRMClient {
         } catch (ParseException e) {
             LOGGER.log(Level.SEVERE, "XML Parse exception in HTTP POST", e);
             throw new RuntimeException("Unparseable XML in winRM response " + e.getMessage(), e);
-        } catch (DocumentException e) {
-            LOGGER.log(Level.SEVERE, "XML Document exception in HTTP POST", e);
-            throw new RuntimeException("Invalid XML document in winRM response " + e.getMessage(), e);
         }
     }
 
@@ -356,8 +374,11 @@ public class WinRMClient {
         factory.setTimeout(timeout);
     }
 
-    public void setUseHTTPS(boolean useHTTPS) {
+    public synchronized void setUseHTTPS(boolean useHTTPS) {
         FIPS140Utils.ensureNoPasswordLeak(useHTTPS, password);
+        if (this.useHTTPS != useHTTPS) {
+            httpClient = null;
+        }
         this.useHTTPS = useHTTPS;
     }
 }
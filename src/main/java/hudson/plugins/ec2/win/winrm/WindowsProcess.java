@@ -6,47 +6,84 @@ import hudson.remoting.FastPipedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+/**
+ * A command running in a WinRM shell.
+ *
+ * <p>
+ * The output is pumped with one Receive long-poll at a time, each submitted as a task to a pool shared by all the
+ * processes, and the input is sent by tasks of the same pool. No thread is dedicated to a process, nor kept waiting
+ * on its pipes. Remoting writes many small frames, so the input written within {@link #INPUT_COALESCE_MS} is sent
+ * together, like Nagle's algorithm does for TCP.
+ */
 public class WindowsProcess {
     private static final Logger LOGGER = Logger.getLogger(WindowsProcess.class.getName());
 
-    private static final int INPUT_BUFFER = 16 * 1024;
+    /* How long written input is held to be sent together with what follows, 0 to send right away */
+    static final long INPUT_COALESCE_MS = Long.getLong(WindowsProcess.class.getName() + ".inputCoalesceMs", 10);
+
+    /* Input sent without waiting for the end of the window */
+    static final int INPUT_COALESCE_BYTES =
+            Integer.getInteger(WindowsProcess.class.getName() + ".inputCoalesceBytes", 16 * 1024);
+
+    /* Largest input of a Send, well below the max envelope size once Base64 encoded */
+    private static final int MAX_SEND_BYTES = 64 * 1024;
+
+    /* Input written but not sent yet, beyond which writers wait */
+    private static final int MAX_PENDING_INPUT = 4 * MAX_SEND_BYTES;
+
+    /* Input of all the processes, to tune the coalescing */
+    private static final AtomicLong INPUT_WRITES = new AtomicLong();
+    private static final AtomicLong INPUT_BYTES = new AtomicLong();
+    private static final AtomicLong INPUT_SENDS = new AtomicLong();
+    private static final AtomicLong INPUT_SEND_NANOS = new AtomicLong();
+
+    /*
+     * Receive is a long-poll on a blocking HTTP client, so a thread is busy while a poll is in flight. Threads are
+     * shared by all the processes and released between polls.
+     */
+    private static final ExecutorService PUMP = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "WinRM I/O pump");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final WinRMClient client;
 
-    private final FastPipedInputStream toCallersStdin;
-    private final FastPipedOutputStream callersStdin;
+    private final StdinStream callersStdin;
     private final FastPipedInputStream callersStdout;
     private final FastPipedOutputStream toCallersStdout;
     private final FastPipedInputStream callersStderr;
     private final FastPipedOutputStream toCallersStderr;
 
-    private boolean terminated;
+    private volatile boolean terminated;
     private final String command;
 
-    private Thread outputThread;
-
-    private Thread inputThread;
+    private final CountDownLatch outputDone = new CountDownLatch(1);
 
     WindowsProcess(WinRMClient client, String command) throws IOException {
         this.client = client;
         this.command = command;
 
-        toCallersStdin = new FastPipedInputStream();
-        callersStdin = new FastPipedOutputStream(toCallersStdin);
+        callersStdin = new StdinStream();
         callersStdout = new FastPipedInputStream();
         toCallersStdout = new FastPipedOutputStream(callersStdout);
         callersStderr = new FastPipedInputStream();
         toCallersStderr = new FastPipedOutputStream(callersStderr);
 
-        startStdoutCopyThread();
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        startStdinCopyThread();
+        PUMP.execute(this::pumpOutput);
     }
 
     public InputStream getStdout() {
@@ -61,6 +98,21 @@ public class WindowsProcess {
         return callersStderr;
     }
 
+    /**
+     * Statistics of the input sent by all the processes since startup, e.g. to tune {@link #INPUT_COALESCE_MS} from
+     * the script console.
+     */
+    @Restricted(NoExternalUse.class)
+    public static String getInputStatistics() {
+        long writes = INPUT_WRITES.get();
+        long bytes = INPUT_BYTES.get();
+        long sends = INPUT_SENDS.get();
+        long millis = TimeUnit.NANOSECONDS.toMillis(INPUT_SEND_NANOS.get());
+        return bytes + " bytes written in " + writes + " writes, sent in " + sends + " Send requests ("
+                + (sends > 0 ? bytes / sends : 0) + " bytes and " + (sends > 0 ? millis / sends : 0)
+                + " ms per request, " + (millis > 0 ? bytes * 1000 / millis : 0) + " bytes/s)";
+    }
+
     public synchronized int waitFor() {
         if (terminated) {
             return client.exitCode();
@@ -68,11 +120,11 @@ public class WindowsProcess {
 
         try {
             try {
-                outputThread.join();
+                outputDone.await();
             } finally {
                 client.deleteShell();
                 terminated = true;
-                Closeables.closeQuietly(toCallersStdin);
+                callersStdin.close();
             }
             return client.exitCode();
         } catch (InterruptedException exc) {
@@ -101,66 +153,147 @@ public class WindowsProcess {
 
         terminated = true;
         Closeables.closeQuietly(toCallersStdout);
-        Closeables.closeQuietly(toCallersStdin);
         Closeables.closeQuietly(toCallersStderr);
         Closeables.closeQuietly(callersStdout);
         Closeables.closeQuietly(callersStdin);
         Closeables.closeQuietly(callersStderr);
     }
 
-    private void startStdoutCopyThread() {
-        outputThread = new Thread("output copy: " + command) {
-            @Override
-            public void run() {
-                try {
-                    for (; ; ) {
-                        if (!client.slurpOutput(toCallersStdout, toCallersStderr)) {
-                            LOGGER.log(Level.FINE, () -> "no more output for " + command);
-                            break;
-                        }
-                    }
-                } catch (Exception exc) {
-                    LOGGER.log(Level.WARNING, "ouch, stdout exception for " + command, exc);
-                    exc.printStackTrace();
-                } finally {
-                    Closeables.closeQuietly(toCallersStdout);
-                    Closeables.closeQuietly(toCallersStderr);
-                }
+    /**
+     * Receives the output once, then submits itself again until the command is done.
+     */
+    private void pumpOutput() {
+        boolean more = false;
+        try {
+            more = !terminated && client.slurpOutput(toCallersStdout, toCallersStderr);
+            if (!more) {
+                LOGGER.log(Level.FINE, () -> "no more output for " + command);
+            }
+        } catch (Exception exc) {
+            if (!terminated) {
+                LOGGER.log(Level.WARNING, "ouch, stdout exception for " + command, exc);
+            }
+        } finally {
+            if (more) {
+                PUMP.execute(this::pumpOutput);
+            } else {
+                Closeables.closeQuietly(toCallersStdout);
+                Closeables.closeQuietly(toCallersStderr);
+                outputDone.countDown();
             }
-        };
-        outputThread.setDaemon(true);
-        outputThread.start();
+        }
     }
 
-    private void startStdinCopyThread() {
-        inputThread = new Thread("input copy: " + command) {
-            @Override
-            public void run() {
+    /**
+     * Standard input of the command, sent by a pump task once the coalescing window is over.
+     *
+     * <p>
+     * Only one Send is in flight at a time, so that the input arrives in order. What is written meanwhile is sent
+     * together by the next one. Closing the stream still sends what was written before, unless the process is gone.
+     */
+    private final class StdinStream extends OutputStream {
+        /* Guarded by this */
+        private byte[] buffer = new byte[INPUT_COALESCE_BYTES];
+        private int count;
+        private boolean sending;
+        private ScheduledFuture<?> scheduled;
+        private long writes;
+        private long sends;
+        private long sentBytes;
+        private boolean closed;
+        private IOException failure;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            try {
+                while (!closed && failure == null && count >= MAX_PENDING_INPUT) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending input to " + command, e);
+            }
+            if (failure != null) {
+                throw new IOException("Failed to send input to " + command, failure);
+            }
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            if (count + len > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(count + len, buffer.length * 2));
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+            writes++;
+            INPUT_WRITES.incrementAndGet();
+            if (!sending) {
+                sending = true;
+                if (INPUT_COALESCE_MS > 0 && count < INPUT_COALESCE_BYTES) {
+                    scheduled = Timer.get().schedule(this::startSending, INPUT_COALESCE_MS, TimeUnit.MILLISECONDS);
+                } else {
+                    PUMP.execute(this::send);
+                }
+            } else if (scheduled != null && count >= INPUT_COALESCE_BYTES && scheduled.cancel(false)) {
+                // Enough input to fill a Send, no need to wait for the end of the window
+                startSending();
+            }
+        }
+
+        private synchronized void startSending() {
+            scheduled = null;
+            PUMP.execute(this::send);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed && writes > 0) {
+                LOGGER.fine(() -> "Input of " + command + ": " + writes + " writes, sent as " + sentBytes
+                        + " bytes in " + sends + " Send requests");
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        private void send() {
+            for (; ; ) {
+                byte[] input;
+                synchronized (this) {
+                    if (count == 0 || terminated || failure != null) {
+                        sending = false;
+                        return;
+                    }
+                    int n = Math.min(count, MAX_SEND_BYTES);
+                    input = Arrays.copyOf(buffer, n);
+                    System.arraycopy(buffer, n, buffer, 0, count - n);
+                    count -= n;
+                    notifyAll();
+                }
                 try {
-                    byte[] buf = new byte[INPUT_BUFFER];
-                    for (; ; ) {
-                        int n = toCallersStdin.read(buf);
-
-                        if (n == -1) {
-                            break;
-                        }
-                        if (n == 0) {
-                            continue;
-                        }
-
-                        byte[] bufToSend = new byte[n];
-                        System.arraycopy(buf, 0, bufToSend, 0, n);
-                        LOGGER.log(Level.FINE, () -> "piping " + bufToSend.length + " to input of " + command);
-                        client.sendInput(bufToSend);
+                    LOGGER.log(Level.FINE, () -> "piping " + input.length + " to input of " + command);
+                    long start = System.nanoTime();
+                    client.sendInput(input);
+                    INPUT_SEND_NANOS.addAndGet(System.nanoTime() - start);
+                    INPUT_SENDS.incrementAndGet();
+                    INPUT_BYTES.addAndGet(input.length);
+                    synchronized (this) {
+                        sends++;
+                        sentBytes += input.length;
                     }
                 } catch (Exception exc) {
                     LOGGER.log(Level.WARNING, "ouch, STDIN exception for " + command, exc);
-                } finally {
-                    Closeables.closeQuietly(callersStdin);
+                    synchronized (this) {
+                        failure = exc instanceof IOException ? (IOException) exc : new IOException(exc);
+                        sending = false;
+                        notifyAll();
+                    }
+                    return;
                 }
             }
-        };
-        inputThread.setDaemon(true);
-        inputThread.start();
+        }
     }
 }
@@ -5,7 +5,6 @@ import hudson.plugins.ec2.win.winrm.soap.MessageBuilder;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.UUID;
 import org.dom4j.Document;
 import org.dom4j.Element;
 
@@ -47,7 +46,7 @@ public abstract class AbstractWinRMRequest implements WinRMRequest {
     }
 
     protected String generateUUID() {
-        return "uuid:" + UUID.randomUUID().toString().toUpperCase();
+        return EnvelopeTemplate.newMessageId();
     }
 
     public String getTimeout() {
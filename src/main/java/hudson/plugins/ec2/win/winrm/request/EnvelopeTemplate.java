@@ -0,0 +1,143 @@
+package hudson.plugins.ec2.win.winrm.request;
+
+import hudson.plugins.ec2.win.winrm.soap.Namespaces;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.QName;
+
+/**
+ * The serialized envelope of a request, with the values that change from one request to the next left out.
+ *
+ * <p>
+ * The envelope is built once with dom4j, using placeholders for the message id, the shell id, the command id and the
+ * payload (the command line or the Base64 encoded input). It is then split around the placeholders, so that a request
+ * is written by concatenating the fixed parts with the escaped values, without building a document.
+ */
+final class EnvelopeTemplate {
+    static final String SHELL_ID = "@@SHELL_ID@@";
+    static final String COMMAND_ID = "@@COMMAND_ID@@";
+    static final String PAYLOAD = "@@PAYLOAD@@";
+    private static final String MESSAGE_ID = "@@MESSAGE_ID@@";
+
+    private static final String[] PLACEHOLDERS = {MESSAGE_ID, SHELL_ID, COMMAND_ID, PAYLOAD};
+
+    private final byte[][] parts;
+
+    /* Index in PLACEHOLDERS of the value following each part, except the last one */
+    private final int[] slots;
+
+    private EnvelopeTemplate(byte[][] parts, int[] slots) {
+        this.parts = parts;
+        this.slots = slots;
+    }
+
+    /**
+     * Compiles the template of a request built with the placeholders as shell id, command id and command.
+     */
+    static EnvelopeTemplate of(AbstractWinRMRequest request) {
+        Document doc = request.build();
+        Element envelope = doc.getRootElement();
+        envelope.element(QName.get("Header", Namespaces.NS_SOAP_ENV))
+                .element(QName.get("MessageID", Namespaces.NS_ADDRESSING))
+                .setText(MESSAGE_ID);
+        Element send = envelope.element(QName.get("Body", Namespaces.NS_SOAP_ENV))
+                .element(QName.get("Send", Namespaces.NS_WIN_SHELL));
+        if (send != null) {
+            send.element(QName.get("Stream", Namespaces.NS_WIN_SHELL)).setText(PAYLOAD);
+        }
+        return compile(doc.asXML());
+    }
+
+    static EnvelopeTemplate compile(String xml) {
+        List<byte[]> parts = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int from = 0;
+        for (; ; ) {
+            int next = -1;
+            int slot = -1;
+            for (int i = 0; i < PLACEHOLDERS.length; i++) {
+                int index = xml.indexOf(PLACEHOLDERS[i], from);
+                if (index >= 0 && (next < 0 || index < next)) {
+                    next = index;
+                    slot = i;
+                }
+            }
+            if (next < 0) {
+                parts.add(xml.substring(from).getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            parts.add(xml.substring(from, next).getBytes(StandardCharsets.UTF_8));
+            slots.add(slot);
+            from = next + PLACEHOLDERS[slot].length();
+        }
+        return new EnvelopeTemplate(
+                parts.toArray(new byte[0][]),
+                slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Writes a request with a new message id.
+     */
+    byte[] render(String shellId, String commandId, String payload) {
+        String[] values = {newMessageId(), shellId, commandId, payload};
+        int size = 0;
+        for (byte[] part : parts) {
+            size += part.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 256);
+        for (int i = 0; i < parts.length; i++) {
+            out.writeBytes(parts[i]);
+            if (i < slots.length) {
+                out.writeBytes(escape(values[slots[i]]).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static String newMessageId() {
+        return "uuid:" + UUID.randomUUID().toString().toUpperCase();
+    }
+
+    /* Escapes a value for both element text and attributes */
+    static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            String entity;
+            switch (value.charAt(i)) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                default:
+                    entity = null;
+            }
+            if (entity != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (entity != null) {
+                    escaped.append(entity);
+                } else {
+                    escaped.append(value.charAt(i));
+                }
+            }
+        }
+        return escaped != null ? escaped.toString() : value;
+    }
+}
@@ -1,6 +1,10 @@
 package hudson.plugins.ec2.win.winrm.request;
 
 import java.net.URL;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class RequestFactory {
     private final URL url;
@@ -8,6 +12,9 @@ public class RequestFactory {
     private int envelopSize = 153600;
     private String locale = "en-US";
 
+    /* Envelope templates by request type, dropped when the defaults change */
+    private final Map<Class<?>, EnvelopeTemplate> templates = new ConcurrentHashMap<>();
+
     public RequestFactory(URL url) {
         this.url = url;
     }
@@ -48,6 +55,57 @@ public class RequestFactory {
         return r;
     }
 
+    /*
+     * Serialized requests, written from templates without building a document. They are the same as the documents
+     * built by the matching request.
+     */
+
+    public byte[] newOpenShellEnvelope() {
+        return template(OpenShellRequest.class, () -> new OpenShellRequest(url)).render(null, null, null);
+    }
+
+    public byte[] newExecuteCommandEnvelope(String shellId, String command) {
+        return template(
+                        ExecuteCommandRequest.class,
+                        () -> new ExecuteCommandRequest(url, EnvelopeTemplate.SHELL_ID, EnvelopeTemplate.PAYLOAD))
+                .render(shellId, null, command);
+    }
+
+    public byte[] newDeleteShellEnvelope(String shellId) {
+        return template(DeleteShellRequest.class, () -> new DeleteShellRequest(url, EnvelopeTemplate.SHELL_ID))
+                .render(shellId, null, null);
+    }
+
+    public byte[] newSignalEnvelope(String shellId, String commandId) {
+        return template(
+                        SignalRequest.class,
+                        () -> new SignalRequest(url, EnvelopeTemplate.SHELL_ID, EnvelopeTemplate.COMMAND_ID))
+                .render(shellId, commandId, null);
+    }
+
+    public byte[] newSendInputEnvelope(byte[] input, String shellId, String commandId) {
+        return template(
+                        SendInputRequest.class,
+                        () -> new SendInputRequest(
+                                url, new byte[0], EnvelopeTemplate.SHELL_ID, EnvelopeTemplate.COMMAND_ID))
+                .render(shellId, commandId, Base64.getEncoder().encodeToString(input));
+    }
+
+    public byte[] newGetOutputEnvelope(String shellId, String commandId) {
+        return template(
+                        GetOutputRequest.class,
+                        () -> new GetOutputRequest(url, EnvelopeTemplate.SHELL_ID, EnvelopeTemplate.COMMAND_ID))
+                .render(shellId, commandId, null);
+    }
+
+    private EnvelopeTemplate template(Class<?> type, Supplier<AbstractWinRMRequest> request) {
+        return templates.computeIfAbsent(type, t -> {
+            AbstractWinRMRequest r = request.get();
+            setDefaults(r);
+            return EnvelopeTemplate.of(r);
+        });
+    }
+
     private void setDefaults(AbstractWinRMRequest r) {
         r.setTimeout(timeout);
         r.setLocale(locale);
@@ -60,6 +118,7 @@ public class RequestFactory {
 
     public void setTimeout(String timeout) {
         this.timeout = timeout;
+        templates.clear();
     }
 
     public int getEnvelopSize() {
@@ -68,6 +127,7 @@ public class RequestFactory {
 
     public void setEnvelopSize(int envelopSize) {
         this.envelopSize = envelopSize;
+        templates.clear();
     }
 
     public String getLocale() {
@@ -76,5 +136,6 @@ public class RequestFactory {
 
     public void setLocale(String locale) {
         this.locale = locale;
+        templates.clear();
     }
 }
@@ -0,0 +1,133 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.AllocationState;
+import software.amazon.awssdk.services.ec2.model.AutoPlacement;
+import software.amazon.awssdk.services.ec2.model.DescribeHostsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeHostsResponse;
+import software.amazon.awssdk.services.ec2.model.Host;
+
+class DedicatedHostPoolTest {
+    private static final String ZONE = "us-east-1a";
+
+    private static Host host(String id, String zone, AllocationState state, int available, Instant allocated) {
+        return host(id, zone, state, available, allocated, AutoPlacement.ON);
+    }
+
+    private static Host host(
+            String id, String zone, AllocationState state, int available, Instant allocated, AutoPlacement placement) {
+        return Host.builder()
+                .hostId(id)
+                .autoPlacement(placement)
+                .availabilityZone(zone)
+                .state(state)
+                .allocationTime(allocated)
+                .hostProperties(p -> p.instanceType("mac2.metal").instanceFamily("mac2"))
+                .availableCapacity(c -> c.availableInstanceCapacity(
+                        i -> i.instanceType("mac2.metal").availableCapacity(available)))
+                .build();
+    }
+
+    @Test
+    void testFreeHostsAreClaimedOnce() {
+        Instant now = Instant.now();
+        Instant threeDaysAgo = now.minus(Duration.ofDays(3));
+        Instant twoHoursAgo = now.minus(Duration.ofHours(2));
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.describeHosts(any(DescribeHostsRequest.class)))
+                .thenReturn(
+                        DescribeHostsResponse.builder()
+                                .hosts(
+                                        host("h-old", ZONE, AllocationState.AVAILABLE, 1, threeDaysAgo),
+                                        host("h-scrubbing", ZONE, AllocationState.PENDING, 0, now))
+                                .nextToken("next")
+                                .build(),
+                        DescribeHostsResponse.builder()
+                                .hosts(
+                                        host("h-new", ZONE, AllocationState.AVAILABLE, 1, twoHoursAgo),
+                                        host("h-busy", ZONE, AllocationState.AVAILABLE, 0, now),
+                                        host("h-other-zone", "us-east-1b", AllocationState.AVAILABLE, 1, now))
+                                .build());
+
+        DedicatedHostPool pool = new DedicatedHostPool("test");
+
+        // The host still billed for its minimum allocation period goes first
+        assertEquals("h-new", pool.claim(ec2, "mac2.metal", ZONE, 1).getHost().getHostId());
+        DedicatedHostPool.Claim old = pool.claim(ec2, "mac2.metal", ZONE, 1);
+        assertEquals("h-old", old.getHost().getHostId());
+        assertNull(pool.claim(ec2, "mac2.metal", ZONE, 1));
+        assertNull(pool.claim(ec2, "mac1.metal", null, 1));
+
+        pool.unclaim(old);
+        assertEquals("h-old", pool.claim(ec2, "mac2.metal", ZONE, 1).getHost().getHostId());
+        assertEquals("h-other-zone", pool.claim(ec2, "mac2.metal", null, 1).getHost().getHostId());
+
+        assertEquals(3L, pool.getStateCounts().get(DedicatedHostPool.State.AVAILABLE));
+        assertEquals(1L, pool.getStateCounts().get(DedicatedHostPool.State.PENDING_SCRUB));
+        assertEquals(1L, pool.getStateCounts().get(DedicatedHostPool.State.OCCUPIED));
+        // Described once, both pages, within the refresh interval
+        verify(ec2, times(2)).describeHosts(any(DescribeHostsRequest.class));
+    }
+
+    @Test
+    void testHostsWithoutAutoPlacementAreLeftAlone() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.describeHosts(any(DescribeHostsRequest.class)))
+                .thenReturn(DescribeHostsResponse.builder()
+                        .hosts(host("h-reserved", ZONE, AllocationState.AVAILABLE, 1, Instant.now(), AutoPlacement.OFF))
+                        .build());
+
+        DedicatedHostPool pool = new DedicatedHostPool("test");
+
+        assertNull(pool.claim(ec2, "mac2.metal", ZONE, 1));
+        assertTrue(pool.getStateCounts().isEmpty());
+    }
+
+    @Test
+    void testHostIsClaimedPerSlot() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.describeHosts(any(DescribeHostsRequest.class)))
+                .thenReturn(DescribeHostsResponse.builder()
+                        .hosts(host("h-shared", ZONE, AllocationState.AVAILABLE, 4, Instant.now()))
+                        .build());
+
+        DedicatedHostPool pool = new DedicatedHostPool("test");
+
+        DedicatedHostPool.Claim first = pool.claim(ec2, "mac2.metal", ZONE, 3);
+        assertEquals("h-shared", first.getHost().getHostId());
+        assertEquals(3, first.getSlots());
+        // Another launch still gets the slot left on the same host
+        DedicatedHostPool.Claim second = pool.claim(ec2, "mac2.metal", ZONE, 2);
+        assertEquals("h-shared", second.getHost().getHostId());
+        assertEquals(1, second.getSlots());
+        assertNull(pool.claim(ec2, "mac2.metal", ZONE, 1));
+
+        pool.unclaim(first);
+        assertEquals(3, pool.claim(ec2, "mac2.metal", ZONE, 5).getSlots());
+    }
+
+    @Test
+    void testRemainingMinimumAllocation() {
+        Instant now = Instant.now();
+        Instant allocated = now.minus(Duration.ofHours(20));
+        DedicatedHostPool.Entry recent =
+                new DedicatedHostPool.Entry(host("h-1", ZONE, AllocationState.AVAILABLE, 1, allocated));
+        assertEquals(Duration.ofHours(4), recent.getRemainingMinimumAllocation(now));
+        allocated = now.minus(Duration.ofDays(2));
+        DedicatedHostPool.Entry old =
+                new DedicatedHostPool.Entry(host("h-2", ZONE, AllocationState.AVAILABLE, 1, allocated));
+        assertEquals(Duration.ZERO, old.getRemainingMinimumAllocation(now));
+    }
+}
@@ -1,6 +1,9 @@
 package hudson.plugins.ec2;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import hudson.model.Node;
 import java.util.ArrayList;
@@ -11,7 +14,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.InstanceType;
+import software.amazon.awssdk.services.ec2.model.Tag;
 
 @WithJenkins
 class EC2AbstractSlaveTest {
@@ -171,4 +176,104 @@ class EC2AbstractSlaveTest {
                 };
         assertEquals(-1, slave.maxTotalUses);
     }
+
+    @Test
+    void testTemplateTagsAreSharedBetweenAgents() throws Exception {
+        EC2AbstractSlave first = createSlave("first");
+        EC2AbstractSlave second = createSlave("second");
+
+        first.updateFromFetchedInstance(instanceWithTags("i-1", "1000"));
+        second.updateFromFetchedInstance(instanceWithTags("i-2", "2000"));
+
+        assertSame(first.tags, second.tags);
+        assertThat(
+                first.getTags(),
+                containsInAnyOrder(
+                        new EC2Tag("team", "a"),
+                        new EC2Tag(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE, "demand"),
+                        new EC2Tag(EC2CleanupOrphanedNodes.NODE_EXPIRES_AT_TAG_NAME, "1000")));
+
+        // An unchanged remote tag set does not rebuild the lists
+        List<EC2Tag> shared = first.tags;
+        first.updateFromFetchedInstance(instanceWithTags("i-1", "1000"));
+        assertSame(shared, first.tags);
+    }
+
+    @Test
+    void testTemplateTagsAreSharedWhenUnchanged() throws Exception {
+        EC2AbstractSlave first = createSlave("first");
+        EC2AbstractSlave second = createSlave("second");
+        first.updateFromFetchedInstance(Instance.builder()
+                .instanceId("i-1")
+                .tags(Tag.builder().key("team").value("a").build())
+                .build());
+        second.updateFromFetchedInstance(Instance.builder()
+                .instanceId("i-2")
+                .tags(Tag.builder().key("team").value("a").build())
+                .build());
+
+        // The remote tags equal the ones the agents were created with, the lists are shared nonetheless
+        assertSame(first.tags, second.tags);
+    }
+
+    private static Instance instanceWithTags(String instanceId, String expiresAt) {
+        return Instance.builder()
+                .instanceId(instanceId)
+                .tags(
+                        Tag.builder()
+                                .key(EC2CleanupOrphanedNodes.NODE_EXPIRES_AT_TAG_NAME)
+                                .value(expiresAt)
+                                .build(),
+                        Tag.builder().key("team").value("a").build(),
+                        Tag.builder()
+                                .key(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE)
+                                .value("demand")
+                                .build())
+                .build();
+    }
+
+    private static EC2AbstractSlave createSlave(String name) throws Exception {
+        List<EC2Tag> tags = new ArrayList<>();
+        tags.add(new EC2Tag("team", "a"));
+        return new EC2AbstractSlave(
+                name,
+                "id",
+                "description",
+                "fs",
+                1,
+                null,
+                "label",
+                null,
+                null,
+                "init",
+                "tmpDir",
+                tags,
+                "root",
+                "java",
+                "jvm",
+                false,
+                "idle",
+                null,
+                "cloud",
+                Integer.MAX_VALUE,
+                new UnixData("remote", null, null, "22", null),
+                ConnectionStrategy.PRIVATE_IP,
+                -1,
+                Tenancy.Default,
+                EC2AbstractSlave.DEFAULT_METADATA_ENDPOINT_ENABLED,
+                EC2AbstractSlave.DEFAULT_METADATA_TOKENS_REQUIRED,
+                EC2AbstractSlave.DEFAULT_METADATA_HOPS_LIMIT,
+                EC2AbstractSlave.DEFAULT_METADATA_SUPPORTED,
+                EC2AbstractSlave.DEFAULT_ENCLAVE_ENABLED) {
+            @Override
+            public Future<?> terminate() {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public String getEc2Type() {
+                return null;
+            }
+        };
+    }
 }
@@ -2,15 +2,20 @@ package hudson.plugins.ec2;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 import jenkins.model.Jenkins;
@@ -19,13 +24,16 @@ import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.Reservation;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
 
 class EC2CleanupOrphanedNodesTest {
 
@@ -105,5 +113,121 @@ class EC2CleanupOrphanedNodesTest {
                 actualRequest.instanceIds(),
                 allOf(hasItem("i-orphaned"), not(hasItem("i-active1")), not(hasItem("i-active2"))));
         mockedJenkins.close();
+        mockedJenkinsLocation.close();
+    }
+
+    @Test
+    void testOrphansAreTerminatedInOneRequest() {
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        Ec2Client ec2Client = mock(Ec2Client.class);
+        when(cloud.connect()).thenReturn(ec2Client);
+        when(cloud.isCleanUpOrphanedNodes()).thenReturn(true);
+
+        Tag oldTag = Tag.builder()
+                .key(EC2CleanupOrphanedNodes.NODE_EXPIRES_AT_TAG_NAME)
+                .value("2024-01-01T00:00:00Z")
+                .build();
+        Instance orphaned1 = Instance.builder()
+                .instanceId("i-orphaned1")
+                .tags(oldTag)
+                .build();
+        Instance orphaned2 = Instance.builder()
+                .instanceId("i-orphaned2")
+                .tags(oldTag)
+                .build();
+
+        // Two pages of results
+        DescribeInstancesResponse page1 = DescribeInstancesResponse.builder()
+                .reservations(Reservation.builder().instances(orphaned1).build())
+                .nextToken("next")
+                .build();
+        DescribeInstancesResponse page2 = DescribeInstancesResponse.builder()
+                .reservations(Reservation.builder().instances(orphaned2).build())
+                .build();
+        when(ec2Client.describeInstances((DescribeInstancesRequest) any())).thenReturn(page1, page2);
+
+        Jenkins jenkins = mock(Jenkins.class);
+        try (MockedStatic<Jenkins> mockedJenkins = Mockito.mockStatic(Jenkins.class);
+                MockedStatic<JenkinsLocationConfiguration> mockedJenkinsLocation =
+                        Mockito.mockStatic(JenkinsLocationConfiguration.class)) {
+            mockedJenkins.when(Jenkins::get).thenReturn(jenkins);
+            when(jenkins.getNodes()).thenReturn(List.of());
+            JenkinsLocationConfiguration jenkinsLocation = mock(JenkinsLocationConfiguration.class);
+            mockedJenkinsLocation.when(JenkinsLocationConfiguration::get).thenReturn(jenkinsLocation);
+            when(jenkinsLocation.getUrl()).thenReturn("http://jenkins-test-url.com");
+
+            new EC2CleanupOrphanedNodes().cleanCloud(cloud);
+        }
+
+        ArgumentCaptor<Consumer<TerminateInstancesRequest.Builder>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(ec2Client, times(1)).terminateInstances(captor.capture());
+
+        TerminateInstancesRequest.Builder builder = TerminateInstancesRequest.builder();
+        captor.getValue().accept(builder);
+        assertThat(builder.build().instanceIds(), containsInAnyOrder("i-orphaned1", "i-orphaned2"));
+    }
+
+    @Test
+    void testOrphansAreTerminatedOneByOneWhenOneIsRejected() {
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        Ec2Client ec2Client = mock(Ec2Client.class);
+        when(cloud.connect()).thenReturn(ec2Client);
+        when(cloud.isCleanUpOrphanedNodes()).thenReturn(true);
+
+        Tag oldTag = Tag.builder()
+                .key(EC2CleanupOrphanedNodes.NODE_EXPIRES_AT_TAG_NAME)
+                .value("2024-01-01T00:00:00Z")
+                .build();
+        DescribeInstancesResponse page = DescribeInstancesResponse.builder()
+                .reservations(Reservation.builder()
+                        .instances(
+                                Instance.builder()
+                                        .instanceId("i-orphaned")
+                                        .tags(oldTag)
+                                        .build(),
+                                Instance.builder()
+                                        .instanceId("i-gone")
+                                        .tags(oldTag)
+                                        .build())
+                        .build())
+                .build();
+        when(ec2Client.describeInstances((DescribeInstancesRequest) any())).thenReturn(page);
+
+        List<List<String>> calls = new ArrayList<>();
+        doAnswer(invocation -> {
+                    Consumer<TerminateInstancesRequest.Builder> consumer = invocation.getArgument(0);
+                    TerminateInstancesRequest.Builder builder = TerminateInstancesRequest.builder();
+                    consumer.accept(builder);
+                    List<String> instanceIds = builder.build().instanceIds();
+                    calls.add(instanceIds);
+                    if (instanceIds.contains("i-gone")) {
+                        throw Ec2Exception.builder()
+                                .awsErrorDetails(AwsErrorDetails.builder()
+                                        .errorCode("InvalidInstanceID.NotFound")
+                                        .build())
+                                .build();
+                    }
+                    return TerminateInstancesResponse.builder().build();
+                })
+                .when(ec2Client)
+                .terminateInstances(any(Consumer.class));
+
+        Jenkins jenkins = mock(Jenkins.class);
+        try (MockedStatic<Jenkins> mockedJenkins = Mockito.mockStatic(Jenkins.class);
+                MockedStatic<JenkinsLocationConfiguration> mockedJenkinsLocation =
+                        Mockito.mockStatic(JenkinsLocationConfiguration.class)) {
+            mockedJenkins.when(Jenkins::get).thenReturn(jenkins);
+            when(jenkins.getNodes()).thenReturn(List.of());
+            JenkinsLocationConfiguration jenkinsLocation = mock(JenkinsLocationConfiguration.class);
+            mockedJenkinsLocation.when(JenkinsLocationConfiguration::get).thenReturn(jenkinsLocation);
+            when(jenkinsLocation.getUrl()).thenReturn("http://jenkins-test-url.com");
+
+            new EC2CleanupOrphanedNodes().cleanCloud(cloud);
+        }
+
+        // The rejected batch is retried one instance at a time, so the other orphan is still terminated
+        assertEquals(3, calls.size());
+        assertThat(calls.get(0), containsInAnyOrder("i-orphaned", "i-gone"));
+        assertThat(calls.subList(1, 3), containsInAnyOrder(List.of("i-orphaned"), List.of("i-gone")));
     }
 }
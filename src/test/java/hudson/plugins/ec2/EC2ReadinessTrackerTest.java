@@ -0,0 +1,122 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+
+@WithJenkins
+class EC2ReadinessTrackerTest {
+
+    private static EC2SpotSlave spot(String requestId) {
+        EC2SpotSlave spot = mock(EC2SpotSlave.class);
+        when(spot.getSpotInstanceRequestId()).thenReturn(requestId);
+        return spot;
+    }
+
+    private static SpotInstanceRequest request(String requestId, String instanceId) {
+        return SpotInstanceRequest.builder()
+                .spotInstanceRequestId(requestId)
+                .instanceId(instanceId)
+                .status(s -> s.message(instanceId == null ? "pending-fulfillment" : "fulfilled"))
+                .build();
+    }
+
+    @Test
+    void testSpotRequestsAreDescribedTogether(JenkinsRule r) throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.describeSpotInstanceRequests(any(DescribeSpotInstanceRequestsRequest.class)))
+                .thenReturn(DescribeSpotInstanceRequestsResponse.builder()
+                        .spotInstanceRequests(request("sir-1", "i-1"), request("sir-2", null))
+                        .build());
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        EC2SpotSlave fulfilled = spot("sir-1");
+        EC2SpotSlave waiting = spot("sir-2");
+
+        EC2ReadinessTracker tracker = new EC2ReadinessTracker(cloud);
+        List<String> log = new CopyOnWriteArrayList<>();
+        Thread other = new Thread(() -> {
+            try {
+                tracker.awaitReady(waiting, 3000, 100, log::add);
+            } catch (InterruptedException | SdkException e) {
+                // Never fulfilled
+            }
+        });
+        other.start();
+        while (log.isEmpty()) {
+            Thread.sleep(10);
+        }
+        tracker.awaitReady(fulfilled, 10000, 100, status -> {});
+        verify(fulfilled).update(any(SpotInstanceRequest.class));
+        verify(waiting, never()).update(any(SpotInstanceRequest.class));
+
+        SdkException e = assertThrows(SdkException.class, () -> tracker.awaitReady(waiting, 300, 100, status -> {}));
+        assertTrue(e.getMessage().endsWith("with status pending-fulfillment"), e.getMessage());
+        other.join();
+        assertTrue(log.contains("Node still not ready. Current status: pending-fulfillment"), log.toString());
+
+        ArgumentCaptor<DescribeSpotInstanceRequestsRequest> requests =
+                ArgumentCaptor.forClass(DescribeSpotInstanceRequestsRequest.class);
+        verify(ec2, atLeastOnce()).describeSpotInstanceRequests(requests.capture());
+        assertTrue(requests.getAllValues().stream()
+                .anyMatch(request -> request.spotInstanceRequestIds().size() == 2));
+    }
+
+    @Test
+    void testThrottledPageIsNotSplit(JenkinsRule r) throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.describeSpotInstanceRequests(any(DescribeSpotInstanceRequestsRequest.class)))
+                .thenThrow(Ec2Exception.builder()
+                        .message("Rate exceeded")
+                        .awsErrorDetails(AwsErrorDetails.builder()
+                                .errorCode("RequestLimitExceeded")
+                                .build())
+                        .build());
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        EC2SpotSlave first = spot("sir-1");
+        EC2SpotSlave second = spot("sir-2");
+
+        EC2ReadinessTracker tracker = new EC2ReadinessTracker(cloud);
+        Thread other = new Thread(() -> {
+            try {
+                tracker.awaitReady(first, 5000, 100, status -> {});
+            } catch (InterruptedException | SdkException e) {
+                // Never fulfilled
+            }
+        });
+        other.start();
+
+        SdkException e = assertThrows(SdkException.class, () -> tracker.awaitReady(second, 3000, 100, status -> {}));
+        assertTrue(e.getMessage().contains("Rate exceeded"), e.getMessage());
+        other.join();
+
+        // sir-2 was only pending along with sir-1, it was never described alone
+        ArgumentCaptor<DescribeSpotInstanceRequestsRequest> requests =
+                ArgumentCaptor.forClass(DescribeSpotInstanceRequestsRequest.class);
+        verify(ec2, atLeastOnce()).describeSpotInstanceRequests(requests.capture());
+        assertTrue(requests.getAllValues().stream()
+                .anyMatch(request -> request.spotInstanceRequestIds().size() == 2));
+        assertTrue(requests.getAllValues().stream()
+                .noneMatch(request -> request.spotInstanceRequestIds().equals(List.of("sir-2"))));
+    }
+}
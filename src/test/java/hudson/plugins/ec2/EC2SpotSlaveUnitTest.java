@@ -18,6 +18,8 @@ import org.mockito.ArgumentCaptor;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
 import software.amazon.awssdk.services.ec2.model.CreateTagsResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsRequest;
 import software.amazon.awssdk.services.ec2.model.DescribeSpotInstanceRequestsResponse;
 import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
@@ -35,6 +37,7 @@ class EC2SpotSlaveUnitTest {
         handler = new TestHandler();
         logger = Logger.getLogger(EC2SpotSlave.class.getName());
         logger.addHandler(handler);
+        Logger.getLogger(EC2TagWriter.class.getName()).addHandler(handler);
     }
 
     private EC2SpotSlave createSpotSlave(String spotRequestId, List<EC2Tag> tags) throws Exception {
@@ -79,6 +82,8 @@ class EC2SpotSlaveUnitTest {
                 .thenReturn(response);
         when(ec2.createTags(any(CreateTagsRequest.class)))
                 .thenReturn(CreateTagsResponse.builder().build());
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(DescribeInstancesResponse.builder().build());
 
         List<EC2Tag> tags = new ArrayList<>();
         tags.add(new EC2Tag("Name", "my-spot-instance"));
@@ -90,6 +95,7 @@ class EC2SpotSlaveUnitTest {
         String instanceId = slave.getInstanceId();
 
         assertEquals("i-abcdef", instanceId);
+        EC2TagWriter.flush();
 
         ArgumentCaptor<CreateTagsRequest> captor = ArgumentCaptor.forClass(CreateTagsRequest.class);
         verify(ec2).createTags(captor.capture());
@@ -128,6 +134,7 @@ class EC2SpotSlaveUnitTest {
         String instanceId = slave.getInstanceId();
 
         assertEquals("", instanceId);
+        EC2TagWriter.flush();
         verify(ec2, never()).createTags(any(CreateTagsRequest.class));
     }
 
@@ -143,6 +150,7 @@ class EC2SpotSlaveUnitTest {
         String instanceId = slave.getInstanceId();
 
         assertEquals("", instanceId);
+        EC2TagWriter.flush();
         verify(ec2, never()).createTags(any(CreateTagsRequest.class));
     }
 
@@ -169,6 +177,7 @@ class EC2SpotSlaveUnitTest {
         String instanceId = slave.getInstanceId();
 
         assertEquals("i-abcdef", instanceId);
+        EC2TagWriter.flush();
         verify(ec2, never()).createTags(any(CreateTagsRequest.class));
     }
 
@@ -189,6 +198,8 @@ class EC2SpotSlaveUnitTest {
         when(ec2.describeSpotInstanceRequests(any(DescribeSpotInstanceRequestsRequest.class)))
                 .thenReturn(response);
         when(ec2.createTags(any(CreateTagsRequest.class))).thenThrow(new RuntimeException("AWS API failure"));
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(DescribeInstancesResponse.builder().build());
 
         List<EC2Tag> tags = new ArrayList<>();
         tags.add(new EC2Tag("Name", "my-spot-instance"));
@@ -199,8 +210,9 @@ class EC2SpotSlaveUnitTest {
         String instanceId = slave.getInstanceId();
 
         assertEquals("i-abcdef", instanceId);
+        EC2TagWriter.flush();
         assertTrue(handler.getRecords().stream()
-                .anyMatch(r -> r.getMessage().contains("Failed to tag spot instance i-abcdef")));
+                .anyMatch(r -> r.getMessage().contains("Failed to tag instances [i-abcdef]")));
     }
 
     @Test
@@ -220,6 +232,7 @@ class EC2SpotSlaveUnitTest {
         String instanceId = slave.getInstanceId();
 
         assertEquals("i-already-set", instanceId);
+        EC2TagWriter.flush();
         verify(ec2, never()).describeSpotInstanceRequests(any(DescribeSpotInstanceRequestsRequest.class));
         verify(ec2, never()).createTags(any(CreateTagsRequest.class));
     }
@@ -0,0 +1,121 @@
+package hudson.plugins.ec2;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+
+class EC2StartupReconcilerTest {
+
+    private static DescribeInstancesResponse response(String nextToken, String... instanceIds) {
+        List<Instance> instances = new ArrayList<>();
+        for (String instanceId : instanceIds) {
+            instances.add(Instance.builder().instanceId(instanceId).build());
+        }
+        return DescribeInstancesResponse.builder()
+                .reservations(Reservation.builder().instances(instances).build())
+                .nextToken(nextToken)
+                .build();
+    }
+
+    @Test
+    void testInstancesAreFetchedInFewPaginatedCalls() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(response("token", "i-0"), response(null, "i-1"), response(null, "i-200"));
+
+        List<String> instanceIds = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            instanceIds.add("i-" + i);
+        }
+        CloudHelper.InstanceLookup lookup = CloudHelper.describeInstances(cloud, instanceIds);
+
+        // Missing instances are simply omitted
+        assertThat(lookup.instances.keySet(), containsInAnyOrder("i-0", "i-1", "i-200"));
+        assertTrue(lookup.failed.isEmpty());
+
+        ArgumentCaptor<DescribeInstancesRequest> captor = ArgumentCaptor.forClass(DescribeInstancesRequest.class);
+        verify(ec2, times(3)).describeInstances(captor.capture());
+        List<DescribeInstancesRequest> requests = captor.getAllValues();
+        assertEquals(200, requests.get(0).filters().get(0).values().size());
+        assertEquals("token", requests.get(1).nextToken());
+        assertEquals(50, requests.get(2).filters().get(0).values().size());
+    }
+
+    @Test
+    void testInstancesOfAFailedChunkAreNotReportedMissing() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(response(null, "i-0"))
+                .thenThrow(Ec2Exception.builder()
+                        .awsErrorDetails(AwsErrorDetails.builder()
+                                .errorCode("RequestLimitExceeded")
+                                .build())
+                        .build());
+
+        List<String> instanceIds = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            instanceIds.add("i-" + i);
+        }
+        CloudHelper.InstanceLookup lookup = CloudHelper.describeInstances(cloud, instanceIds);
+
+        assertThat(lookup.instances.keySet(), containsInAnyOrder("i-0"));
+        assertEquals(50, lookup.failed.size());
+        assertTrue(lookup.failed.contains("i-200"));
+        assertFalse(lookup.failed.contains("i-1"));
+    }
+
+    @Test
+    void testReconnectsAreBounded() {
+        List<CompletableFuture<Void>> launches = new ArrayList<>();
+        List<EC2Computer> computers = new ArrayList<>();
+        for (int i = 0; i <= EC2StartupReconciler.MAX_CONCURRENT_CONNECTS; i++) {
+            CompletableFuture<Void> launch = new CompletableFuture<>();
+            EC2Computer computer = mock(EC2Computer.class);
+            doReturn(launch).when(computer).connect(false);
+            launches.add(launch);
+            computers.add(computer);
+        }
+        try {
+            computers.forEach(EC2StartupReconciler::connect);
+
+            for (int i = 0; i < EC2StartupReconciler.MAX_CONCURRENT_CONNECTS; i++) {
+                verify(computers.get(i), timeout(5000)).connect(false);
+            }
+            EC2Computer last = computers.get(EC2StartupReconciler.MAX_CONCURRENT_CONNECTS);
+            verify(last, after(200).never()).connect(false);
+
+            // The next reconnect starts once a launch is done
+            launches.get(0).complete(null);
+            verify(last, timeout(5000)).connect(false);
+        } finally {
+            launches.forEach(launch -> launch.complete(null));
+        }
+    }
+}
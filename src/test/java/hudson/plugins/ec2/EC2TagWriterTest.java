@@ -0,0 +1,224 @@
+package hudson.plugins.ec2;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.CreateTagsResponse;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.EbsInstanceBlockDevice;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceBlockDeviceMapping;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+class EC2TagWriterTest {
+
+    private static Instance instanceWithVolume(String instanceId, String volumeId) {
+        return Instance.builder()
+                .instanceId(instanceId)
+                .blockDeviceMappings(InstanceBlockDeviceMapping.builder()
+                        .ebs(EbsInstanceBlockDevice.builder().volumeId(volumeId).build())
+                        .build())
+                .build();
+    }
+
+    private static Ec2Exception notFound(String resource) {
+        return Ec2Exception.builder()
+                .message("The instance ID '" + resource + "' does not exist")
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("InvalidInstanceID.NotFound")
+                        .build())
+                .build();
+    }
+
+    private static List<List<String>> recordCreateTags(Ec2Client ec2, Set<String> unknown) {
+        List<List<String>> calls = new ArrayList<>();
+        when(ec2.createTags(any(CreateTagsRequest.class))).thenAnswer(invocation -> {
+            List<String> resources = invocation.getArgument(0, CreateTagsRequest.class).resources();
+            calls.add(resources);
+            for (String resource : resources) {
+                if (unknown.contains(resource)) {
+                    throw notFound(resource);
+                }
+            }
+            return CreateTagsResponse.builder().build();
+        });
+        return calls;
+    }
+
+    @Test
+    void testUpdatesWithSameTagsAreMergedIntoOneRequest() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(DescribeInstancesResponse.builder()
+                        .reservations(Reservation.builder()
+                                .instances(instanceWithVolume("i-1", "vol-1"), instanceWithVolume("i-2", "vol-2"))
+                                .build())
+                        .build());
+
+        Set<Tag> templateTags = Set.of(Tag.builder().key("team").value("a").build());
+        Set<Tag> otherTags = Set.of(Tag.builder().key("team").value("b").build());
+        EC2TagWriter.createTags(cloud, "i-1", true, templateTags);
+        EC2TagWriter.createTags(cloud, "i-2", true, templateTags);
+        EC2TagWriter.createTags(cloud, "i-3", false, otherTags);
+        EC2TagWriter.flush();
+
+        // Volumes of all queued instances are resolved with a single call
+        verify(ec2, times(1)).describeInstances(any(DescribeInstancesRequest.class));
+
+        ArgumentCaptor<CreateTagsRequest> captor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+        verify(ec2, times(2)).createTags(captor.capture());
+        List<CreateTagsRequest> requests = captor.getAllValues();
+        assertThat(requests.get(0).resources(), containsInAnyOrder("i-1", "vol-1", "i-2", "vol-2"));
+        assertEquals(templateTags, Set.copyOf(requests.get(0).tags()));
+        assertThat(requests.get(1).resources(), contains("i-3"));
+        assertEquals(otherTags, Set.copyOf(requests.get(1).tags()));
+    }
+
+    @Test
+    void testDeletionsAreSentBeforeCreations() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+
+        Set<Tag> tags = Set.of(Tag.builder().key("team").value("a").build());
+        EC2TagWriter.createTags(cloud, "i-1", false, tags);
+        EC2TagWriter.deleteTags(cloud, "i-1", false, tags);
+        EC2TagWriter.flush();
+
+        InOrder order = inOrder(ec2);
+        order.verify(ec2).deleteTags(any(DeleteTagsRequest.class));
+        order.verify(ec2).createTags(any(CreateTagsRequest.class));
+    }
+
+    @Test
+    void testUpdateOfInstanceNotVisibleYetIsRetried() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        Set<String> unknown = new HashSet<>(Set.of("i-1"));
+        List<List<String>> calls = recordCreateTags(ec2, unknown);
+
+        EC2TagWriter.createTags(cloud, "i-1", false, Set.of(Tag.builder().key("team").value("a").build()));
+        EC2TagWriter.flush();
+        unknown.clear();
+        EC2TagWriter.flush();
+
+        assertEquals(List.of(List.of("i-1"), List.of("i-1")), calls);
+    }
+
+    @Test
+    void testUpdateIsDroppedAfterMaxAttempts() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        List<List<String>> calls = recordCreateTags(ec2, Set.of("i-gone"));
+
+        EC2TagWriter.createTags(cloud, "i-gone", false, Set.of(Tag.builder().key("team").value("a").build()));
+        for (int i = 0; i <= EC2TagWriter.MAX_ATTEMPTS; i++) {
+            EC2TagWriter.flush();
+        }
+
+        assertEquals(EC2TagWriter.MAX_ATTEMPTS, calls.size());
+    }
+
+    @Test
+    void testUpdateFailingWithAwsServiceErrorIsNotRetried() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        when(ec2.createTags(any(CreateTagsRequest.class)))
+                .thenThrow(Ec2Exception.builder()
+                        .message("You are not authorized to perform this operation")
+                        .awsErrorDetails(AwsErrorDetails.builder()
+                                .errorCode("UnauthorizedOperation")
+                                .build())
+                        .build());
+
+        EC2TagWriter.createTags(cloud, "i-1", false, Set.of(Tag.builder().key("team").value("a").build()));
+        EC2TagWriter.flush();
+        EC2TagWriter.flush();
+
+        verify(ec2, times(1)).createTags(any(CreateTagsRequest.class));
+    }
+
+    @Test
+    void testOnlyTheUnknownInstanceOfARequestIsRetried() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        List<List<String>> calls = recordCreateTags(ec2, Set.of("i-gone"));
+
+        Set<Tag> tags = Set.of(Tag.builder().key("team").value("a").build());
+        EC2TagWriter.createTags(cloud, "i-1", false, tags);
+        EC2TagWriter.createTags(cloud, "i-gone", false, tags);
+        EC2TagWriter.createTags(cloud, "i-2", false, tags);
+        EC2TagWriter.flush();
+
+        // The merged request is rejected, then the instances are tagged one by one
+        assertEquals(
+                List.of(List.of("i-1", "i-gone", "i-2"), List.of("i-1"), List.of("i-gone"), List.of("i-2")), calls);
+
+        calls.clear();
+        EC2TagWriter.flush();
+        assertEquals(List.of(List.of("i-gone")), calls);
+
+        // The unknown instance is given up on after its own attempts, as usual
+        for (int i = 0; i < EC2TagWriter.MAX_ATTEMPTS; i++) {
+            EC2TagWriter.flush();
+        }
+        assertEquals(EC2TagWriter.MAX_ATTEMPTS - 1, calls.size());
+    }
+
+    @Test
+    void testUpdateIsRetriedWhenItsVolumesAreNotResolved() {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        when(ec2.describeInstances(any(DescribeInstancesRequest.class)))
+                .thenReturn(
+                        DescribeInstancesResponse.builder()
+                                .reservations(Reservation.builder()
+                                        .instances(instanceWithVolume("i-1", "vol-1"))
+                                        .build())
+                                .build(),
+                        DescribeInstancesResponse.builder()
+                                .reservations(Reservation.builder()
+                                        .instances(instanceWithVolume("i-2", "vol-2"))
+                                        .build())
+                                .build());
+        List<List<String>> calls = recordCreateTags(ec2, Set.of());
+
+        Set<Tag> tags = Set.of(Tag.builder().key("team").value("a").build());
+        EC2TagWriter.createTags(cloud, "i-1", true, tags);
+        EC2TagWriter.createTags(cloud, "i-2", true, tags);
+        EC2TagWriter.flush();
+        EC2TagWriter.flush();
+
+        // i-2 was not found at first, it is not tagged without its volumes
+        assertEquals(List.of(List.of("i-1", "vol-1"), List.of("i-2", "vol-2")), calls);
+    }
+}
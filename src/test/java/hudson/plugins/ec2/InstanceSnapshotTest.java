@@ -0,0 +1,60 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.InstanceType;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+class InstanceSnapshotTest {
+
+    @Test
+    void testSnapshotKeepsReadFields() {
+        Instant launchTime = Instant.parse("2024-01-01T00:00:00Z");
+        Instance instance = Instance.builder()
+                .instanceId("i-1")
+                .state(s -> s.name(InstanceStateName.RUNNING))
+                .launchTime(launchTime)
+                .instanceType(InstanceType.MAC2_METAL)
+                .privateIpAddress("10.0.0.1")
+                .publicDnsName("ec2-1.compute.amazonaws.com")
+                .tags(Tag.builder().key("team").value("a").build())
+                .build();
+
+        InstanceSnapshot snapshot = InstanceSnapshot.of(instance);
+        assertEquals("i-1", snapshot.getInstanceId());
+        assertEquals(InstanceState.RUNNING, snapshot.getState());
+        assertFalse(snapshot.isTerminated());
+        assertEquals(launchTime, snapshot.getLaunchTime());
+        assertEquals("mac2.metal", snapshot.getInstanceType());
+        assertEquals(List.of(new EC2Tag("team", "a")), snapshot.getTags());
+
+        Instance rebuilt = snapshot.toInstance();
+        assertEquals(InstanceStateName.RUNNING, rebuilt.state().name());
+        assertEquals(InstanceType.MAC2_METAL, rebuilt.instanceType());
+        assertEquals("10.0.0.1", rebuilt.privateIpAddress());
+        assertEquals("ec2-1.compute.amazonaws.com", rebuilt.publicDnsName());
+    }
+
+    @Test
+    void testSnapshotWithoutState() {
+        InstanceSnapshot snapshot =
+                InstanceSnapshot.of(Instance.builder().instanceId("i-2").build());
+        assertNull(snapshot.getState());
+        assertFalse(snapshot.isTerminated());
+        assertNull(snapshot.toInstance().state());
+
+        InstanceSnapshot terminated = InstanceSnapshot.of(Instance.builder()
+                .instanceId("i-3")
+                .state(s -> s.name(InstanceStateName.TERMINATED))
+                .build());
+        assertTrue(terminated.isTerminated());
+    }
+}
@@ -0,0 +1,90 @@
+package hudson.plugins.ec2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstanceTypesResponse;
+import software.amazon.awssdk.services.ec2.model.InstanceTypeHypervisor;
+import software.amazon.awssdk.services.ec2.model.InstanceTypeInfo;
+
+@WithJenkins
+class InstanceTypeCatalogueTest {
+
+    private JenkinsRule r;
+
+    @BeforeEach
+    void setUp(JenkinsRule rule) {
+        r = rule;
+    }
+
+    @AfterEach
+    void tearDown() {
+        InstanceTypeCatalogue.clear();
+    }
+
+    private static InstanceTypeInfo info(String type, InstanceTypeHypervisor hypervisor, int vCpus) {
+        return InstanceTypeInfo.builder()
+                .instanceType(type)
+                .hypervisor(hypervisor)
+                .vCpuInfo(v -> v.defaultVCpus(vCpus))
+                .memoryInfo(m -> m.sizeInMiB(1024L * vCpus))
+                .processorInfo(p -> p.supportedArchitecturesWithStrings("x86_64"))
+                .networkInfo(n -> n.networkPerformance("Up to 12.5 Gigabit"))
+                .burstablePerformanceSupported(type.startsWith("t"))
+                .build();
+    }
+
+    @Test
+    void testAllPagesAreDescribedAndSavedOnDisk() throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.describeInstanceTypes(any(DescribeInstanceTypesRequest.class)))
+                .thenReturn(
+                        DescribeInstanceTypesResponse.builder()
+                                .instanceTypes(info("t3.micro", InstanceTypeHypervisor.NITRO, 2))
+                                .nextToken("next")
+                                .build(),
+                        DescribeInstanceTypesResponse.builder()
+                                .instanceTypes(info("m4.large", InstanceTypeHypervisor.XEN, 2))
+                                .build());
+
+        InstanceTypeCatalogue catalogue = new InstanceTypeCatalogue("test-region-1");
+        catalogue.refresh(ec2);
+        verify(ec2, times(2)).describeInstanceTypes(any(DescribeInstanceTypesRequest.class));
+
+        InstanceTypeCatalogue.Entry t3 = catalogue.find("t3.micro");
+        assertNotNull(t3);
+        assertTrue(t3.isNitro());
+        assertTrue(t3.isBurstable());
+        assertEquals(2, t3.getVCpus());
+        assertEquals(2048, t3.getMemoryMiB());
+        assertEquals("x86_64", t3.getArchitectures().get(0));
+
+        InstanceTypeCatalogue.Entry m4 = catalogue.find("m4.large");
+        assertNotNull(m4);
+        assertFalse(m4.isNitro());
+        assertFalse(m4.isBurstable());
+        assertNull(catalogue.find("x9.huge"));
+
+        assertTrue(new File(r.jenkins.getRootDir(), "ec2-instance-types/test-region-1.xml").exists());
+        InstanceTypeCatalogue reloaded = new InstanceTypeCatalogue("test-region-1");
+        reloaded.load();
+        assertNotNull(reloaded.find("m4.large"));
+        assertTrue(reloaded.find("t3.micro").isNitro());
+    }
+}
@@ -9,7 +9,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -20,19 +19,13 @@ import jenkins.model.Jenkins;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.Issue;
-import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
-import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkException;
-import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.BlockDeviceMapping;
-import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
-import software.amazon.awssdk.services.ec2.model.CreateTagsResponse;
 import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
 import software.amazon.awssdk.services.ec2.model.EbsBlockDevice;
 import software.amazon.awssdk.services.ec2.model.Filter;
 import software.amazon.awssdk.services.ec2.model.Image;
 import software.amazon.awssdk.services.ec2.model.InstanceType;
-import software.amazon.awssdk.services.ec2.model.Tag;
 
 class SlaveTemplateUnitTest {
 
@@ -46,214 +39,6 @@ class SlaveTemplateUnitTest {
         logger.addHandler(handler);
     }
 
-    @Test
-    void testUpdateRemoteTags() throws Exception {
-        Ec2Client ec2 = new Ec2Client() {
-            @Override
-            public CreateTagsResponse createTags(CreateTagsRequest createTagsRequest) {
-                return null;
-            }
-
-            @Override
-            public void close() {}
-
-            @Override
-            public String serviceName() {
-                return "AmazonEC2";
-            }
-        };
-
-        String ami = "ami1";
-        String description = "foo ami";
-
-        EC2Tag tag1 = new EC2Tag("name1", "value1");
-        EC2Tag tag2 = new EC2Tag("name2", "value2");
-        List<EC2Tag> tags = new ArrayList<>();
-        tags.add(tag1);
-        tags.add(tag2);
-        String instanceId = "123";
-
-        SlaveTemplate orig =
-                new SlaveTemplate(
-                        ami,
-                        EC2AbstractSlave.TEST_ZONE,
-                        null,
-                        "default",
-                        "foo",
-                        InstanceType.M1_LARGE.toString(),
-                        false,
-                        "ttt",
-                        Node.Mode.NORMAL,
-                        description,
-                        "bar",
-                        "bbb",
-                        "aaa",
-                        "10",
-                        "fff",
-                        null,
-                        EC2AbstractSlave.DEFAULT_JAVA_PATH,
-                        "-Xmx1g",
-                        false,
-                        "subnet 456",
-                        tags,
-                        null,
-                        0,
-                        0,
-                        null,
-                        "",
-                        false,
-                        true,
-                        "",
-                        false,
-                        "",
-                        false,
-                        false,
-                        false,
-                        ConnectionStrategy.PRIVATE_IP,
-                        -1,
-                        Collections.emptyList(),
-                        null,
-                        Tenancy.Default,
-                        EbsEncryptRootVolume.DEFAULT,
-                        EC2AbstractSlave.DEFAULT_METADATA_ENDPOINT_ENABLED,
-                        EC2AbstractSlave.DEFAULT_METADATA_TOKENS_REQUIRED,
-                        EC2AbstractSlave.DEFAULT_METADATA_HOPS_LIMIT,
-                        EC2AbstractSlave.DEFAULT_METADATA_SUPPORTED,
-                        EC2AbstractSlave.DEFAULT_ENCLAVE_ENABLED) {
-                    @Override
-                    protected Object readResolve() {
-                        return null;
-                    }
-                };
-
-        ArrayList<Tag> awsTags = new ArrayList<>();
-        awsTags.add(Tag.builder()
-                .key(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE)
-                .value("value1")
-                .build());
-        awsTags.add(Tag.builder()
-                .key(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE)
-                .value("value2")
-                .build());
-
-        Method updateRemoteTags = SlaveTemplate.class.getDeclaredMethod(
-                "updateRemoteTags", Ec2Client.class, Collection.class, String.class, String[].class);
-        updateRemoteTags.setAccessible(true);
-        final Object[] params = {ec2, awsTags, "InvalidInstanceRequestID.NotFound", new String[] {instanceId}};
-        updateRemoteTags.invoke(orig, params);
-        assertEquals(0, handler.getRecords().size());
-    }
-
-    @Test
-    void testUpdateRemoteTagsInstanceNotFound() throws Exception {
-        Ec2Client ec2 = new Ec2Client() {
-            @Override
-            public CreateTagsResponse createTags(CreateTagsRequest createTagsRequest) {
-                AwsServiceException e = AwsServiceException.builder()
-                        .message("Instance not found - InvalidInstanceRequestID.NotFound")
-                        .awsErrorDetails(AwsErrorDetails.builder()
-                                .errorCode("InvalidInstanceRequestID.NotFound")
-                                .build())
-                        .build();
-                throw e;
-            }
-
-            @Override
-            public void close() {}
-
-            @Override
-            public String serviceName() {
-                return "AmazonEC2";
-            }
-        };
-
-        String ami = "ami1";
-        String description = "foo ami";
-
-        EC2Tag tag1 = new EC2Tag("name1", "value1");
-        EC2Tag tag2 = new EC2Tag("name2", "value2");
-        List<EC2Tag> tags = new ArrayList<>();
-        tags.add(tag1);
-        tags.add(tag2);
-        String instanceId = "123";
-
-        SlaveTemplate orig =
-                new SlaveTemplate(
-                        ami,
-                        EC2AbstractSlave.TEST_ZONE,
-                        null,
-                        "default",
-                        "foo",
-                        InstanceType.M1_LARGE.toString(),
-                        false,
-                        "ttt",
-                        Node.Mode.NORMAL,
-                        description,
-                        "bar",
-                        "bbb",
-                        "aaa",
-                        "10",
-                        "fff",
-                        null,
-                        EC2AbstractSlave.DEFAULT_JAVA_PATH,
-                        "-Xmx1g",
-                        false,
-                        "subnet 456",
-                        tags,
-                        null,
-                        0,
-                        0,
-                        null,
-                        "",
-                        false,
-                        true,
-                        "",
-                        false,
-                        "",
-                        false,
-                        false,
-                        false,
-                        ConnectionStrategy.PRIVATE_IP,
-                        -1,
-                        Collections.emptyList(),
-                        null,
-                        Tenancy.Default,
-                        EbsEncryptRootVolume.DEFAULT,
-                        EC2AbstractSlave.DEFAULT_METADATA_ENDPOINT_ENABLED,
-                        EC2AbstractSlave.DEFAULT_METADATA_TOKENS_REQUIRED,
-                        EC2AbstractSlave.DEFAULT_METADATA_HOPS_LIMIT,
-                        EC2AbstractSlave.DEFAULT_METADATA_SUPPORTED,
-                        EC2AbstractSlave.DEFAULT_ENCLAVE_ENABLED) {
-                    @Override
-                    protected Object readResolve() {
-                        return null;
-                    }
-                };
-
-        ArrayList<Tag> awsTags = new ArrayList<>();
-        awsTags.add(Tag.builder()
-                .key(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE)
-                .value("value1")
-                .build());
-        awsTags.add(Tag.builder()
-                .key(EC2Tag.TAG_NAME_JENKINS_SLAVE_TYPE)
-                .value("value2")
-                .build());
-
-        Method updateRemoteTags = SlaveTemplate.class.getDeclaredMethod(
-                "updateRemoteTags", Ec2Client.class, Collection.class, String.class, String[].class);
-        updateRemoteTags.setAccessible(true);
-        final Object[] params = {ec2, awsTags, "InvalidSpotInstanceRequestID.NotFound", new String[] {instanceId}};
-        updateRemoteTags.invoke(orig, params);
-
-        assertEquals(5, handler.getRecords().size());
-
-        for (LogRecord logRecord : handler.getRecords()) {
-            String log = logRecord.getThrown().getMessage();
-            assertTrue(log.contains("Instance not found - InvalidInstanceRequestID.NotFound"));
-        }
-    }
-
     private void doTestMakeDescribeImagesRequest(
             SlaveTemplate template,
             String testImageId,
@@ -1243,187 +1028,6 @@ class SlaveTemplateUnitTest {
         assertEquals("subnet-123", subnet3);
     }
 
-    @Test
-    void testTagSpotInstanceSuccess() throws Exception {
-        List<CreateTagsRequest> capturedRequests = new ArrayList<>();
-        Ec2Client ec2 = new Ec2Client() {
-            @Override
-            public CreateTagsResponse createTags(CreateTagsRequest createTagsRequest) {
-                capturedRequests.add(createTagsRequest);
-                return CreateTagsResponse.builder().build();
-            }
-
-            @Override
-            public void close() {}
-
-            @Override
-            public String serviceName() {
-                return "AmazonEC2";
-            }
-        };
-
-        SlaveTemplate template =
-                new SlaveTemplate(
-                        "ami1",
-                        EC2AbstractSlave.TEST_ZONE,
-                        null,
-                        "default",
-                        "foo",
-                        InstanceType.M1_LARGE.toString(),
-                        false,
-                        "ttt",
-                        Node.Mode.NORMAL,
-                        "foo ami",
-                        "bar",
-                        "bbb",
-                        "aaa",
-                        "10",
-                        "fff",
-                        null,
-                        EC2AbstractSlave.DEFAULT_JAVA_PATH,
-                        "-Xmx1g",
-                        false,
-                        "subnet 456",
-                        null,
-                        null,
-                        0,
-                        0,
-                        null,
-                        "",
-                        false,
-                        true,
-                        "",
-                        false,
-                        "",
-                        false,
-                        false,
-                        false,
-                        ConnectionStrategy.PRIVATE_IP,
-                        -1,
-                        Collections.emptyList(),
-                        null,
-                        Tenancy.Default,
-                        EbsEncryptRootVolume.DEFAULT,
-                        EC2AbstractSlave.DEFAULT_METADATA_ENDPOINT_ENABLED,
-                        EC2AbstractSlave.DEFAULT_METADATA_TOKENS_REQUIRED,
-                        EC2AbstractSlave.DEFAULT_METADATA_HOPS_LIMIT,
-                        EC2AbstractSlave.DEFAULT_METADATA_SUPPORTED,
-                        EC2AbstractSlave.DEFAULT_ENCLAVE_ENABLED) {
-                    @Override
-                    protected Object readResolve() {
-                        return null;
-                    }
-                };
-
-        ArrayList<Tag> instTags = new ArrayList<>();
-        instTags.add(Tag.builder().key("Name").value("test-instance").build());
-        instTags.add(Tag.builder().key("Environment").value("dev").build());
-
-        Method tagSpotInstance = SlaveTemplate.class.getDeclaredMethod(
-                "tagSpotInstance", Ec2Client.class, String.class, Collection.class);
-        tagSpotInstance.setAccessible(true);
-        tagSpotInstance.invoke(template, ec2, "i-12345", instTags);
-
-        assertEquals(1, capturedRequests.size());
-        CreateTagsRequest request = capturedRequests.get(0);
-        assertEquals(Collections.singletonList("i-12345"), request.resources());
-        assertEquals(2, request.tags().size());
-        assertTrue(request.tags()
-                .contains(Tag.builder().key("Name").value("test-instance").build()));
-        assertTrue(request.tags()
-                .contains(Tag.builder().key("Environment").value("dev").build()));
-    }
-
-    @Test
-    void testTagSpotInstanceHandlesAwsServiceException() throws Exception {
-        Ec2Client ec2 = new Ec2Client() {
-            @Override
-            public CreateTagsResponse createTags(CreateTagsRequest createTagsRequest) {
-                throw AwsServiceException.builder()
-                        .message("Instance not found")
-                        .awsErrorDetails(AwsErrorDetails.builder()
-                                .errorCode("InvalidInstanceID.NotFound")
-                                .errorMessage("The instance ID 'i-99999' does not exist")
-                                .build())
-                        .build();
-            }
-
-            @Override
-            public void close() {}
-
-            @Override
-            public String serviceName() {
-                return "AmazonEC2";
-            }
-        };
-
-        SlaveTemplate template =
-                new SlaveTemplate(
-                        "ami1",
-                        EC2AbstractSlave.TEST_ZONE,
-                        null,
-                        "default",
-                        "foo",
-                        InstanceType.M1_LARGE.toString(),
-                        false,
-                        "ttt",
-                        Node.Mode.NORMAL,
-                        "foo ami",
-                        "bar",
-                        "bbb",
-                        "aaa",
-                        "10",
-                        "fff",
-                        null,
-                        EC2AbstractSlave.DEFAULT_JAVA_PATH,
-                        "-Xmx1g",
-                        false,
-                        "subnet 456",
-                        null,
-                        null,
-                        0,
-                        0,
-                        null,
-                        "",
-                        false,
-                        true,
-                        "",
-                        false,
-                        "",
-                        false,
-                        false,
-                        false,
-                        ConnectionStrategy.PRIVATE_IP,
-                        -1,
-                        Collections.emptyList(),
-                        null,
-                        Tenancy.Default,
-                        EbsEncryptRootVolume.DEFAULT,
-                        EC2AbstractSlave.DEFAULT_METADATA_ENDPOINT_ENABLED,
-                        EC2AbstractSlave.DEFAULT_METADATA_TOKENS_REQUIRED,
-                        EC2AbstractSlave.DEFAULT_METADATA_HOPS_LIMIT,
-                        EC2AbstractSlave.DEFAULT_METADATA_SUPPORTED,
-                        EC2AbstractSlave.DEFAULT_ENCLAVE_ENABLED) {
-                    @Override
-                    protected Object readResolve() {
-                        return null;
-                    }
-                };
-
-        ArrayList<Tag> instTags = new ArrayList<>();
-        instTags.add(Tag.builder().key("Name").value("test-instance").build());
-
-        Method tagSpotInstance = SlaveTemplate.class.getDeclaredMethod(
-                "tagSpotInstance", Ec2Client.class, String.class, Collection.class);
-        tagSpotInstance.setAccessible(true);
-
-        // Should not throw - exception is caught internally and logged as warning
-        tagSpotInstance.invoke(template, ec2, "i-99999", instTags);
-
-        assertTrue(handler.getRecords().stream()
-                .anyMatch(r -> r.getMessage().contains("Failed to tag spot instance i-99999")));
-    }
-
     @Issue("JENKINS-59460")
     @Test
     void testConnectionStrategyDeprecatedFieldsAreExported() {
@@ -1,15 +1,18 @@
 package hudson.plugins.ec2;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 import hudson.plugins.ec2.win.winrm.request.DeleteShellRequest;
 import hudson.plugins.ec2.win.winrm.request.ExecuteCommandRequest;
 import hudson.plugins.ec2.win.winrm.request.GetOutputRequest;
 import hudson.plugins.ec2.win.winrm.request.OpenShellRequest;
+import hudson.plugins.ec2.win.winrm.request.RequestFactory;
 import hudson.plugins.ec2.win.winrm.request.SendInputRequest;
 import hudson.plugins.ec2.win.winrm.request.SignalRequest;
 import hudson.plugins.ec2.win.winrm.soap.Namespaces;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import org.dom4j.Document;
 import org.dom4j.DocumentHelper;
 import org.dom4j.XPath;
@@ -89,6 +92,43 @@ class WinRMMessageTest {
                 xpath("//rsp:Signal[@CommandId=\"COMMANDID\"]/rsp:Code", r.build()));
     }
 
+    @Test
+    void testEnvelopesMatchTheirRequests() throws Exception {
+        RequestFactory factory = new RequestFactory(url);
+        factory.setTimeout("PT30S");
+
+        Document execute = parse(factory.newExecuteCommandEnvelope("SHELLID", "echo a&b <c>"));
+        assertEquals("http://schemas.microsoft.com/wbem/wsman/1/windows/shell/Command", xpath("//a:Action", execute));
+        assertEquals("http://localhost", xpath("//a:To", execute));
+        assertEquals("PT30S", xpath("//w:OperationTimeout", execute));
+        assertEquals("SHELLID", xpath("//w:Selector[@Name=\"ShellId\"]", execute));
+        assertEquals("\"echo a&b <c>\"", xpath("//rsp:CommandLine/rsp:Command", execute));
+
+        Document send = parse(factory.newSendInputEnvelope(new byte[] {31, 32}, "SHELLID", "COMMANDID"));
+        assertEquals("HyA=", xpath("//rsp:Send/rsp:Stream[@CommandId=\"COMMANDID\"]", send));
+
+        Document receive = parse(factory.newGetOutputEnvelope("SHELLID", "COMMANDID"));
+        assertEquals("stdout stderr", xpath("//rsp:Receive/rsp:DesiredStream[@CommandId=\"COMMANDID\"]", receive));
+
+        Document signal = parse(factory.newSignalEnvelope("SHELLID", "COMMANDID"));
+        assertEquals(
+                "http://schemas.microsoft.com/wbem/wsman/1/windows/shell/signal/terminate",
+                xpath("//rsp:Signal[@CommandId=\"COMMANDID\"]/rsp:Code", signal));
+
+        Document delete = parse(factory.newDeleteShellEnvelope("SHELLID"));
+        assertEquals("http://schemas.xmlsoap.org/ws/2004/09/transfer/Delete", xpath("//a:Action", delete));
+
+        Document open = parse(factory.newOpenShellEnvelope());
+        assertEquals("stdout stderr", xpath("//env:Body/rsp:Shell/rsp:OutputStreams", open));
+
+        // Each envelope is a new message
+        assertNotEquals(xpath("//a:MessageID", open), xpath("//a:MessageID", parse(factory.newOpenShellEnvelope())));
+    }
+
+    private static Document parse(byte[] envelope) throws Exception {
+        return DocumentHelper.parseText(new String(envelope, StandardCharsets.UTF_8));
+    }
+
     private String xpath(String xpath, Document doc) {
         XPath xp = DocumentHelper.createXPath(xpath);
         xp.setNamespaceContext(namespaceContext);
@@ -0,0 +1,63 @@
+package hudson.plugins.ec2.ssh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class AmiCapabilitiesTest {
+
+    @AfterEach
+    void tearDown() {
+        AmiCapabilities.clear();
+    }
+
+    @Test
+    void testFingerprintIsRecordedPerAmiAndJavaPath() {
+        assertNull(AmiCapabilities.get("ami-1", "java", null, true));
+
+        AmiCapabilities.record("ami-1", "java", null, "openjdk full version \"17.0.12+7\"", true);
+        AmiCapabilities.Fingerprint fingerprint = AmiCapabilities.get("ami-1", "java", null, true);
+        assertNotNull(fingerprint);
+        assertEquals("openjdk full version \"17.0.12+7\"", fingerprint.getJavaVersion());
+
+        assertNull(AmiCapabilities.get("ami-1", "/opt/jdk/bin/java", null, true));
+        assertNull(AmiCapabilities.get("ami-2", "java", null, true));
+    }
+
+    @Test
+    void testFingerprintIsForgottenAfterFailedLaunch() {
+        AmiCapabilities.record("ami-1", "java", null, null, true);
+        AmiCapabilities.record("ami-1", "java", "install-java.sh", null, true);
+        AmiCapabilities.forget("ami-1");
+        assertNull(AmiCapabilities.get("ami-1", "java", null, true));
+        assertNull(AmiCapabilities.get("ami-1", "java", "install-java.sh", true));
+    }
+
+    @Test
+    void testUnknownAmiIsNotRecorded() {
+        AmiCapabilities.record(null, "java", null, null, true);
+        assertNull(AmiCapabilities.get(null, "java", null, true));
+    }
+
+    @Test
+    void testFingerprintIsRecordedPerInitScript() {
+        // The init script of this template installed java
+        AmiCapabilities.record("ami-1", "java", "install-java.sh", null, true);
+
+        assertNotNull(AmiCapabilities.get("ami-1", "java", "install-java.sh", true));
+        assertNull(AmiCapabilities.get("ami-1", "java", null, true));
+        assertNull(AmiCapabilities.get("ami-1", "java", "other.sh", true));
+    }
+
+    @Test
+    void testFingerprintWithoutScpIsNotUsedWhenScpIsNeeded() {
+        AmiCapabilities.record("ami-1", "java", null, null, false);
+
+        assertNotNull(AmiCapabilities.get("ami-1", "java", null, false));
+        assertNull(AmiCapabilities.get("ami-1", "java", null, true));
+        assertEquals("java", AmiCapabilities.get("ami-1", "java", null, false).toString());
+    }
+}
@@ -0,0 +1,68 @@
+package hudson.plugins.ec2.ssh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BootstrapAuthBackoffTest {
+
+    @AfterEach
+    void tearDown() {
+        BootstrapAuthBackoff.clearStats();
+    }
+
+    @Test
+    void testDelayGrowsUpToMaximum() {
+        BootstrapAuthBackoff backoff = new BootstrapAuthBackoff("ami-1", Instant.now(), 2000, 0);
+        long first = backoff.nextDelay();
+        assertTrue(first >= 240 && first <= 360, "first delay " + first);
+        long second = backoff.nextDelay();
+        assertTrue(second >= 480 && second <= 720, "second delay " + second);
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelay();
+        }
+        assertTrue(backoff.nextDelay() <= 2400);
+        assertEquals(13, backoff.getAttempts());
+    }
+
+    @Test
+    void testDelayIsCappedByLaunchTimeout() throws Exception {
+        BootstrapAuthBackoff backoff = new BootstrapAuthBackoff("ami-1", Instant.now(), 30000, 50);
+        assertTrue(backoff.nextDelay() <= 50);
+        Thread.sleep(60);
+        assertEquals(-1, backoff.nextDelay());
+    }
+
+    @Test
+    void testFirstAttemptIsScheduledFromAmiHistory() {
+        assertEquals(0, new BootstrapAuthBackoff("ami-1", Instant.now(), 30000, 0).firstAttemptDelay());
+
+        // The key was accepted 10s after the launch
+        new BootstrapAuthBackoff("ami-1", Instant.now().minusSeconds(10), 30000, 0).recordSuccess();
+
+        // A new instance waits until a bit before that time since its own launch
+        long delay = new BootstrapAuthBackoff("ami-1", Instant.now().minusSeconds(2), 30000, 0).firstAttemptDelay();
+        assertTrue(delay > 5000 && delay <= 6000, "first attempt delay " + delay);
+        assertEquals(0, new BootstrapAuthBackoff("ami-1", Instant.now().minusSeconds(9), 30000, 0).firstAttemptDelay());
+        assertEquals(0, new BootstrapAuthBackoff("ami-1", null, 30000, 0).firstAttemptDelay());
+        assertEquals(0, new BootstrapAuthBackoff("ami-2", Instant.now(), 30000, 0).firstAttemptDelay());
+    }
+
+    @Test
+    void testReconnectionsNeitherWaitNorRecord() {
+        new BootstrapAuthBackoff("ami-1", Instant.now().minusSeconds(10), 30000, 0).recordSuccess();
+
+        // An agent up for days is reconnected, it does not wait and its uptime is not taken as the time to auth
+        BootstrapAuthBackoff reconnect =
+                new BootstrapAuthBackoff("ami-1", Instant.now().minus(Duration.ofDays(3)), 30000, 0);
+        assertEquals(0, reconnect.firstAttemptDelay());
+        reconnect.recordSuccess();
+
+        long delay = new BootstrapAuthBackoff("ami-1", Instant.now(), 30000, 0).firstAttemptDelay();
+        assertTrue(delay > 7000 && delay <= 8000, "first attempt delay " + delay);
+    }
+}
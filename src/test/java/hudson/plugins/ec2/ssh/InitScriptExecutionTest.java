@@ -9,12 +9,14 @@ import hudson.plugins.ec2.EC2AbstractSlave;
 import hudson.plugins.ec2.EC2Cloud;
 import hudson.plugins.ec2.EC2Computer;
 import hudson.plugins.ec2.SlaveTemplate;
-import hudson.plugins.ec2.util.KeyHelper;
 import hudson.plugins.ec2.util.KeyPair;
+import hudson.plugins.ec2.util.PortProber;
 import hudson.plugins.ec2.util.SSHClientManager;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
@@ -55,7 +57,7 @@ class InitScriptExecutionTest {
     private KeyPairInfo mockKPInfo;
     private Instance mockInstance;
     private MockedStatic<SSHClientManager> mockStaticSSHClientManager;
-    private MockedStatic<KeyHelper> mockStaticKeyHelper;
+    private MockedStatic<PortProber> mockStaticPortProber;
     private ClientSession mockClientSession;
     private SshClient mockSshClient;
     private ScpClient mockScpClient;
@@ -90,7 +92,7 @@ class InitScriptExecutionTest {
         mockKPInfo = mock(KeyPairInfo.class);
         mockInstance = mock(Instance.class);
         mockStaticSSHClientManager = mockStatic(SSHClientManager.class);
-        mockStaticKeyHelper = mockStatic(KeyHelper.class);
+        mockStaticPortProber = mockStatic(PortProber.class);
         mockClientSession = mock(ClientSession.class);
         mockSshClient = mock(SshClient.class);
         mockScpClient = mock(ScpClient.class);
@@ -108,7 +110,7 @@ class InitScriptExecutionTest {
     @AfterEach
     void tearDown() {
         mockStaticSSHClientManager.close();
-        mockStaticKeyHelper.close();
+        mockStaticPortProber.close();
         mockStaticClosableScpClient.close();
         mockStaticScpClientCreator.close();
     }
@@ -130,8 +132,7 @@ class InitScriptExecutionTest {
         loggerRule.capture(3).record("hudson.plugins.ec2.ssh.EC2SSHLauncher", Level.ALL);
         launcher.launch(mockEC2Computer, mockListener);
         // Test for marker doesn't exists.
-        assertTrue(loggerRule.getMessages().stream()
-                .anyMatch(message -> message.contains("Failed to execute remote command: test -e ~/.hudson-run-init")));
+        assertTrue(loggerRule.getMessages().stream().anyMatch(message -> message.contains("initMarker=false")));
         // Test for successful init script execution.
         assertTrue(loggerRule.getMessages().stream()
                 .anyMatch(message ->
@@ -155,8 +156,7 @@ class InitScriptExecutionTest {
         loggerRule.capture(5).record("hudson.plugins.ec2.ssh.EC2SSHLauncher", Level.ALL);
         launcher.launch(mockEC2Computer, mockListener);
         // Test for marker doesn't exists.
-        assertTrue(loggerRule.getMessages().stream()
-                .anyMatch(message -> message.contains("Failed to execute remote command: test -e ~/.hudson-run-init")));
+        assertTrue(loggerRule.getMessages().stream().anyMatch(message -> message.contains("initMarker=false")));
         // Test for failed init script execution.
         assertTrue(loggerRule.getMessages().stream()
                 .anyMatch(message -> message.contains("Failed to execute remote command: exit 1")));
@@ -183,8 +183,7 @@ class InitScriptExecutionTest {
         loggerRule.capture(5).record("hudson.plugins.ec2.ssh.EC2SSHLauncher", Level.ALL);
         launcher.launch(mockEC2Computer, mockListener);
         // Test for marker doesn't exists.
-        assertTrue(loggerRule.getMessages().stream()
-                .anyMatch(message -> message.contains("Failed to execute remote command: test -e ~/.hudson-run-init")));
+        assertTrue(loggerRule.getMessages().stream().anyMatch(message -> message.contains("initMarker=false")));
         // Test for successful init script execution.
         assertTrue(loggerRule.getMessages().stream()
                 .anyMatch(message ->
@@ -194,6 +193,32 @@ class InitScriptExecutionTest {
                 .anyMatch(message -> message.contains("Unable to create ~/.hudson-run-init")));
     }
 
+    @Test
+    void testInitScriptNotExecutedWhenMarkerExists() throws Exception {
+        String initScript = "echo 'Hello World'";
+        mockNode = getMockNodeTemplate(initScript);
+        launcher = spy(new EC2UnixLauncher());
+
+        // Define behaviour.
+        defineBehaviourCommon();
+        doAnswer(invocation -> {
+                    invocation
+                            .getArgument(1, OutputStream.class)
+                            .write((RemoteEnvironment.INIT_MARKER + "=true\n").getBytes(StandardCharsets.UTF_8));
+                    return null;
+                })
+                .when(mockClientSession)
+                .executeRemoteCommand(
+                        contains("hudson-run-init"), any(OutputStream.class), any(), eq(StandardCharsets.UTF_8));
+
+        // Execute test.
+        loggerRule.capture(5).record("hudson.plugins.ec2.ssh.EC2SSHLauncher", Level.ALL);
+        launcher.launch(mockEC2Computer, mockListener);
+        assertTrue(loggerRule.getMessages().stream().anyMatch(message -> message.contains("initMarker=true")));
+        assertTrue(loggerRule.getMessages().stream().noneMatch(message -> message.contains("Executing init script")));
+        verify(launcher, never()).buildUpCommand(mockEC2Computer, "/tmp/init.sh");
+    }
+
     private EC2AbstractSlave getMockNodeTemplate(String initScript) throws Exception {
         return new EC2AbstractSlave(
                 "InitScriptTestInstance",
@@ -243,6 +268,9 @@ class InitScriptExecutionTest {
         when(mockEC2Computer.getNode()).thenReturn(mockNode);
         when(mockEC2Computer.getSlaveTemplate()).thenReturn(mockTemplate);
         mockStaticSSHClientManager.when(SSHClientManager::sshClient).thenReturn(mockSshClient);
+        mockStaticPortProber
+                .when(() -> PortProber.awaitOpen(eq(mockHost), anyLong(), any(int[].class)))
+                .thenReturn(true);
         when(mockEC2Computer.getCloud()).thenReturn(mockCloud);
         when(mockCloud.getKeyPair()).thenReturn(mockKp);
         when(mockKp.getKeyPairInfo()).thenReturn(mockKPInfo);
@@ -266,10 +294,7 @@ class InitScriptExecutionTest {
                 .thenReturn(mockConnectFuture);
         when(mockConnectFuture.verify(10000, TimeUnit.SECONDS)).thenReturn(mockConnectFuture);
         when(mockConnectFuture.getClientSession()).thenReturn(mockClientSession);
-        when(mockKp.getMaterial()).thenReturn("initscripttest_keymaterial");
-        mockStaticKeyHelper
-                .when(() -> KeyHelper.decodeKeyPair("initscripttest_keymaterial", ""))
-                .thenReturn(mockKeyPair);
+        when(mockKp.getDecodedKeyPair()).thenReturn(mockKeyPair);
         doNothing().when(mockClientSession).addPublicKeyIdentity(mockKeyPair);
         when(mockClientSession.auth()).thenReturn(mockAuthFuture);
         when(mockAuthFuture.await()).thenReturn(true);
@@ -277,12 +302,6 @@ class InitScriptExecutionTest {
         when(mockClientSession.createExecChannel(any(), any(), any(), any())).thenReturn(mockAgentChannelExec);
         when(mockAgentChannelExec.open()).thenReturn(mockOpenFuture);
         when(mockOpenFuture.verify(10000)).thenReturn(mockOpenFuture);
-        String tmpDirCmd = "mkdir -p /tmp";
-        doNothing().when(mockClientSession).executeRemoteCommand(tmpDirCmd, mockPS, mockPS, null);
-        String markerChkCmd = "test -e ~/.hudson-run-init";
-        doThrow(new IOException("Marker doesn't exists"))
-                .when(mockClientSession)
-                .executeRemoteCommand(markerChkCmd, mockPS, mockPS, null);
         doNothing().when(mockScpClient).upload(any(), any(), any(), any());
     }
 }
@@ -0,0 +1,36 @@
+package hudson.plugins.ec2.ssh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RemoteEnvironmentTest {
+
+    @Test
+    void testProbeOutputIsParsed() {
+        RemoteEnvironment environment = RemoteEnvironment.parse("tmpdir.writable=true\n"
+                + "tmpdir.free.kb=123456\n"
+                + "java.version=openjdk full version \"17.0.12+7\"\n"
+                + "scp=/usr/bin/scp\n"
+                + "remoting.sha256=0123abcd  /tmp/remoting.jar\n");
+        assertTrue(environment.isTmpDirWritable());
+        assertEquals(123456, environment.getTmpDirFreeKb());
+        assertFalse(environment.hasInitMarker());
+        assertEquals("openjdk full version \"17.0.12+7\"", environment.getJavaVersion());
+        assertTrue(environment.hasScp());
+        assertEquals("0123abcd  /tmp/remoting.jar", environment.getRemotingChecksum());
+    }
+
+    @Test
+    void testMissingOutputReportsFailedChecks() {
+        RemoteEnvironment environment = RemoteEnvironment.parse("tmpdir.free.kb=\nremoting.sha256=\n");
+        assertFalse(environment.isTmpDirWritable());
+        assertEquals(-1, environment.getTmpDirFreeKb());
+        assertFalse(environment.hasInitMarker());
+        assertNull(environment.getJavaVersion());
+        assertFalse(environment.hasScp());
+    }
+}
@@ -0,0 +1,61 @@
+package hudson.plugins.ec2.ssh.verifiers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.plugins.ec2.EC2AbstractSlave;
+import hudson.plugins.ec2.EC2Computer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+
+class ConsoleHostKeyWatcherTest {
+
+    private static final byte[] KEY = "host-key".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testKeyPrintedLaterIsFound() throws Exception {
+        EC2Computer computer = mock(EC2Computer.class);
+        when(computer.getNode()).thenReturn(mock(EC2AbstractSlave.class));
+        when(computer.getDecodedConsoleOutput())
+                .thenReturn(
+                        "Booting\n",
+                        "Booting\nec2: ssh-ed25519 " + Base64.getEncoder().encodeToString(KEY) + " root@host\n");
+
+        ConsoleHostKeyWatcher watcher = ConsoleHostKeyWatcher.of(computer);
+        long start = System.currentTimeMillis();
+        watcher.awaitKeys();
+        assertTrue(System.currentTimeMillis() - start < ConsoleHostKeyWatcher.VERIFY_WAIT_MS);
+        assertEquals(new HostKey("ssh-ed25519", KEY), watcher.getKey("ssh-ed25519"));
+    }
+
+    @Test
+    void testMissingKeyIsReportedOnceAllKeysArePrinted() throws Exception {
+        EC2Computer computer = mock(EC2Computer.class);
+        when(computer.getNode()).thenReturn(mock(EC2AbstractSlave.class));
+        when(computer.getDecodedConsoleOutput())
+                .thenReturn("ec2: ssh-ed25519 " + Base64.getEncoder().encodeToString(KEY) + " root@host\n"
+                        + "ec2: -----END SSH HOST KEY KEYS-----\n");
+
+        ConsoleHostKeyWatcher watcher = ConsoleHostKeyWatcher.of(computer);
+        watcher.awaitKeys();
+        assertNull(watcher.getKey("ecdsa-sha2-nistp256"));
+        assertFalse(watcher.isBlank());
+    }
+
+    @Test
+    void testKeyIsLookedUpWithoutWaiting() {
+        EC2Computer computer = mock(EC2Computer.class);
+        when(computer.getNode()).thenReturn(mock(EC2AbstractSlave.class));
+        when(computer.getDecodedConsoleOutput()).thenReturn("Booting\n");
+
+        ConsoleHostKeyWatcher watcher = ConsoleHostKeyWatcher.of(computer);
+        long start = System.currentTimeMillis();
+        assertNull(watcher.getKey("ssh-ed25519"));
+        assertTrue(System.currentTimeMillis() - start < ConsoleHostKeyWatcher.INITIAL_POLL_INTERVAL_MS);
+    }
+}
@@ -0,0 +1,56 @@
+package hudson.plugins.ec2.ssh.verifiers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import hudson.XmlFile;
+import hudson.plugins.ec2.MockEC2Computer;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class HostKeyHelperTest {
+
+    private JenkinsRule r;
+
+    @BeforeEach
+    void setUp(JenkinsRule rule) {
+        r = rule;
+        // The mock computers are not added to Jenkins, so there may be no nodes directory yet
+        new File(r.jenkins.getRootDir(), "nodes").mkdirs();
+    }
+
+    @Test
+    void testSavedKeyIsTrustedAndWrittenInBackground() throws Exception {
+        MockEC2Computer computer = MockEC2Computer.createComputer("HostKeyHelper");
+        HostKeyHelper helper = HostKeyHelper.getInstance();
+        assertNull(helper.getHostKey(computer));
+
+        HostKey hostKey = new HostKey("ssh-ed25519", "key".getBytes(StandardCharsets.UTF_8));
+        helper.saveHostKey(computer, hostKey);
+        assertEquals(hostKey, helper.getHostKey(computer));
+
+        HostKeyHelper.flush();
+        File hostKeyFile = new File(r.jenkins.getRootDir(), "nodes/" + computer.getName() + "/ssh-host-key.xml");
+        assertEquals(hostKey, new XmlFile(hostKeyFile).read());
+    }
+
+    @Test
+    void testLatestSavedKeyWins() throws Exception {
+        MockEC2Computer computer = MockEC2Computer.createComputer("HostKeyHelperLatest");
+        HostKeyHelper helper = HostKeyHelper.getInstance();
+
+        helper.saveHostKey(computer, new HostKey("ssh-ed25519", "first".getBytes(StandardCharsets.UTF_8)));
+        HostKey latest = new HostKey("ssh-ed25519", "second".getBytes(StandardCharsets.UTF_8));
+        helper.saveHostKey(computer, latest);
+        assertEquals(latest, helper.getHostKey(computer));
+
+        HostKeyHelper.flush();
+        File hostKeyFile = new File(r.jenkins.getRootDir(), "nodes/" + computer.getName() + "/ssh-host-key.xml");
+        assertEquals(latest, new XmlFile(hostKeyFile).read());
+    }
+}
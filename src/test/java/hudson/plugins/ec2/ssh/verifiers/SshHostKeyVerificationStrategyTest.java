@@ -290,6 +290,8 @@ class SshHostKeyVerificationStrategyTest {
 
         private void connect() throws Exception {
             try {
+                // Like the launcher, wait for what the verifier needs before connecting
+                computer.getSlaveTemplate().getHostKeyVerificationStrategy().getStrategy().beforeConnect(computer);
                 // Try to connect to it
                 ClientSession con = connection.connect(verifier);
                 con.close();
@@ -0,0 +1,26 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.ec2.model.KeyPairInfo;
+
+class KeyPairTest {
+
+    @Test
+    void testMaterialIsDecodedOnce() throws Exception {
+        KeyPair keyPair = new KeyPair(KeyPairInfo.builder().keyName("key").build(), PrivateKeyHelper.generate());
+        java.security.KeyPair decoded = keyPair.getDecodedKeyPair();
+        assertNotNull(decoded.getPrivate());
+        assertSame(decoded, keyPair.getDecodedKeyPair());
+    }
+
+    @Test
+    void testInvalidMaterialIsRejected() {
+        KeyPair keyPair = new KeyPair(KeyPairInfo.builder().keyName("key").build(), "not a key");
+        assertThrows(IOException.class, keyPair::getDecodedKeyPair);
+    }
+}
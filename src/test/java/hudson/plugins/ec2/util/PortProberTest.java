@@ -0,0 +1,43 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class PortProberTest {
+
+    @Test
+    void testOpenPortIsReported() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            assertTrue(PortProber.awaitOpen("127.0.0.1", 5000, server.getLocalPort()));
+        }
+    }
+
+    @Test
+    void testClosedPortTimesOut() throws Exception {
+        int port;
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = server.getLocalPort();
+        }
+        assertFalse(PortProber.awaitOpen("127.0.0.1", 500, port));
+    }
+
+    @Test
+    void testPortOpenedLaterIsReported() throws Exception {
+        int port;
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = server.getLocalPort();
+        }
+        CompletableFuture<Boolean> future = PortProber.probe("127.0.0.1", port, 10000);
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+    }
+}
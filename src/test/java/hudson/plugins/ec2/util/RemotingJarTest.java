@@ -0,0 +1,42 @@
+package hudson.plugins.ec2.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class RemotingJarTest {
+
+    @Test
+    void testJarIsReadOnce(JenkinsRule r) throws Exception {
+        RemotingJar jar = RemotingJar.get();
+        assertSame(jar, RemotingJar.get());
+        assertEquals(64, jar.getSha256().length());
+    }
+
+    @Test
+    void testChecksumOutputIsMatched(JenkinsRule r) throws Exception {
+        RemotingJar jar = RemotingJar.get();
+        String sha256 = jar.getSha256();
+
+        assertTrue(jar.matches(sha256 + "  /tmp/remoting.jar\n"));
+
+        StringBuilder spaced = new StringBuilder();
+        for (int i = 0; i < sha256.length(); i += 2) {
+            spaced.append(sha256, i, i + 2).append(' ');
+        }
+        assertTrue(jar.matches("SHA256 hash of C:\\Windows\\Temp\\remoting.jar:\r\n"
+                + spaced.toString().toUpperCase(Locale.ROOT)
+                + "\r\nCertUtil: -hashfile command completed successfully."));
+
+        assertFalse(jar.matches(null));
+        assertFalse(jar.matches("sha256sum: /tmp/remoting.jar: No such file or directory"));
+        assertFalse(jar.matches("0".repeat(64) + "  /tmp/remoting.jar"));
+    }
+}
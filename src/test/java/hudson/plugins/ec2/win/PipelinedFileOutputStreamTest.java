@@ -0,0 +1,72 @@
+package hudson.plugins.ec2.win;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.hierynomus.smbj.share.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+class PipelinedFileOutputStreamTest {
+
+    @Test
+    void testChunksAreWrittenAtTheirOffset() throws Exception {
+        byte[] file = new byte[10];
+        File smbFile = mock(File.class);
+        when(smbFile.writeAsync(any(byte[].class), anyLong(), anyInt(), anyInt()))
+                .thenAnswer(invocation -> {
+                    byte[] chunk = invocation.getArgument(0);
+                    long offset = invocation.getArgument(1);
+                    int length = invocation.getArgument(3);
+                    System.arraycopy(chunk, 0, file, (int) offset, length);
+                    return CompletableFuture.completedFuture((long) length);
+                });
+
+        try (PipelinedFileOutputStream out = new PipelinedFileOutputStream(smbFile, 4)) {
+            out.write(new byte[] {0, 1, 2});
+            out.write(new byte[] {3, 4, 5, 6, 7, 8});
+            out.write(9);
+        }
+
+        assertArrayEquals(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, file);
+        verify(smbFile, times(3)).writeAsync(any(byte[].class), anyLong(), anyInt(), anyInt());
+        verify(smbFile).close();
+    }
+
+    @Test
+    void testFailedWriteFailsTheUpload() throws Exception {
+        File smbFile = mock(File.class);
+        when(smbFile.writeAsync(any(byte[].class), anyLong(), anyInt(), anyInt()))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("disk full")));
+
+        PipelinedFileOutputStream out = new PipelinedFileOutputStream(smbFile, 4);
+        byte[] data = new byte[8];
+        Arrays.fill(data, (byte) 1);
+        out.write(data);
+        assertThrows(IOException.class, out::close);
+        verify(smbFile).close();
+    }
+
+    @Test
+    void testShortWriteFailsTheUpload() throws Exception {
+        File smbFile = mock(File.class);
+        when(smbFile.writeAsync(any(byte[].class), anyLong(), anyInt(), anyInt()))
+                .thenReturn(CompletableFuture.completedFuture(2L));
+
+        PipelinedFileOutputStream out = new PipelinedFileOutputStream(smbFile, 4);
+        out.write(new byte[4]);
+        IOException e = assertThrows(IOException.class, out::close);
+        assertTrue(e.getMessage().startsWith("Short write"), e.getMessage());
+        verify(smbFile).close();
+    }
+}
@@ -0,0 +1,89 @@
+package hudson.plugins.ec2.win;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.plugins.ec2.EC2Cloud;
+import hudson.plugins.ec2.EC2PrivateKey;
+import hudson.util.Secret;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.GetPasswordDataRequest;
+import software.amazon.awssdk.services.ec2.model.GetPasswordDataResponse;
+
+@WithJenkins
+class WindowsPasswordWatcherTest {
+
+    @Test
+    void testPasswordsAreRetrievedOncePerInstance(JenkinsRule r) throws Exception {
+        AtomicInteger polls = new AtomicInteger();
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.getPasswordData(any(GetPasswordDataRequest.class))).thenAnswer(invocation -> {
+            String instanceId = invocation.getArgument(0, GetPasswordDataRequest.class)
+                    .instanceId();
+            if (instanceId.equals("i-broken")) {
+                throw SdkException.create("boom", null);
+            }
+            // The password shows up on the second round
+            String data = polls.incrementAndGet() > 1 ? "encrypted" : "";
+            return GetPasswordDataResponse.builder()
+                    .instanceId(instanceId)
+                    .passwordData(data)
+                    .build();
+        });
+        EC2PrivateKey privateKey = mock(EC2PrivateKey.class);
+        when(privateKey.decryptWindowsPassword("encrypted")).thenReturn("s3cr3t");
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        when(cloud.resolvePrivateKey()).thenReturn(privateKey);
+
+        WindowsPasswordWatcher watcher = new WindowsPasswordWatcher(cloud);
+        CompletableFuture<Secret> password = watcher.watch("i-ready");
+        assertSame(password, watcher.watch("i-ready"));
+        CompletableFuture<Secret> broken = watcher.watch("i-broken");
+
+        assertEquals("s3cr3t", password.get(30, TimeUnit.SECONDS).getPlainText());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> broken.get(30, TimeUnit.SECONDS));
+        assertInstanceOf(SdkException.class, e.getCause());
+        verify(privateKey, times(1)).decryptWindowsPassword("encrypted");
+    }
+
+    @Test
+    void testDoneWaitIsReplaced(JenkinsRule r) throws Exception {
+        Ec2Client ec2 = mock(Ec2Client.class);
+        when(ec2.getPasswordData(any(GetPasswordDataRequest.class)))
+                .thenReturn(GetPasswordDataResponse.builder()
+                        .instanceId("i-ready")
+                        .passwordData("encrypted")
+                        .build());
+        EC2PrivateKey privateKey = mock(EC2PrivateKey.class);
+        when(privateKey.decryptWindowsPassword("encrypted")).thenReturn("s3cr3t");
+        EC2Cloud cloud = mock(EC2Cloud.class);
+        when(cloud.connect()).thenReturn(ec2);
+        when(cloud.resolvePrivateKey()).thenReturn(privateKey);
+
+        WindowsPasswordWatcher watcher = new WindowsPasswordWatcher(cloud);
+        CompletableFuture<Secret> cancelled = watcher.watch("i-ready");
+        cancelled.cancel(false);
+
+        // Another launcher of the instance still gets the password
+        CompletableFuture<Secret> password = watcher.watch("i-ready");
+        assertNotSame(cancelled, password);
+        assertEquals("s3cr3t", password.get(30, TimeUnit.SECONDS).getPlainText());
+    }
+}
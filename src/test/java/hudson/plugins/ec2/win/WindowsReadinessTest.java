@@ -0,0 +1,36 @@
+package hudson.plugins.ec2.win;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class WindowsReadinessTest {
+
+    @Test
+    void testTimeIsAccountedPerStage() throws Exception {
+        WindowsReadiness readiness = new WindowsReadiness();
+        assertEquals("", readiness.toString());
+
+        readiness.enter(WindowsReadiness.Stage.ADDRESS);
+        Thread.sleep(20);
+        readiness.enter(WindowsReadiness.Stage.PORTS);
+        long address = readiness.getWaitedMillis(WindowsReadiness.Stage.ADDRESS);
+        assertTrue(address >= 20, "address stage took " + address + "ms");
+
+        // Entering the current stage again does not restart it
+        Thread.sleep(20);
+        readiness.enter(WindowsReadiness.Stage.PORTS);
+        Thread.sleep(20);
+        readiness.finish();
+        assertTrue(readiness.getWaitedMillis(WindowsReadiness.Stage.PORTS) >= 40);
+        assertEquals(address, readiness.getWaitedMillis(WindowsReadiness.Stage.ADDRESS));
+        assertEquals(0, readiness.getWaitedMillis(WindowsReadiness.Stage.PASSWORD));
+
+        String summary = readiness.toString();
+        assertTrue(summary.startsWith("IP address "), summary);
+        assertTrue(summary.contains(", WinRM and SMB ports "), summary);
+        assertFalse(summary.contains("password"), summary);
+    }
+}
@@ -0,0 +1,67 @@
+package hudson.plugins.ec2.win.winrm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ReceiveResponseParserTest {
+
+    private static String response(String body) {
+        return "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\""
+                + " xmlns:rsp=\"http://schemas.microsoft.com/wbem/wsman/1/windows/shell\">"
+                + "<s:Body><rsp:ReceiveResponse>" + body + "</rsp:ReceiveResponse></s:Body></s:Envelope>";
+    }
+
+    private static String stream(String name, byte[] content) {
+        return "<rsp:Stream Name=\"" + name + "\" CommandId=\"1\">"
+                + Base64.getEncoder().encodeToString(content) + "</rsp:Stream>";
+    }
+
+    @Test
+    void testStreamsAreDecodedToTheirPipes() throws Exception {
+        byte[] large = new byte[100_000];
+        new Random(42).nextBytes(large);
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+        ReceiveResponseParser parser = new ReceiveResponseParser();
+        parser.parse(
+                response(stream("stdout", "hello ".getBytes(StandardCharsets.UTF_8))
+                        + stream("stderr", "oops".getBytes(StandardCharsets.UTF_8))
+                        + stream("stdout", large)
+                        + "<rsp:Stream Name=\"stdout\" CommandId=\"1\" End=\"true\"></rsp:Stream>"
+                        + "<rsp:CommandState CommandId=\"1\""
+                        + " State=\"http://schemas.microsoft.com/wbem/wsman/1/windows/shell/CommandState/Running\"/>"),
+                Map.of("stdout", stdout, "stderr", stderr));
+
+        byte[] out = stdout.toByteArray();
+        assertEquals("hello ", new String(out, 0, 6, StandardCharsets.UTF_8));
+        byte[] rest = new byte[out.length - 6];
+        System.arraycopy(out, 6, rest, 0, rest.length);
+        assertArrayEquals(large, rest);
+        assertEquals("oops", stderr.toString(StandardCharsets.UTF_8));
+        assertFalse(parser.isDone());
+        assertNull(parser.getExitCode());
+    }
+
+    @Test
+    void testDoneStateAndExitCodeAreDetected() throws Exception {
+        ReceiveResponseParser parser = new ReceiveResponseParser();
+        parser.parse(
+                response("<rsp:CommandState CommandId=\"1\""
+                        + " State=\"http://schemas.microsoft.com/wbem/wsman/1/windows/shell/CommandState/Done\">"
+                        + "<rsp:ExitCode>3</rsp:ExitCode></rsp:CommandState>"),
+                Map.of());
+        assertTrue(parser.isDone());
+        assertEquals(3, parser.getExitCode());
+    }
+}
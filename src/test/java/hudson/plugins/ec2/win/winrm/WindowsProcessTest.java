@@ -0,0 +1,80 @@
+package hudson.plugins.ec2.win.winrm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.remoting.FastPipedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+class WindowsProcessTest {
+
+    @Test
+    void testOutputIsPumpedAndInputIsSent() throws Exception {
+        WinRMClient client = mock(WinRMClient.class);
+        when(client.slurpOutput(any(FastPipedOutputStream.class), any(FastPipedOutputStream.class)))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(0, OutputStream.class).write("hello ".getBytes(StandardCharsets.UTF_8));
+                    return true;
+                })
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(0, OutputStream.class).write("world".getBytes(StandardCharsets.UTF_8));
+                    return false;
+                });
+        when(client.exitCode()).thenReturn(3);
+
+        WindowsProcess process = new WindowsProcess(client, "cmd");
+        process.getStdin().write("input".getBytes(StandardCharsets.UTF_8));
+        verify(client, timeout(10000)).sendInput(aryEq("input".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("hello world", IOUtils.toString(process.getStdout(), StandardCharsets.UTF_8));
+        assertEquals(3, process.waitFor());
+        verify(client).deleteShell();
+    }
+
+    @Test
+    void testSmallWritesAreSentTogether() throws Exception {
+        WinRMClient client = mock(WinRMClient.class);
+        when(client.slurpOutput(any(FastPipedOutputStream.class), any(FastPipedOutputStream.class)))
+                .thenReturn(false);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        AtomicInteger sends = new AtomicInteger();
+        doAnswer(invocation -> {
+                    synchronized (sent) {
+                        sent.write(invocation.getArgument(0, byte[].class));
+                        sends.incrementAndGet();
+                    }
+                    return null;
+                })
+                .when(client)
+                .sendInput(any(byte[].class));
+
+        WindowsProcess process = new WindowsProcess(client, "cmd");
+        for (int i = 0; i < 100; i++) {
+            process.getStdin().write('a' + i % 26);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (sent) {
+                if (sent.size() == 100) {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(100, sent.size());
+        assertTrue(sends.get() < 100, "Sent in " + sends.get() + " requests");
+        assertTrue(WindowsProcess.getInputStatistics().contains("Send requests"));
+    }
+}